@@ -1,6 +1,7 @@
 package mw.ankara.qrcode;
 
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -18,6 +19,7 @@ import android.support.v7.app.ActionBar;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.MenuItem;
 import android.view.SurfaceHolder;
 import android.view.SurfaceHolder.Callback;
@@ -27,23 +29,35 @@ import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Vector;
 
 import mw.ankara.qrcode.camera.CameraManager;
+import mw.ankara.qrcode.camera.CameraOpener;
+import mw.ankara.qrcode.core.ScanStream;
+import mw.ankara.qrcode.core.StartupTimeline;
 import mw.ankara.qrcode.decoding.CaptureActivityHandler;
+import mw.ankara.qrcode.decoding.CaptureHost;
 import mw.ankara.qrcode.decoding.InactivityTimer;
+import mw.ankara.qrcode.decoding.Intents;
 import mw.ankara.qrcode.view.QRCaptureView;
 
-public class QRCaptureActivity extends AppCompatActivity implements Callback {
+public class QRCaptureActivity extends AppCompatActivity implements Callback, CaptureHost {
+
+    private static final String TAG = QRCaptureActivity.class.getSimpleName();
 
     private static final float BEEP_VOLUME = 0.10f;
 
     private QRCaptureView mQRCaptureView;
 
+    private CameraManager mCameraManager;
+    private CameraOpener mCameraOpener;
+    private SurfaceHolder mSurfaceHolder;
     private CaptureActivityHandler mCaptureActivityHandler;
     private Vector<BarcodeFormat> mBarcodeFormats;
     private InactivityTimer mInactivityTimer;
     private MediaPlayer mMediaPlayer;
+    private boolean mLoadingBeep;
 
     private String mCharacterSet;
 
@@ -52,12 +66,26 @@ public class QRCaptureActivity extends AppCompatActivity implements Callback {
     private boolean mPlayBeep;
     private boolean mVibrate = true;
 
+    private boolean mMultiRead;
+    private final ArrayList<String> mMultiResults = new ArrayList<String>();
+    private final ArrayList<String> mMultiResultFormats = new ArrayList<String>();
+
+    private boolean mContinuous;
+    private final ScanStream mScanStream = new ScanStream();
+
+    // Timed from onCreate for the first start, and from onResume for later ones.
+    private final StartupTimeline mStartupTimeline = new StartupTimeline();
+    private boolean mColdStart;
+
     /**
      * Called when the activity is first created.
      */
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mStartupTimeline.start();
+        mColdStart = true;
+        StartupTimeline.Span span = mStartupTimeline.begin("layout");
         setContentView(R.layout.activity_qr_capture);
 
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
@@ -67,12 +95,16 @@ public class QRCaptureActivity extends AppCompatActivity implements Callback {
             actionBar.setDisplayHomeAsUpEnabled(true);
         }
 
-        CameraManager.init(getApplication());
+        mCameraManager = new CameraManager(getApplication());
         mQRCaptureView = (QRCaptureView) findViewById(R.id.qr_capture_qcv_finder);
+        mQRCaptureView.setCameraManager(mCameraManager);
         mInactivityTimer = new InactivityTimer(this);
 
         AudioManager audioService = (AudioManager) getSystemService(AUDIO_SERVICE);
         mPlayBeep = audioService.getRingerMode() == AudioManager.RINGER_MODE_NORMAL;
+        mMultiRead = getIntent().getBooleanExtra(Intents.Scan.MULTI_READ, false);
+        mContinuous = getIntent().getBooleanExtra(Intents.Scan.CONTINUOUS, false);
+        span.end();
     }
 
     private void checkPermission() {
@@ -101,21 +133,31 @@ public class QRCaptureActivity extends AppCompatActivity implements Callback {
         if (mPermissionDenied) {
             return;
         }
+        if (!mColdStart) {
+            mStartupTimeline.start();
+        }
+        mColdStart = false;
+
+        // The camera opens on a thread of its own, while the surface is created, the decode
+        // threads warm up and the beep loads. Scanning starts once the camera and surface are
+        // both there.
+        mCameraOpener = new CameraOpener(mCameraManager, mStartupTimeline, mCameraCallback);
+        mCameraOpener.start();
 
         SurfaceView surfaceView = (SurfaceView) findViewById(R.id.qr_capture_sv_preview);
-        SurfaceHolder surfaceHolder = surfaceView.getHolder();
+        mSurfaceHolder = surfaceView.getHolder();
 
         if(Build.VERSION.SDK_INT < 11) {
-            surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+            mSurfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
         }
 
-        if (mHasSurface) {
-            initCamera(surfaceHolder);
-        } else {
-            surfaceHolder.addCallback(this);
+        if (!mHasSurface) {
+            mSurfaceHolder.addCallback(this);
         }
         mBarcodeFormats = null;
         mCharacterSet = null;
+        initCaptureHandler();
+        startScanningIfReady();
 
         initBeepSound();
     }
@@ -123,11 +165,15 @@ public class QRCaptureActivity extends AppCompatActivity implements Callback {
     @Override
     protected void onPause() {
         super.onPause();
+        if (mCameraOpener != null) {
+            mCameraOpener.cancel();
+            mCameraOpener = null;
+        }
         if (mCaptureActivityHandler != null) {
             mCaptureActivityHandler.quitSynchronously();
             mCaptureActivityHandler = null;
         }
-        CameraManager.get().closeDriver();
+        mCameraManager.closeDriver();
     }
 
     @Override
@@ -136,18 +182,61 @@ public class QRCaptureActivity extends AppCompatActivity implements Callback {
         super.onDestroy();
     }
 
-    private void initCamera(SurfaceHolder surfaceHolder) {
-        try {
-            CameraManager.get().openDriver(surfaceHolder);
-        } catch (IOException | RuntimeException ioe) {
-            return;
+    private final CameraOpener.Callback mCameraCallback = new CameraOpener.Callback() {
+        @Override
+        public void onCameraOpened() {
+            mCameraOpener = null;
+            startScanningIfReady();
         }
 
+        @Override
+        public void onCameraFailed(Exception e) {
+            mCameraOpener = null;
+            Log.w(TAG, "Cannot open the camera", e);
+        }
+    };
+
+    private void initCaptureHandler() {
         if (mCaptureActivityHandler == null) {
-            mCaptureActivityHandler = new CaptureActivityHandler(this, mBarcodeFormats, mCharacterSet);
+            mCaptureActivityHandler = new CaptureActivityHandler(this, mCameraManager,
+                    mBarcodeFormats, mCharacterSet);
+            mCaptureActivityHandler.getQualityGate().setEnabled(
+                    getIntent().getBooleanExtra(Intents.Scan.QUALITY_GATE, true));
+            mCaptureActivityHandler.getSceneChangeDetector().setEnabled(
+                    getIntent().getBooleanExtra(Intents.Scan.SKIP_UNCHANGED, true));
+            mCaptureActivityHandler.getRoiTracker().setEnabled(
+                    getIntent().getBooleanExtra(Intents.Scan.TRACK_BARCODE, true));
+            mCaptureActivityHandler.getBinarizerSelector().setEnabled(
+                    getIntent().getBooleanExtra(Intents.Scan.ADAPTIVE_BINARIZER, true));
+            mCaptureActivityHandler.getTryHarderPolicy().setEnabled(
+                    getIntent().getBooleanExtra(Intents.Scan.ESCALATE_TRY_HARDER, true));
+            mCaptureActivityHandler.getTryHarderPolicy().setAlsoInverted(
+                    getIntent().getBooleanExtra(Intents.Scan.SCAN_INVERTED, false));
+            mCaptureActivityHandler.setMultiRead(mMultiRead);
+            mCaptureActivityHandler.setScanStream(mContinuous ? mScanStream : null);
+            mCaptureActivityHandler.setPyramidDecode(
+                    getIntent().getBooleanExtra(Intents.Scan.PYRAMID_DECODE, false));
         }
     }
 
+    /**
+     * Starts the preview and decoding once the camera is open and the surface created, whichever
+     * comes last.
+     */
+    private void startScanningIfReady() {
+        if (!mHasSurface || mCaptureActivityHandler == null || !mCameraManager.isOpen()) {
+            return;
+        }
+        try {
+            mCameraManager.setPreviewDisplay(mSurfaceHolder);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Cannot show the preview", ioe);
+            return;
+        }
+
+        mCaptureActivityHandler.resumeScanning();
+    }
+
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
     }
@@ -156,28 +245,76 @@ public class QRCaptureActivity extends AppCompatActivity implements Callback {
     public void surfaceCreated(SurfaceHolder holder) {
         if (!mHasSurface) {
             mHasSurface = true;
-            initCamera(holder);
+            mStartupTimeline.markOnce("surface created");
+            startScanningIfReady();
         }
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         mHasSurface = false;
+        if (mCaptureActivityHandler != null) {
+            mCaptureActivityHandler.pauseScanning();
+        }
+    }
 
+    /**
+     * @return How the scan started: opening the camera, creating the surface, warming up the
+     * decoders and loading the beep, side by side, up to the first frame and result.
+     */
+    @Override
+    public StartupTimeline getStartupTimeline() {
+        return mStartupTimeline;
     }
 
+    @Override
+    public Context getContext() {
+        return this;
+    }
+
+    @Override
     public QRCaptureView getQRCaptureView() {
         return mQRCaptureView;
     }
 
+    /**
+     * @return The camera this activity scans with, for a subclass to record frames from with
+     * {@link CameraManager#startRecording(String)}, or null before {@link #onCreate(Bundle)}.
+     */
+    protected CameraManager getCameraManager() {
+        return mCameraManager;
+    }
+
     public Handler getCaptureActivityHandler() {
         return mCaptureActivityHandler;
     }
 
+    /**
+     * @return Where barcodes are published when scanning {@link Intents.Scan#CONTINUOUS
+     * continuously}. Subscriptions outlive the camera, so they can be made before it opens and
+     * carry on after the activity was paused.
+     */
+    public ScanStream getScanStream() {
+        return mScanStream;
+    }
+
+    /**
+     * Changes what to look for while scanning, without restarting the camera or the decode
+     * threads. Lasts until the activity is paused.
+     */
+    public void setDecodeConfig(Vector<BarcodeFormat> formats, String characterSet,
+                                boolean tryHarder) {
+        if (mCaptureActivityHandler != null) {
+            mCaptureActivityHandler.setDecodeConfig(formats, characterSet, tryHarder);
+        }
+    }
+
+    @Override
     public void drawViewfinder() {
         mQRCaptureView.drawViewfinder();
     }
 
+    @Override
     public void handleDecode(final Result obj, Bitmap barcode) {
         mInactivityTimer.onActivity();
         playBeepSoundAndVibrate();
@@ -196,25 +333,84 @@ public class QRCaptureActivity extends AppCompatActivity implements Callback {
         }
     }
 
+    /**
+     * Called for every new barcode while reading several. Scanning goes on.
+     */
+    @Override
+    public void handleBarcodeFound(Result obj, Bitmap barcode) {
+        mInactivityTimer.onActivity();
+        playBeepSoundAndVibrate();
+        mMultiResults.add(obj.getText());
+        mMultiResultFormats.add(obj.getBarcodeFormat().toString());
+    }
+
+    /**
+     * Called for every barcode delivered to a subscriber of the {@link #getScanStream() scan
+     * stream}. Scanning goes on.
+     */
+    @Override
+    public void handleScan(Result obj, Bitmap barcode) {
+        mInactivityTimer.onActivity();
+        playBeepSoundAndVibrate();
+    }
+
+    @Override
+    public void onBackPressed() {
+        if (mMultiRead && !mMultiResults.isEmpty()) {
+            Intent intent = new Intent();
+            intent.putStringArrayListExtra(Intents.Scan.RESULTS, mMultiResults);
+            intent.putStringArrayListExtra(Intents.Scan.RESULT_FORMATS, mMultiResultFormats);
+            setResult(RESULT_OK, intent);
+        }
+        super.onBackPressed();
+    }
+
     private void initBeepSound() {
-        if (mPlayBeep && mMediaPlayer == null) {
+        if (mPlayBeep && mMediaPlayer == null && !mLoadingBeep) {
             // The volume on STREAM_SYSTEM is not adjustable, and users found it
             // too loud,
             // so we now play on the music stream.
             setVolumeControlStream(AudioManager.STREAM_MUSIC);
-            mMediaPlayer = new MediaPlayer();
-            mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mMediaPlayer.setOnCompletionListener(beepListener);
-
-            AssetFileDescriptor file = getResources().openRawResourceFd(R.raw.beep);
-            try {
-                mMediaPlayer.setDataSource(file.getFileDescriptor(), file.getStartOffset(), file.getLength());
-                file.close();
-                mMediaPlayer.setVolume(BEEP_VOLUME, BEEP_VOLUME);
-                mMediaPlayer.prepare();
-            } catch (IOException e) {
-                mMediaPlayer = null;
-            }
+            // Preparing the player reads and decodes the sound, so it is done beside the camera.
+            // Without a looper on that thread, the player's callbacks still come to this one.
+            mLoadingBeep = true;
+            new Thread("BeepLoader") {
+                @Override
+                public void run() {
+                    StartupTimeline.Span span = mStartupTimeline.begin("beep");
+                    final MediaPlayer mediaPlayer = loadBeepSound();
+                    span.end();
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            mLoadingBeep = false;
+                            mMediaPlayer = mediaPlayer;
+                        }
+                    });
+                }
+            }.start();
+        }
+    }
+
+    /**
+     * @return A player ready to beep, or null if the sound could not be loaded.
+     */
+    private MediaPlayer loadBeepSound() {
+        MediaPlayer mediaPlayer = new MediaPlayer();
+        mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        mediaPlayer.setOnCompletionListener(beepListener);
+
+        AssetFileDescriptor file = getResources().openRawResourceFd(R.raw.beep);
+        try {
+            mediaPlayer.setDataSource(file.getFileDescriptor(), file.getStartOffset(),
+                    file.getLength());
+            file.close();
+            mediaPlayer.setVolume(BEEP_VOLUME, BEEP_VOLUME);
+            mediaPlayer.prepare();
+            return mediaPlayer;
+        } catch (IOException e) {
+            mediaPlayer.release();
+            return null;
         }
     }
 
@@ -18,20 +18,28 @@ package mw.ankara.qrcode.camera;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.graphics.PixelFormat;
 import android.hardware.Camera;
 import android.os.Build;
+import android.util.TypedValue;
 import android.view.Display;
 import android.view.WindowManager;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
+import mw.ankara.qrcode.core.CameraProfile;
+import mw.ankara.qrcode.core.PreviewSizeStrategy;
+
 final class CameraConfigurationManager {
 
     private static final String TAG = CameraConfigurationManager.class.getSimpleName();
 
     private static final int TEN_DESIRED_ZOOM = 27;
     private static final int DESIRED_SHARPNESS = 30;
+    private static final int DISPLAY_ORIENTATION = 90;
 
     private static final Pattern COMMA_PATTERN = Pattern.compile(",");
 
@@ -40,38 +48,112 @@ final class CameraConfigurationManager {
     private Point cameraResolution;
     private int previewFormat;
     private String previewFormatString;
+    private int displayOrientation;
+    private volatile PreviewSizeStrategy previewSizeStrategy;
 
     CameraConfigurationManager(Context context) {
         this.context = context;
     }
 
     /**
-     * Reads, one time, values from the camera that are needed by the app.
+     * Works out from the camera's parameters what to set it up with, which means parsing the
+     * preview sizes and zoom values it lists. Leaves the parameters and this manager as they are,
+     * so it can run on any thread.
+     *
+     * @param screenResolution The screen size, which the preview size is picked for.
      */
-    void initFromCameraParameters(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
-        previewFormat = parameters.getPreviewFormat();
-        previewFormatString = parameters.get("preview-format");
-        WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-        Display display = manager.getDefaultDisplay();
-        screenResolution = new Point(display.getWidth(), display.getHeight());
-        cameraResolution = getCameraResolution(parameters, screenResolution);
+    CameraProfile resolveProfile(Camera.Parameters parameters, Point screenResolution) {
+        PreviewSizeStrategy strategy = previewSizeStrategy;
+        int framingSize = getFramingSize(screenResolution);
+        Point cameraResolution = null;
+        if (strategy != null) {
+            cameraResolution = selectPreviewSize(parameters, screenResolution, framingSize,
+                    strategy);
+        }
+        if (cameraResolution == null) {
+            cameraResolution = getCameraResolution(parameters, screenResolution);
+        }
+        String[] zoom = findZoom(parameters);
+        int[] fpsRange = null;
+        if (strategy != null) {
+            fpsRange = selectFpsRange(parameters, cameraResolution, screenResolution, framingSize,
+                    strategy);
+        }
+        if (fpsRange == null) {
+            fpsRange = new int[2];
+            parameters.getPreviewFpsRange(fpsRange);
+        }
+        return new CameraProfile(cameraResolution.x, cameraResolution.y,
+                parameters.getPreviewFormat(), parameters.get("preview-format"), zoom[0], zoom[1],
+                fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX], parameters.getFocusMode());
     }
 
     /**
-     * Sets the camera up to take preview images which are used for both preview and decoding.
-     * We detect the preview format here so that buildLuminanceSource() can build an appropriate
-     * LuminanceSource subclass. In the future we may want to force YUV420SP as it's the smallest,
-     * and the planar Y can be used for barcode scanning without a copy in some cases.
+     * Sets the camera up to take preview images which are used for both preview and decoding, in
+     * one round trip, and remembers the preview size and format the frames arrive in.
+     *
+     * @param parameters       The camera's parameters, which are changed to the profile.
+     * @param screenResolution The screen size the profile was picked for.
+     * @throws RuntimeException If the camera rejects the profile.
      */
-    void setDesiredCameraParameters(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
-        parameters.setPreviewSize(cameraResolution.x, cameraResolution.y);
+    void applyProfile(Camera camera, Camera.Parameters parameters, CameraProfile profile,
+                      Point screenResolution) {
+        parameters.setPreviewSize(profile.getPreviewWidth(), profile.getPreviewHeight());
+        if (parameters.getPreviewFormat() != profile.getPreviewFormat()) {
+            parameters.setPreviewFormat(profile.getPreviewFormat());
+        }
         setFlash(parameters);
-        setZoom(parameters);
+        if (profile.getZoom() != null) {
+            parameters.set("zoom", profile.getZoom());
+        }
+        if (profile.getTakingPictureZoom() != null) {
+            parameters.set("taking-picture-zoom", profile.getTakingPictureZoom());
+        }
+        if (profile.getMaxFps() > 0) {
+            parameters.setPreviewFpsRange(profile.getMinFps(), profile.getMaxFps());
+        }
+        if (profile.getFocusMode() != null) {
+            parameters.setFocusMode(profile.getFocusMode());
+        }
         //setSharpness(parameters);
-        setDisplayOrientation(camera, 90);
+        setDisplayOrientation(camera, DISPLAY_ORIENTATION);
         camera.setParameters(parameters);
+
+        this.screenResolution = screenResolution;
+        cameraResolution = new Point(profile.getPreviewWidth(), profile.getPreviewHeight());
+        previewFormat = profile.getPreviewFormat();
+        previewFormatString = profile.getPreviewFormatString();
+    }
+
+    /**
+     * @param strategy How to pick the preview size and frame rate, or null to pick the preview
+     *                 size closest to the screen and leave the frame rate.
+     */
+    void setPreviewSizeStrategy(PreviewSizeStrategy strategy) {
+        previewSizeStrategy = strategy;
+    }
+
+    PreviewSizeStrategy getPreviewSizeStrategy() {
+        return previewSizeStrategy;
+    }
+
+    /**
+     * @return The side of the framing rect on a screen this size, in pixels.
+     */
+    int getFramingSize(Point screenResolution) {
+        int size = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                CameraManager.FRAMING_SIZE_DIP, context.getResources().getDisplayMetrics());
+        return Math.min(size, Math.min(screenResolution.x, screenResolution.y));
+    }
+
+    /**
+     * @return The screen size, as the preview size is picked for it.
+     */
+    Point readScreenResolution() {
+        WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        Display display = manager.getDefaultDisplay();
+        return new Point(display.getWidth(), display.getHeight());
     }
 
     Point getCameraResolution() {
@@ -90,6 +172,70 @@ final class CameraConfigurationManager {
         return previewFormatString;
     }
 
+    /**
+     * Checks that the preview frames start with a full-resolution Y plane, the only part of them
+     * the decoders read.
+     *
+     * @throws IllegalArgumentException If the frames are in any other format.
+     */
+    void checkPreviewFormat() {
+        switch (previewFormat) {
+            // This is the standard Android format which all devices are REQUIRED to support.
+            // In theory, it's the only one we should ever care about.
+            case PixelFormat.YCbCr_420_SP:
+                // This format has never been seen in the wild, but is compatible as we only care
+                // about the Y channel, so allow it.
+            case PixelFormat.YCbCr_422_SP:
+                return;
+            default:
+                // The Samsung Moment incorrectly uses this variant instead of the 'sp' version.
+                // Fortunately, it too has all the Y data up front, so we can read it.
+                if ("yuv420p".equals(previewFormatString)) {
+                    return;
+                }
+        }
+        throw new IllegalArgumentException("Unsupported picture format: " +
+                previewFormat + '/' + previewFormatString);
+    }
+
+    /**
+     * @return The clockwise rotation, in degrees, between the preview frames and the screen.
+     */
+    int getDisplayOrientation() {
+        return displayOrientation;
+    }
+
+    private static Point selectPreviewSize(Camera.Parameters parameters, Point screenResolution,
+                                           int framingSize, PreviewSizeStrategy strategy) {
+        List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
+        if (sizes == null || sizes.isEmpty()) {
+            return null;
+        }
+        List<int[]> candidates = new ArrayList<int[]>(sizes.size());
+        for (Camera.Size size : sizes) {
+            candidates.add(new int[]{size.width, size.height});
+        }
+        int index = strategy.selectPreviewSize(candidates, screenResolution.x, screenResolution.y,
+                framingSize);
+        if (index < 0) {
+            return null;
+        }
+        Camera.Size size = sizes.get(index);
+        return new Point(size.width, size.height);
+    }
+
+    private static int[] selectFpsRange(Camera.Parameters parameters, Point cameraResolution,
+                                        Point screenResolution, int framingSize,
+                                        PreviewSizeStrategy strategy) {
+        List<int[]> fpsRanges = parameters.getSupportedPreviewFpsRange();
+        if (fpsRanges == null || fpsRanges.isEmpty()) {
+            return null;
+        }
+        int index = strategy.selectFpsRange(fpsRanges, cameraResolution.x, cameraResolution.y,
+                screenResolution.x, screenResolution.y, framingSize);
+        return index < 0 ? null : fpsRanges.get(index);
+    }
+
     private static Point getCameraResolution(Camera.Parameters parameters, Point screenResolution) {
 
         String previewSizeValueString = parameters.get("preview-size-values");
@@ -187,11 +333,15 @@ final class CameraConfigurationManager {
         parameters.set("flash-mode", "off");
     }
 
-    private void setZoom(Camera.Parameters parameters) {
+    /**
+     * @return The "zoom" and "taking-picture-zoom" values to set, either null to leave it.
+     */
+    private static String[] findZoom(Camera.Parameters parameters) {
+        String[] zoom = new String[2];
 
         String zoomSupportedString = parameters.get("zoom-supported");
         if (zoomSupportedString != null && !Boolean.parseBoolean(zoomSupportedString)) {
-            return;
+            return zoom;
         }
 
         int tenDesiredZoom = TEN_DESIRED_ZOOM;
@@ -239,20 +389,22 @@ final class CameraConfigurationManager {
         // Set zoom. This helps encourage the user to pull back.
         // Some devices like the Behold have a zoom parameter
         if (maxZoomString != null || motZoomValuesString != null) {
-            parameters.set("zoom", String.valueOf(tenDesiredZoom / 10.0));
+            zoom[0] = String.valueOf(tenDesiredZoom / 10.0);
         }
 
         // Most devices, like the Hero, appear to expose this zoom parameter.
         // It takes on values like "27" which appears to mean 2.7x zoom
         if (takingPictureZoomMaxString != null) {
-            parameters.set("taking-picture-zoom", tenDesiredZoom);
+            zoom[1] = String.valueOf(tenDesiredZoom);
         }
+        return zoom;
     }
 
     /**
      * compatible  1.6
      */
     protected void setDisplayOrientation(Camera camera, int angle) {
+        displayOrientation = angle;
         Method downPolymorphic;
         try {
             downPolymorphic = camera.getClass().getMethod("setDisplayOrientation", int.class);
@@ -17,21 +17,38 @@
 package mw.ankara.qrcode.camera;
 
 import android.content.Context;
-import android.graphics.PixelFormat;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Build;
 import android.os.Handler;
-import android.util.TypedValue;
+import android.util.Log;
 import android.view.SurfaceHolder;
 
+import java.io.File;
 import java.io.IOException;
 
+import mw.ankara.qrcode.core.BackgroundFrameRecorder;
+import mw.ankara.qrcode.core.CameraProfile;
+import mw.ankara.qrcode.core.FrameMailbox;
+import mw.ankara.qrcode.core.FrameRecorder;
+import mw.ankara.qrcode.core.PipelineMetrics;
+import mw.ankara.qrcode.core.PreviewSizeStrategy;
+import mw.ankara.qrcode.core.StartupTimeline;
+import mw.ankara.qrcode.core.ThroughputPreviewSizeStrategy;
+
 /**
  * This object wraps the Camera service object and expects to be the only one talking to it. The
  * implementation encapsulates the steps needed to take preview-sized images, which are used for
  * both preview and decoding.
+ * <p>
+ * Each scanner owns its own instance, along with the framing rect and camera resolution it worked
+ * out, so several screens can each embed one. Only one of them can hold the camera at a time.
+ * <p>
+ * What the camera is set up with is worked out on the first open and kept as a
+ * {@link CameraProfile} across launches. Later opens apply it straight away, and
+ * {@link #validateProfile()} checks it against the camera afterwards.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
@@ -44,7 +61,10 @@ public final class CameraManager {
     private static final int MAX_FRAME_WIDTH = 480;
     private static final int MAX_FRAME_HEIGHT = 360;
 
-    private static CameraManager cameraManager;
+    private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+    private static final String RECORDINGS_DIRECTORY = "recordings";
+
+    static final int FRAMING_SIZE_DIP = 250;
 
     static final int SDK_INT; // Later we can use Build.VERSION.SDK_INT
 
@@ -61,12 +81,23 @@ public final class CameraManager {
 
     private final Context context;
     private final CameraConfigurationManager configManager;
+    private final CameraProfileCache profileCache;
     private Camera camera;
     private Rect framingRect;
     private Rect framingRectInPreview;
-    private boolean initialized;
+    private Point surfaceSize;
+    private CameraProfile profile;
+    private boolean profileValidated;
+    // The parameters a kept profile was applied to, and what they were before, until validated.
+    private Camera.Parameters unvalidatedParameters;
+    private String originalParameters;
+    private Point profileScreenResolution;
     private boolean previewing;
     private final boolean useOneShotPreviewCallback;
+    private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+    private byte[][] previewBuffers;
+    private boolean usingPreviewBuffers;
+    private BackgroundFrameRecorder frameRecorder;
     /**
      * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
      * clear the handler so it will only receive one message.
@@ -78,29 +109,14 @@ public final class CameraManager {
     private final AutoFocusCallback autoFocusCallback;
 
     /**
-     * Initializes this static object with the Context of the calling Activity.
-     *
-     * @param context The Activity which wants to use the camera.
+     * @param context The Activity or View which wants to use the camera.
      */
-    public static void init(Context context) {
-        if (cameraManager == null) {
-            cameraManager = new CameraManager(context);
-        }
-    }
-
-    /**
-     * Gets the CameraManager singleton instance.
-     *
-     * @return A reference to the CameraManager singleton.
-     */
-    public static CameraManager get() {
-        return cameraManager;
-    }
-
-    private CameraManager(Context context) {
+    public CameraManager(Context context) {
 
         this.context = context;
         this.configManager = new CameraConfigurationManager(context);
+        this.profileCache = new CameraProfileCache(context);
+        configManager.setPreviewSizeStrategy(new ThroughputPreviewSizeStrategy());
 
         // Camera.setOneShotPreviewCallback() has a race condition in Cupcake, so we use the older
         // Camera.setPreviewCallback() on 1.5 and earlier. For Donut and later, we need to use
@@ -114,50 +130,280 @@ public final class CameraManager {
     }
 
     /**
-     * Opens the camera driver and initializes the hardware parameters.
+     * Opens the camera driver and initializes the hardware parameters. If the driver is already
+     * open, only moves the preview to the new surface; the preview must be stopped.
      *
      * @param holder The surface object which the camera will draw preview frames into.
      * @throws IOException Indicates the camera driver failed to open.
      */
-    public void openDriver(SurfaceHolder holder) throws IOException {
+    public synchronized void openDriver(SurfaceHolder holder) throws IOException {
+        open(null);
+        setPreviewDisplay(holder);
+    }
+
+    /**
+     * Opens the camera driver and initializes the hardware parameters, without a surface to draw
+     * the preview on yet. Slow, so it can be called on a thread of its own, as long as that thread
+     * has no looper: the camera then delivers its callbacks on the main thread, as when it is
+     * opened there. Does nothing if the driver is already open.
+     *
+     * @param timeline Where to record how long each step takes, or null.
+     * @throws IOException Indicates the camera driver failed to open.
+     */
+    public synchronized void open(StartupTimeline timeline) throws IOException {
+        if (camera != null) {
+            return;
+        }
+        StartupTimeline.Span span = begin(timeline, "Camera.open");
+        camera = Camera.open();
+        end(span);
         if (camera == null) {
-            camera = Camera.open();
-            if (camera == null) {
-                throw new IOException();
-            }
-            camera.setPreviewDisplay(holder);
+            throw new IOException();
+        }
 
-            if (!initialized) {
-                initialized = true;
-                configManager.initFromCameraParameters(camera);
-            }
-            configManager.setDesiredCameraParameters(camera);
+        span = begin(timeline, "camera parameters");
+        configure();
+        end(span);
 
-            //     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            //�Ƿ�ʹ��ǰ��
+        //     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        //�Ƿ�ʹ��ǰ��
 //      if (prefs.getBoolean(PreferencesActivity.KEY_FRONT_LIGHT, false)) {
 //        FlashlightManager.enableFlashlight();
 //      }
-            FlashlightManager.enableFlashlight();
+        span = begin(timeline, "flashlight");
+        FlashlightManager.enableFlashlight();
+        end(span);
+    }
+
+    private void configure() {
+        // The preview size may differ from the last open, and the framing rects with it.
+        resetFramingRects();
+        Camera.Parameters parameters = camera.getParameters();
+        Point screenResolution = configManager.readScreenResolution();
+        if (profile == null || !screenResolution.equals(profileScreenResolution)) {
+            loadDecodeCost(screenResolution);
+            profile = profileCache.load(screenResolution);
+            profileValidated = false;
         }
+        if (profile != null) {
+            String original = profileValidated ? null : parameters.flatten();
+            try {
+                configManager.applyProfile(camera, parameters, profile, screenResolution);
+                profileScreenResolution = screenResolution;
+                if (!profileValidated) {
+                    unvalidatedParameters = parameters;
+                    originalParameters = original;
+                }
+                return;
+            } catch (RuntimeException re) {
+                Log.w(TAG, "Camera rejected its profile " + profile, re);
+                profileCache.remove(screenResolution);
+                parameters = camera.getParameters();
+            }
+        }
+        profile = configManager.resolveProfile(parameters, screenResolution);
+        profileValidated = true;
+        profileScreenResolution = screenResolution;
+        configManager.applyProfile(camera, parameters, profile, screenResolution);
+        profileCache.store(screenResolution, profile);
+    }
+
+    /**
+     * Gives the preview size strategy what decoding was learned to cost on an earlier launch, so
+     * the profile is resolved and validated with the same cost it was kept with.
+     */
+    private void loadDecodeCost(Point screenResolution) {
+        PreviewSizeStrategy strategy = configManager.getPreviewSizeStrategy();
+        if (!(strategy instanceof ThroughputPreviewSizeStrategy)) {
+            return;
+        }
+        ThroughputPreviewSizeStrategy throughput = (ThroughputPreviewSizeStrategy) strategy;
+        double nanosPerRoiPixel = profileCache.loadNanosPerRoiPixel(screenResolution);
+        int decodeWorkers = profileCache.loadDecodeWorkers(screenResolution);
+        if (nanosPerRoiPixel > 0.0 && decodeWorkers > 0) {
+            throughput.setCostModel(nanosPerRoiPixel, throughput.getNanosPerFramePixel());
+            throughput.setDecodeWorkers(decodeWorkers);
+        }
+    }
+
+    /**
+     * Checks the profile the camera was opened with, if it was kept from an earlier launch,
+     * against what the camera's parameters call for now, and keeps the new one for the next open
+     * if they differ. Parses the parameters, so call it off the main thread once the camera is
+     * open; {@link CameraOpener} does. Does nothing if the profile was worked out on this open or
+     * checked before.
+     */
+    public void validateProfile() {
+        Camera.Parameters parameters;
+        String original;
+        CameraProfile applied;
+        Point screenResolution;
+        synchronized (this) {
+            parameters = unvalidatedParameters;
+            original = originalParameters;
+            applied = profile;
+            screenResolution = profileScreenResolution;
+            unvalidatedParameters = null;
+            originalParameters = null;
+        }
+        if (parameters == null) {
+            return;
+        }
+        parameters.unflatten(original);
+        CameraProfile resolved = configManager.resolveProfile(parameters, screenResolution);
+        synchronized (this) {
+            if (profile == applied) {
+                // Applied on the next open.
+                profile = resolved;
+                profileValidated = true;
+            }
+        }
+        if (!resolved.equals(applied)) {
+            Log.i(TAG, "Camera profile changed from " + applied + " to " + resolved);
+            profileCache.store(screenResolution, resolved);
+        }
+    }
+
+    /**
+     * Sets how the preview size and frame rate are picked, by default with a
+     * {@link ThroughputPreviewSizeStrategy}. A profile kept from an earlier launch is still applied
+     * on the next open, and then validated against the new strategy. What decoding was learned to
+     * cost is given to a {@link ThroughputPreviewSizeStrategy} on that open too, in place of its
+     * cost per pixel of the framing rect and its number of decode threads.
+     *
+     * @param strategy How to pick them, or null to pick the preview size closest to the screen
+     *                 and leave the frame rate.
+     */
+    public synchronized void setPreviewSizeStrategy(PreviewSizeStrategy strategy) {
+        configManager.setPreviewSizeStrategy(strategy);
+        forgetProfile();
+    }
+
+    public PreviewSizeStrategy getPreviewSizeStrategy() {
+        return configManager.getPreviewSizeStrategy();
+    }
+
+    /**
+     * Tells the preview size strategy, if it learns from them, what frames cost to decode while
+     * scanning, so the preview size and frame rate are picked with it next time, and keeps it
+     * next to the camera profile for later launches. A cost within the strategy's
+     * {@link ThroughputPreviewSizeStrategy#setCalibrationTolerance(double) tolerance} of the last
+     * one is ignored, so the kept profile is not validated again for nothing.
+     *
+     * @param snapshot      The pipeline's metrics, taken while the camera is still open.
+     * @param decodeWorkers How many threads decoded the frames.
+     */
+    public synchronized void learnDecodeCost(PipelineMetrics.Snapshot snapshot,
+                                             int decodeWorkers) {
+        PreviewSizeStrategy strategy = configManager.getPreviewSizeStrategy();
+        if (camera == null || !(strategy instanceof ThroughputPreviewSizeStrategy)) {
+            return;
+        }
+        ThroughputPreviewSizeStrategy throughput = (ThroughputPreviewSizeStrategy) strategy;
+        boolean workersChanged = throughput.getDecodeWorkers() != decodeWorkers;
+        throughput.setDecodeWorkers(decodeWorkers);
+        if (throughput.calibrate(snapshot) || workersChanged) {
+            profileCache.storeDecodeCost(profileScreenResolution,
+                    throughput.getNanosPerRoiPixel(), decodeWorkers);
+            forgetProfile();
+        }
+    }
+
+    private void forgetProfile() {
+        // Loaded again on the next open, and validated against the strategy as it is then.
+        profile = null;
+        unvalidatedParameters = null;
+        originalParameters = null;
+    }
+
+    /**
+     * Moves the preview of the open driver to a surface. The preview must be stopped.
+     *
+     * @param holder The surface object which the camera will draw preview frames into.
+     * @throws IOException Indicates the surface could not be used.
+     */
+    public synchronized void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+        if (camera != null) {
+            camera.setPreviewDisplay(holder);
+        }
+    }
+
+    private static StartupTimeline.Span begin(StartupTimeline timeline, String step) {
+        return timeline == null ? null : timeline.begin(step);
+    }
+
+    private static void end(StartupTimeline.Span span) {
+        if (span != null) {
+            span.end();
+        }
+    }
+
+    /**
+     * @return Whether the camera driver is open.
+     */
+    public synchronized boolean isOpen() {
+        return camera != null;
+    }
+
+    /**
+     * Sets the size of the surface the preview is drawn on, when it does not fill the screen. The
+     * framing rect is centered on the surface, in its coordinates, instead of the screen's. Takes
+     * effect the next time the preview starts streaming to a mailbox.
+     *
+     * @param width  The width of the surface, or 0 to go back to the screen.
+     * @param height The height of the surface.
+     */
+    public synchronized void setSurfaceSize(int width, int height) {
+        surfaceSize = width > 0 && height > 0 ? new Point(width, height) : null;
+        resetFramingRects();
+    }
+
+    private void resetFramingRects() {
+        framingRect = null;
+        framingRectInPreview = null;
     }
 
     /**
      * Closes the camera driver if still in use.
      */
-    public void closeDriver() {
+    public synchronized void closeDriver() {
+        stopRecording();
         if (camera != null) {
             FlashlightManager.disableFlashlight();
             camera.release();
             camera = null;
         }
+        resetFramingRects();
+    }
+
+    /**
+     * Sets how many preview buffers the camera fills in turn. With a positive count the buffers are
+     * allocated once and recycled through {@link #releasePreviewBuffer(byte[])}, so the camera
+     * streams continuously with a fixed memory footprint. Zero falls back to re-registering a
+     * one-shot callback for every frame. Takes effect on the next {@link #startPreview()}.
+     *
+     * @param count The number of preview buffers, or 0 to disable the ring.
+     */
+    public synchronized void setPreviewBufferCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative preview buffer count: " + count);
+        }
+        previewBufferCount = count;
     }
 
     /**
      * Asks the camera hardware to begin drawing preview frames to the screen.
      */
-    public void startPreview() {
+    public synchronized void startPreview() {
         if (camera != null && !previewing) {
+            usingPreviewBuffers = previewBufferCount > 0;
+            previewCallback.setUseBuffers(usingPreviewBuffers);
+            if (usingPreviewBuffers) {
+                camera.setPreviewCallbackWithBuffer(previewCallback);
+                for (byte[] buffer : getPreviewBuffers()) {
+                    camera.addCallbackBuffer(buffer);
+                }
+            }
             camera.startPreview();
             previewing = true;
         }
@@ -166,37 +412,144 @@ public final class CameraManager {
     /**
      * Tells the camera to stop drawing preview frames.
      */
-    public void stopPreview() {
+    public synchronized void stopPreview() {
         if (camera != null && previewing) {
-            if (!useOneShotPreviewCallback) {
+            if (usingPreviewBuffers) {
+                camera.setPreviewCallbackWithBuffer(null);
+                usingPreviewBuffers = false;
+            } else if (!useOneShotPreviewCallback) {
                 camera.setPreviewCallback(null);
             }
             camera.stopPreview();
-            previewCallback.setHandler(null, 0);
+            // Frames still being decoded are handed back after the preview restarts, and must
+            // not join the new ring.
+            previewBuffers = null;
+            previewCallback.setMailbox(null, 0, null);
             autoFocusCallback.setHandler(null, 0);
             previewing = false;
         }
     }
 
     /**
-     * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
-     * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-     * respectively.
+     * Streams every preview frame into a mailbox until the preview stops. Each frame carries the
+     * display rotation and the framing rect in preview coordinates. The mailbox's recycler must
+     * hand frames back through {@link #releasePreviewBuffer(byte[])}.
      *
-     * @param handler The handler to send the message to.
-     * @param message The what field of the message to be sent.
+     * @param mailbox The mailbox to post frames to, or null to stop streaming.
+     * @throws IllegalArgumentException If the preview frames are in a format the decoders cannot
+     *                                  read.
      */
-    public void requestPreviewFrame(Handler handler, int message) {
+    public synchronized void setFrameMailbox(FrameMailbox mailbox) {
         if (camera != null && previewing) {
-            previewCallback.setHandler(handler, message);
-            if (useOneShotPreviewCallback) {
-                camera.setOneShotPreviewCallback(previewCallback);
+            if (mailbox != null) {
+                configManager.checkPreviewFormat();
+                previewCallback.setMailbox(mailbox, configManager.getDisplayOrientation(),
+                        getFramingRectInPreview());
             } else {
-                camera.setPreviewCallback(previewCallback);
+                previewCallback.setMailbox(null, 0, null);
+            }
+            if (mailbox != null && !usingPreviewBuffers) {
+                if (useOneShotPreviewCallback) {
+                    camera.setOneShotPreviewCallback(previewCallback);
+                } else {
+                    camera.setPreviewCallback(previewCallback);
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #startRecording(File)}, into a file of this app's own, under its external files
+     * directory, or its internal one if there is no external storage.
+     *
+     * @param name The name of the recording, without any directory.
+     * @return The file recorded to.
+     * @throws IOException Indicates the file could not be opened.
+     */
+    public File startRecording(String name) throws IOException {
+        if (name.isEmpty() || name.indexOf(File.separatorChar) >= 0 || name.equals(".")
+                || name.equals("..")) {
+            throw new IllegalArgumentException("Not a file name: " + name);
+        }
+        File directory = context.getExternalFilesDir(RECORDINGS_DIRECTORY);
+        if (directory == null) {
+            directory = new File(context.getFilesDir(), RECORDINGS_DIRECTORY);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File file = new File(directory, name);
+        startRecording(file);
+        return file;
+    }
+
+    /**
+     * Appends every frame streamed to a {@link FrameMailbox}, with its size, format, timestamp and
+     * framing rect, to a file that can be replayed offline. Recording stops when the driver is
+     * closed. Frames are copied and written on a thread of the recorder's own, and dropped, with
+     * the recording noting how many, when it cannot keep up. This is only meant for reproducing
+     * problems, so it is only started from code, never from an intent another app could send.
+     *
+     * @param file The recording to write, or to add to if it exists.
+     * @throws IOException Indicates the file could not be opened.
+     */
+    public synchronized void startRecording(File file) throws IOException {
+        stopRecording();
+        frameRecorder = new BackgroundFrameRecorder(new FrameRecorder(file));
+        previewCallback.setRecorder(frameRecorder, configManager.getPreviewFormat());
+    }
+
+    /**
+     * Stops recording frames, if a recording was started.
+     */
+    public synchronized void stopRecording() {
+        if (frameRecorder != null) {
+            previewCallback.setRecorder(null, 0);
+            try {
+                frameRecorder.close();
+                Log.i(TAG, "Recorded " + frameRecorder.getRecordedCount() + " frames, dropped "
+                        + frameRecorder.getDroppedCount());
+            } catch (IOException ioe) {
+                Log.w(TAG, "Could not close frame recording", ioe);
             }
+            frameRecorder = null;
         }
     }
 
+    /**
+     * Hands a frame posted to a {@link FrameMailbox} back to the camera once the caller is done
+     * with it. Safe to call from
+     * any thread, and a no-op when the buffer ring is not in use.
+     *
+     * @param data The preview frame to recycle.
+     */
+    public synchronized void releasePreviewBuffer(byte[] data) {
+        if (camera == null || !usingPreviewBuffers || data == null) {
+            return;
+        }
+        for (byte[] buffer : previewBuffers) {
+            if (buffer == data) {
+                camera.addCallbackBuffer(data);
+                return;
+            }
+        }
+    }
+
+    private byte[][] getPreviewBuffers() {
+        Point cameraResolution = configManager.getCameraResolution();
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(configManager.getPreviewFormat());
+        if (bitsPerPixel <= 0) {
+            // Unknown format, size for the largest planar YUV layout we accept.
+            bitsPerPixel = 16;
+        }
+        int size = cameraResolution.x * cameraResolution.y * bitsPerPixel / 8;
+        if (previewBuffers == null || previewBuffers.length != previewBufferCount
+                || previewBuffers[0].length != size) {
+            previewBuffers = new byte[previewBufferCount][size];
+        }
+        return previewBuffers;
+    }
+
     /**
      * Asks the camera hardware to perform an autofocus.
      *
@@ -218,14 +571,14 @@ public final class CameraManager {
      *
      * @return The rectangle to draw on screen in window coordinates.
      */
-    public Rect getFramingRect() {
-        Point screenResolution = configManager.getScreenResolution();
+    public synchronized Rect getFramingRect() {
+        Point screenResolution = getSurfaceResolution();
         if (framingRect == null) {
             if (camera == null) {
                 return null;
             }
-            int size = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 250,
-                    context.getResources().getDisplayMetrics());
+            // An embedded scanner may be smaller than the screen.
+            int size = configManager.getFramingSize(screenResolution);
             int leftOffset = (screenResolution.x - size) / 2;
             int topOffset = (screenResolution.y - size) / 2;
             framingRect = new Rect(leftOffset, topOffset, leftOffset + size, topOffset + size);
@@ -235,54 +588,34 @@ public final class CameraManager {
 
     /**
      * Like {@link #getFramingRect} but coordinates are in terms of the preview frame,
-     * not UI / screen.
+     * not UI / screen. The preview frame is taken as rotated by the display orientation.
      */
-    public Rect getFramingRectInPreview() {
+    public synchronized Rect getFramingRectInPreview() {
         if (framingRectInPreview == null) {
-            Rect rect = new Rect(getFramingRect());
+            Rect framingRect = getFramingRect();
+            if (framingRect == null) {
+                return null;
+            }
+            Rect rect = new Rect(framingRect);
             Point cameraResolution = configManager.getCameraResolution();
-            Point screenResolution = configManager.getScreenResolution();
-            rect.left = rect.left * cameraResolution.y / screenResolution.x;
-            rect.right = rect.right * cameraResolution.y / screenResolution.x;
-            rect.top = rect.top * cameraResolution.x / screenResolution.y;
-            rect.bottom = rect.bottom * cameraResolution.x / screenResolution.y;
+            Point screenResolution = getSurfaceResolution();
+            // Preview frames are scaled to the screen after rotation, so map through the rotated
+            // size.
+            int orientation = configManager.getDisplayOrientation();
+            boolean swapped = orientation == 90 || orientation == 270;
+            int previewWidth = swapped ? cameraResolution.y : cameraResolution.x;
+            int previewHeight = swapped ? cameraResolution.x : cameraResolution.y;
+            rect.left = rect.left * previewWidth / screenResolution.x;
+            rect.right = rect.right * previewWidth / screenResolution.x;
+            rect.top = rect.top * previewHeight / screenResolution.y;
+            rect.bottom = rect.bottom * previewHeight / screenResolution.y;
             framingRectInPreview = rect;
         }
         return framingRectInPreview;
     }
 
-    /**
-     * A factory method to build the appropriate LuminanceSource object based on the format
-     * of the preview buffers, as described by Camera.Parameters.
-     *
-     * @param data   A preview frame.
-     * @param width  The width of the image.
-     * @param height The height of the image.
-     * @return A PlanarYUVLuminanceSource instance.
-     */
-    public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
-        Rect rect = getFramingRectInPreview();
-        int previewFormat = configManager.getPreviewFormat();
-        String previewFormatString = configManager.getPreviewFormatString();
-        switch (previewFormat) {
-            // This is the standard Android format which all devices are REQUIRED to support.
-            // In theory, it's the only one we should ever care about.
-            case PixelFormat.YCbCr_420_SP:
-                // This format has never been seen in the wild, but is compatible as we only care
-                // about the Y channel, so allow it.
-            case PixelFormat.YCbCr_422_SP:
-                return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
-                        rect.width(), rect.height());
-            default:
-                // The Samsung Moment incorrectly uses this variant instead of the 'sp' version.
-                // Fortunately, it too has all the Y data up front, so we can read it.
-                if ("yuv420p".equals(previewFormatString)) {
-                    return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
-                            rect.width(), rect.height());
-                }
-        }
-        throw new IllegalArgumentException("Unsupported picture format: " +
-                previewFormat + '/' + previewFormatString);
+    private Point getSurfaceResolution() {
+        return surfaceSize != null ? surfaceSize : configManager.getScreenResolution();
     }
 
 }
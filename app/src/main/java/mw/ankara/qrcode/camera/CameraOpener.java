@@ -0,0 +1,124 @@
+package mw.ankara.qrcode.camera;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import mw.ankara.qrcode.core.StartupTimeline;
+
+/**
+ * Opens and configures a camera on a thread of its own, so the main thread can go on creating the
+ * preview surface and starting the decode threads meanwhile. The outcome is posted back to the
+ * main thread, unless the opener was cancelled by then, in which case the camera is closed again.
+ * Then the profile the camera was opened with is {@link CameraManager#validateProfile()
+ * validated} on the same thread.
+ * One opener opens the camera once. Openers run one after the other, so one that was cancelled has
+ * closed the camera again before the next one opens it.
+ */
+public final class CameraOpener {
+
+    public interface Callback {
+        /**
+         * Called on the main thread once the camera is open and configured.
+         */
+        void onCameraOpened();
+
+        /**
+         * Called on the main thread if the camera could not be opened.
+         */
+        void onCameraFailed(Exception e);
+    }
+
+    // A plain thread without a looper, so the camera delivers its callbacks on the main one.
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 1L,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "CameraOpener");
+        }
+    });
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final CameraManager cameraManager;
+    private final StartupTimeline timeline;
+    private final Callback callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled;
+
+    /**
+     * @param timeline Where to record how long opening takes, or null.
+     */
+    public CameraOpener(CameraManager cameraManager, StartupTimeline timeline, Callback callback) {
+        this.cameraManager = cameraManager;
+        this.timeline = timeline;
+        this.callback = callback;
+    }
+
+    /**
+     * Starts opening the camera. Must be called on the main thread.
+     */
+    public void start() {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /**
+     * Drops the outcome. If the camera opens after all, it is closed again right away; the caller
+     * still closes it if it may already be open. Must be called on the main thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void open() {
+        if (cancelled) {
+            return;
+        }
+        Exception failure = null;
+        StartupTimeline.Span span = timeline == null ? null : timeline.begin("camera open");
+        try {
+            cameraManager.open(timeline);
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        if (span != null) {
+            span.end();
+        }
+        if (cancelled) {
+            cameraManager.closeDriver();
+            return;
+        }
+        final Exception outcome = failure;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) {
+                    // The caller closed the camera when it cancelled.
+                    return;
+                }
+                if (outcome == null) {
+                    callback.onCameraOpened();
+                } else {
+                    callback.onCameraFailed(outcome);
+                }
+            }
+        });
+        if (failure == null) {
+            // Off the startup path by now.
+            cameraManager.validateProfile();
+        }
+    }
+
+}
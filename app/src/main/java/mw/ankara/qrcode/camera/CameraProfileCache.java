@@ -0,0 +1,79 @@
+package mw.ankara.qrcode.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.os.Build;
+
+import mw.ankara.qrcode.core.CameraProfile;
+
+/**
+ * Keeps the {@link CameraProfile} of the camera across launches, in shared preferences, under the
+ * device model, the camera, the OS build and the screen size, along with what decoding was
+ * learned to cost with it. The preferences are read from disk on first use, so use it off the main
+ * thread.
+ */
+final class CameraProfileCache {
+
+    private static final String PREFERENCES = "mw.ankara.qrcode.camera_profiles";
+
+    // Camera.open() opens the first back-facing camera.
+    private static final String CAMERA_ID = "back";
+
+    private static final String NANOS_PER_ROI_PIXEL = "/nanosPerRoiPixel";
+    private static final String DECODE_WORKERS = "/decodeWorkers";
+
+    private final Context context;
+
+    CameraProfileCache(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return The profile kept for the camera on a screen this size, or null if there is none.
+     */
+    CameraProfile load(Point screenResolution) {
+        return CameraProfile.decode(getPreferences().getString(key(screenResolution), null));
+    }
+
+    void store(Point screenResolution, CameraProfile profile) {
+        getPreferences().edit().putString(key(screenResolution), profile.encode()).apply();
+    }
+
+    void remove(Point screenResolution) {
+        getPreferences().edit().remove(key(screenResolution)).apply();
+    }
+
+    /**
+     * @return The decode cost per pixel of the framing rect kept for the camera on a screen this
+     * size, in nanoseconds, or 0 if there is none.
+     */
+    double loadNanosPerRoiPixel(Point screenResolution) {
+        return getPreferences().getFloat(key(screenResolution) + NANOS_PER_ROI_PIXEL, 0f);
+    }
+
+    /**
+     * @return How many threads decoded frames when the cost was learned, or 0 if it never was.
+     */
+    int loadDecodeWorkers(Point screenResolution) {
+        return getPreferences().getInt(key(screenResolution) + DECODE_WORKERS, 0);
+    }
+
+    void storeDecodeCost(Point screenResolution, double nanosPerRoiPixel, int decodeWorkers) {
+        String key = key(screenResolution);
+        getPreferences().edit()
+                .putFloat(key + NANOS_PER_ROI_PIXEL, (float) nanosPerRoiPixel)
+                .putInt(key + DECODE_WORKERS, decodeWorkers)
+                .apply();
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    private static String key(Point screenResolution) {
+        return CameraProfile.key(Build.MODEL, CAMERA_ID, Build.FINGERPRINT, screenResolution.x,
+                screenResolution.y);
+    }
+
+}
@@ -17,39 +17,87 @@
 package mw.ankara.qrcode.camera;
 
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Message;
 
-final class PreviewCallback implements Camera.PreviewCallback {
+import mw.ankara.qrcode.core.BackgroundFrameRecorder;
+import mw.ankara.qrcode.core.Frame;
+import mw.ankara.qrcode.core.FrameMailbox;
 
-    private static final String TAG = PreviewCallback.class.getSimpleName();
+final class PreviewCallback implements Camera.PreviewCallback {
 
     private final CameraConfigurationManager configManager;
     private final boolean useOneShotPreviewCallback;
-    private Handler previewHandler;
-    private int previewMessage;
+    private boolean useBuffers;
+    private FrameMailbox mailbox;
+    private int rotation;
+    private Rect crop;
+    private volatile BackgroundFrameRecorder recorder;
+    private int recordFormat;
 
     PreviewCallback(CameraConfigurationManager configManager, boolean useOneShotPreviewCallback) {
         this.configManager = configManager;
         this.useOneShotPreviewCallback = useOneShotPreviewCallback;
     }
 
-    void setHandler(Handler previewHandler, int previewMessage) {
-        this.previewHandler = previewHandler;
-        this.previewMessage = previewMessage;
+    /**
+     * @param useBuffers Whether frames arrive in buffers registered with
+     *                   {@code Camera.addCallbackBuffer()}, which must be handed back to the
+     *                   camera.
+     */
+    void setUseBuffers(boolean useBuffers) {
+        this.useBuffers = useBuffers;
+    }
+
+    /**
+     * @param mailbox  If not null, every frame is posted here, and the callback stays armed so the
+     *                 camera keeps streaming.
+     * @param rotation The clockwise rotation from the preview frames to the display.
+     * @param crop     The part of the rotated frame to decode.
+     */
+    void setMailbox(FrameMailbox mailbox, int rotation, Rect crop) {
+        this.mailbox = mailbox;
+        this.rotation = rotation;
+        this.crop = crop;
+    }
+
+    /**
+     * @param recorder If not null, every frame posted to the mailbox is copied here first, to be
+     *                 written on the recorder's own thread.
+     * @param format   The {@code ImageFormat} of the preview frames.
+     */
+    void setRecorder(BackgroundFrameRecorder recorder, int format) {
+        this.recordFormat = format;
+        this.recorder = recorder;
     }
 
     public void onPreviewFrame(byte[] data, Camera camera) {
         Point cameraResolution = configManager.getCameraResolution();
-        if (!useOneShotPreviewCallback) {
+        FrameMailbox mailbox = this.mailbox;
+        if (mailbox != null) {
+            Rect crop = this.crop;
+            Frame frame = new Frame(data, cameraResolution.x, cameraResolution.y, rotation,
+                    crop.left, crop.top, crop.width(), crop.height(), System.nanoTime());
+            record(frame);
+            mailbox.post(frame);
+            if (!useBuffers && useOneShotPreviewCallback) {
+                camera.setOneShotPreviewCallback(this);
+            }
+            return;
+        }
+        if (!useOneShotPreviewCallback && !useBuffers) {
             camera.setPreviewCallback(null);
         }
-        if (previewHandler != null) {
-            Message message = previewHandler.obtainMessage(previewMessage, cameraResolution.x,
-                    cameraResolution.y, data);
-            message.sendToTarget();
-            previewHandler = null;
+        if (useBuffers) {
+            // Nobody wants this frame, so give the buffer straight back to the camera.
+            camera.addCallbackBuffer(data);
+        }
+    }
+
+    private void record(Frame frame) {
+        BackgroundFrameRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(frame, recordFormat);
         }
     }
 
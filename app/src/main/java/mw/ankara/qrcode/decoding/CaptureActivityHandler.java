@@ -17,25 +17,39 @@
 package mw.ankara.qrcode.decoding;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.util.Log;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
 
 import java.util.Vector;
 
-import mw.ankara.qrcode.QRCaptureActivity;
 import mw.ankara.qrcode.R;
 import mw.ankara.qrcode.camera.CameraManager;
+import mw.ankara.qrcode.core.BinarizerSelector;
+import mw.ankara.qrcode.core.DecodeConfig;
+import mw.ankara.qrcode.core.FrameMailbox;
+import mw.ankara.qrcode.core.FrameQualityGate;
+import mw.ankara.qrcode.core.PipelineMetrics;
+import mw.ankara.qrcode.core.ResultCache;
+import mw.ankara.qrcode.core.RoiTracker;
+import mw.ankara.qrcode.core.ScanStream;
+import mw.ankara.qrcode.core.SceneChangeDetector;
+import mw.ankara.qrcode.core.StartupTimeline;
+import mw.ankara.qrcode.core.TryHarderPolicy;
 import mw.ankara.qrcode.view.ViewfinderResultPointCallback;
 
 /**
- * This class handles all the messaging which comprises the state machine for capture.
+ * This class handles all the messaging which comprises the state machine for capture. It reports
+ * to a {@link CaptureHost}, the activity or an embedded view, and drives the camera it is given,
+ * so several scanners can live side by side.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
@@ -43,9 +57,14 @@ public final class CaptureActivityHandler extends Handler {
 
     private static final String TAG = CaptureActivityHandler.class.getSimpleName();
 
-    private final QRCaptureActivity activity;
-    private final DecodeThread decodeThread;
+    private final CaptureHost host;
+    private final CameraManager cameraManager;
+    private final DecodePool decodePool;
+    private final FrameMailbox mailbox;
+    private final StartupTimeline timeline;
     private State state;
+    // Where results go when scanning continuously, or null to end the scan with the first one.
+    private volatile ScanStream scanStream;
 
     private enum State {
         PREVIEW,
@@ -53,17 +72,40 @@ public final class CaptureActivityHandler extends Handler {
         DONE
     }
 
-    public CaptureActivityHandler(QRCaptureActivity activity, Vector<BarcodeFormat> decodeFormats,
-                                  String characterSet) {
-        this.activity = activity;
-        decodeThread = new DecodeThread(activity, decodeFormats, characterSet,
-                new ViewfinderResultPointCallback(activity.getQRCaptureView()));
-        decodeThread.start();
+    /**
+     * @param cameraManager The camera to scan with. If it is not open yet, the decode threads
+     *                      start and warm up meanwhile, and scanning starts with
+     *                      {@link #resumeScanning()} once it is.
+     */
+    public CaptureActivityHandler(CaptureHost host, CameraManager cameraManager,
+                                  Vector<BarcodeFormat> decodeFormats, String characterSet) {
+        this(host, cameraManager, decodeFormats, characterSet, DecodePool.defaultWorkerCount());
+    }
+
+    /**
+     * @param decodeWorkers How many threads decode frames in parallel.
+     */
+    public CaptureActivityHandler(CaptureHost host, CameraManager cameraManager,
+                                  Vector<BarcodeFormat> decodeFormats, String characterSet,
+                                  int decodeWorkers) {
+        this.host = host;
+        this.cameraManager = cameraManager;
+        timeline = host.getStartupTimeline();
+        decodePool = new DecodePool(this, cameraManager, decodeFormats, characterSet,
+                new ViewfinderResultPointCallback(host.getQRCaptureView()), decodeWorkers,
+                timeline);
+        decodePool.start();
+        mailbox = decodePool.getMailbox();
+        mailbox.setListener(new FrameMailbox.Listener() {
+            @Override
+            public void onFrameAvailable() {
+                sendEmptyMessage(R.id.decode);
+            }
+        });
         state = State.SUCCESS;
 
         // Start ourselves capturing previews and decoding.
-        CameraManager.get().startPreview();
-        restartPreviewAndDecode();
+        resumeScanning();
     }
 
     @Override
@@ -74,43 +116,286 @@ public final class CaptureActivityHandler extends Handler {
             // When one auto focus pass finishes, start another. This is the closest thing to
             // continuous AF. It does seem to hunt a bit, but I'm not sure what else to do.
             if (state == State.PREVIEW) {
-                CameraManager.get().requestAutoFocus(this, R.id.auto_focus);
+                cameraManager.requestAutoFocus(this, R.id.auto_focus);
             }
         } else if (id == R.id.restart_preview) {
             restartPreviewAndDecode();
+        } else if (id == R.id.decode) {
+            // A frame arrived in the empty mailbox, or a subscriber asked for more results. If
+            // every worker is busy, the first one to finish picks up whatever frame is freshest
+            // by then.
+            if (state == State.PREVIEW && timeline != null && timeline.markOnce("first frame")) {
+                Log.d(TAG, timeline.toString());
+            }
+            if (state == State.PREVIEW && wantsResults()) {
+                decodePool.wakeIdleWorker();
+            }
         } else if (id == R.id.decode_succeeded) {
-            state = State.SUCCESS;
             Bundle bundle = message.getData();
             Bitmap barcode = bundle == null ? null :
                     (Bitmap) bundle.getParcelable(DecodeThread.BARCODE_BITMAP);
-            activity.handleDecode((Result) message.obj, barcode);
+            onDecodeFinished(message.arg1, (Result) message.obj, barcode);
         } else if (id == R.id.decode_failed) {
-            // We're decoding as fast as possible, so when one decode fails, start another.
-            state = State.PREVIEW;
-            CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+            onDecodeFinished(message.arg1, null, null);
+        } else if (id == R.id.barcode_found) {
+            // Reading several barcodes: a new one, while the worker goes on with its frame.
+            if (state == State.PREVIEW) {
+                Bundle bundle = message.getData();
+                Bitmap barcode = bundle == null ? null :
+                        (Bitmap) bundle.getParcelable(DecodeThread.BARCODE_BITMAP);
+                Result result = (Result) message.obj;
+                ScanStream stream = scanStream;
+                if (stream != null) {
+                    publish(stream, result, barcode);
+                } else {
+                    resultDelivered();
+                    host.handleBarcodeFound(result, barcode);
+                }
+            }
         } else if (id == R.id.return_scan_result) {
-            activity.setResult(Activity.RESULT_OK, (Intent) message.obj);
-            activity.finish();
+            Context context = host.getContext();
+            if (context instanceof Activity) {
+                ((Activity) context).setResult(Activity.RESULT_OK, (Intent) message.obj);
+                ((Activity) context).finish();
+            }
         } else if (id == R.id.launch_product_query) {
             String url = (String) message.obj;
             Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(url));
             intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
-            activity.startActivity(intent);
+            host.getContext().startActivity(intent);
+        }
+    }
+
+    /**
+     * @return The mailbox preview frames pass through, with its consumed, replaced and dropped
+     * frame counters.
+     */
+    public FrameMailbox getFrameMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * @return Where the time goes between the camera and a result, for every frame decoded so far.
+     * Take a {@link PipelineMetrics#snapshot()} to log it.
+     */
+    public PipelineMetrics getMetrics() {
+        return decodePool.getMetrics();
+    }
+
+    /**
+     * @return The check that skips blurry and flat frames before they are decoded. Its thresholds
+     * can be tuned, or it can be disabled, while scanning.
+     */
+    public FrameQualityGate getQualityGate() {
+        return decodePool.getQualityGate();
+    }
+
+    /**
+     * @return What skips frames showing a scene that already held no barcode, and slows decoding
+     * down while nothing moves. It can be tuned, or disabled, while scanning.
+     */
+    public SceneChangeDetector getSceneChangeDetector() {
+        return decodePool.getSceneChangeDetector();
+    }
+
+    /**
+     * @return What narrows decoding to a window around the points where a barcode was last half
+     * found, falling back to the whole framing rectangle after a few misses.
+     */
+    public RoiTracker getRoiTracker() {
+        return decodePool.getRoiTracker();
+    }
+
+    /**
+     * @return What picks the binarizer for each frame, with the hit rate and time of each.
+     */
+    public BinarizerSelector getBinarizerSelector() {
+        return decodePool.getBinarizerSelector();
+    }
+
+    /**
+     * @return What has the readers try harder on some frames after a run of misses, until a
+     * barcode is found or the scene changes.
+     */
+    public TryHarderPolicy getTryHarderPolicy() {
+        return decodePool.getTryHarderPolicy();
+    }
+
+    /**
+     * @param multiRead Whether to keep scanning after the first barcode, reading every barcode in
+     *                  each frame and reporting each one once, through
+     *                  {@link CaptureHost#handleBarcodeFound(Result, Bitmap)}.
+     */
+    public void setMultiRead(boolean multiRead) {
+        decodePool.setMultiRead(multiRead);
+    }
+
+    /**
+     * Scans continuously, keeping the camera and the decode threads running, and publishes every
+     * barcode found to the stream instead of ending the scan. Decoding stops while none of the
+     * stream's subscribers has demand, and starts again as soon as one asks for more. While reading
+     * several barcodes per frame, every sighting is published, and the subscribers' cooldowns
+     * decide what is new. Can be called from any thread.
+     *
+     * @param stream Where to publish barcodes, or null to end the scan with the first one.
+     */
+    public void setScanStream(ScanStream stream) {
+        ScanStream old = scanStream;
+        if (old == stream) {
+            return;
+        }
+        if (old != null) {
+            old.setListener(null);
+        }
+        scanStream = stream;
+        decodePool.getResultCache().setTtl(
+                stream == null ? ResultCache.DEFAULT_TTL_NANOS : 0L);
+        if (stream != null) {
+            stream.setListener(new ScanStream.Listener() {
+                @Override
+                public void onDemandAvailable() {
+                    sendEmptyMessage(R.id.decode);
+                }
+            });
+            sendEmptyMessage(R.id.decode);
+        }
+    }
+
+    public ScanStream getScanStream() {
+        return scanStream;
+    }
+
+    /**
+     * @return The barcodes already reported while reading several, which can be told how long to
+     * remember them.
+     */
+    public ResultCache getResultCache() {
+        return decodePool.getResultCache();
+    }
+
+    /**
+     * @param pyramid Whether to first decode each frame scaled down, and only at full resolution
+     *                if that finds nothing.
+     */
+    public void setPyramidDecode(boolean pyramid) {
+        decodePool.setPyramid(pyramid);
+    }
+
+    /**
+     * Changes what to look for without stopping the decode threads or the camera. Each worker
+     * switches on the next frame it takes; frames already being decoded finish with the old
+     * configuration. Can be called from any thread.
+     *
+     * @param decodeFormats The formats to decode, or null or empty for every supported one.
+     * @param characterSet  The character set to assume, or null to let the reader guess.
+     * @param tryHarder     Whether to spend longer on each frame, looking for barcodes that are
+     *                      harder to find.
+     */
+    public void setDecodeConfig(Vector<BarcodeFormat> decodeFormats, String characterSet,
+                                boolean tryHarder) {
+        decodePool.setConfig(new DecodeConfig(decodeFormats, characterSet,
+                decodePool.getConfig().getResultPointCallback(), tryHarder));
+    }
+
+    /**
+     * @return What the workers look for at the moment.
+     */
+    public DecodeConfig getDecodeConfig() {
+        return decodePool.getConfig();
+    }
+
+    private void onDecodeFinished(int worker, Result result, Bitmap barcode) {
+        DecodePool.Outcome outcome = decodePool.onDecodeFinished(worker, result, barcode);
+        if (state != State.PREVIEW) {
+            return;
+        }
+        ScanStream stream = scanStream;
+        if (outcome != null && stream != null) {
+            publish(stream, outcome.result, outcome.barcode);
+            if (mailbox.hasFrame() && wantsResults()) {
+                decodePool.wakeIdleWorker();
+            }
+        } else if (outcome != null) {
+            state = State.SUCCESS;
+            decodePool.cancel();
+            mailbox.close();
+            resultDelivered();
+            host.handleDecode(outcome.result, outcome.barcode);
+        } else if (mailbox.hasFrame() && wantsResults()) {
+            // We're decoding as fast as possible, so when one decode fails, start another.
+            decodePool.wakeIdleWorker();
+        }
+    }
+
+    private void resultDelivered() {
+        decodePool.getMetrics().resultDelivered();
+        if (timeline != null) {
+            timeline.markOnce("first result");
         }
     }
 
+    /**
+     * @return false while scanning continuously for a stream nobody wants results from.
+     */
+    private boolean wantsResults() {
+        ScanStream stream = scanStream;
+        return stream == null || stream.hasDemand();
+    }
+
+    private void publish(ScanStream stream, Result result, Bitmap barcode) {
+        if (stream.publish(result, System.nanoTime()) > 0) {
+            // Each delivered result ends a session, timed from the one before.
+            resultDelivered();
+            decodePool.getMetrics().startSession();
+            host.handleScan(result, barcode);
+        }
+    }
+
+    /**
+     * Stops the preview and decoding, keeping the camera open and the decode threads waiting, so
+     * {@link #resumeScanning()} starts again at once. Also the way to let go of the preview
+     * surface while it is destroyed.
+     */
+    public void pauseScanning() {
+        if (state == State.DONE) {
+            return;
+        }
+        state = State.SUCCESS;
+        decodePool.cancel();
+        mailbox.close();
+        cameraManager.stopPreview();
+        removeMessages(R.id.auto_focus);
+    }
+
+    /**
+     * Starts the preview and decoding once the camera is open and has a surface to draw on, again
+     * after {@link #pauseScanning()}, or to scan again after a scan ended with a barcode. Forgets
+     * the scenes and barcodes seen so far. Does nothing while the camera is not open.
+     */
+    public void resumeScanning() {
+        if (state != State.SUCCESS || !cameraManager.isOpen()) {
+            return;
+        }
+        if (timeline != null) {
+            timeline.markOnce("preview started");
+        }
+        cameraManager.startPreview();
+        cameraManager.setFrameMailbox(mailbox);
+        restartPreviewAndDecode();
+    }
+
     public void quitSynchronously() {
         state = State.DONE;
-        CameraManager.get().stopPreview();
-        Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
-        quit.sendToTarget();
-        try {
-            decodeThread.join();
-        } catch (InterruptedException e) {
-            // continue
-        }
+        setScanStream(null);
+        // What decoding cost at this preview size tells how large the next preview should be.
+        cameraManager.learnDecodeCost(decodePool.getMetrics().snapshot(),
+                decodePool.getWorkerCount());
+        cameraManager.stopPreview();
+        mailbox.close();
+        decodePool.quit();
 
         // Be absolutely sure we don't send any queued up messages
+        removeMessages(R.id.decode);
         removeMessages(R.id.decode_succeeded);
         removeMessages(R.id.decode_failed);
     }
@@ -118,9 +403,11 @@ public final class CaptureActivityHandler extends Handler {
     private void restartPreviewAndDecode() {
         if (state == State.SUCCESS) {
             state = State.PREVIEW;
-            CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
-            CameraManager.get().requestAutoFocus(this, R.id.auto_focus);
-            activity.drawViewfinder();
+            decodePool.reset();
+            decodePool.getMetrics().startSession();
+            mailbox.open();
+            cameraManager.requestAutoFocus(this, R.id.auto_focus);
+            host.drawViewfinder();
         }
     }
 
@@ -0,0 +1,52 @@
+package mw.ankara.qrcode.decoding;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.google.zxing.Result;
+
+import mw.ankara.qrcode.core.StartupTimeline;
+import mw.ankara.qrcode.view.QRCaptureView;
+
+/**
+ * What a {@link CaptureActivityHandler} reports to: the {@link mw.ankara.qrcode.QRCaptureActivity}
+ * or a {@link mw.ankara.qrcode.view.ScannerView}. Every method is called on the handler's thread.
+ */
+public interface CaptureHost {
+
+    /**
+     * @return The activity, or a context within it, that scans.
+     */
+    Context getContext();
+
+    /**
+     * @return The overlay that draws the framing rect and the points found so far.
+     */
+    QRCaptureView getQRCaptureView();
+
+    /**
+     * @return Where to record how the scanner starts, up to the first frame and result, or null.
+     */
+    StartupTimeline getStartupTimeline();
+
+    /**
+     * Called when decoding starts again, to clear the last result from the overlay.
+     */
+    void drawViewfinder();
+
+    /**
+     * Called with the barcode that ends a scan.
+     */
+    void handleDecode(Result result, Bitmap barcode);
+
+    /**
+     * Called for every new barcode while reading several, without a scan stream. Scanning goes on.
+     */
+    void handleBarcodeFound(Result result, Bitmap barcode);
+
+    /**
+     * Called for every barcode delivered to a subscriber of the scan stream. Scanning goes on.
+     */
+    void handleScan(Result result, Bitmap barcode);
+
+}
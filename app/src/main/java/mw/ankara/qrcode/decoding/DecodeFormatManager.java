@@ -26,6 +26,8 @@ import java.util.List;
 import java.util.Vector;
 import java.util.regex.Pattern;
 
+import mw.ankara.qrcode.core.DecodeFormats;
+
 final class DecodeFormatManager {
 
     private static final Pattern COMMA_PATTERN = Pattern.compile(",");
@@ -36,22 +38,10 @@ final class DecodeFormatManager {
     static final Vector<BarcodeFormat> DATA_MATRIX_FORMATS;
 
     static {
-        PRODUCT_FORMATS = new Vector<BarcodeFormat>(5);
-        PRODUCT_FORMATS.add(BarcodeFormat.UPC_A);
-        PRODUCT_FORMATS.add(BarcodeFormat.UPC_E);
-        PRODUCT_FORMATS.add(BarcodeFormat.EAN_13);
-        PRODUCT_FORMATS.add(BarcodeFormat.EAN_8);
-        PRODUCT_FORMATS.add(BarcodeFormat.RSS_14);
-        ONE_D_FORMATS = new Vector<BarcodeFormat>(PRODUCT_FORMATS.size() + 4);
-        ONE_D_FORMATS.addAll(PRODUCT_FORMATS);
-        ONE_D_FORMATS.add(BarcodeFormat.CODE_39);
-        ONE_D_FORMATS.add(BarcodeFormat.CODE_93);
-        ONE_D_FORMATS.add(BarcodeFormat.CODE_128);
-        ONE_D_FORMATS.add(BarcodeFormat.ITF);
-        QR_CODE_FORMATS = new Vector<BarcodeFormat>(1);
-        QR_CODE_FORMATS.add(BarcodeFormat.QR_CODE);
-        DATA_MATRIX_FORMATS = new Vector<BarcodeFormat>(1);
-        DATA_MATRIX_FORMATS.add(BarcodeFormat.DATA_MATRIX);
+        PRODUCT_FORMATS = new Vector<BarcodeFormat>(DecodeFormats.PRODUCT_FORMATS);
+        ONE_D_FORMATS = new Vector<BarcodeFormat>(DecodeFormats.ONE_D_FORMATS);
+        QR_CODE_FORMATS = new Vector<BarcodeFormat>(DecodeFormats.QR_CODE_FORMATS);
+        DATA_MATRIX_FORMATS = new Vector<BarcodeFormat>(DecodeFormats.DATA_MATRIX_FORMATS);
     }
 
     private DecodeFormatManager() {
@@ -77,14 +67,10 @@ final class DecodeFormatManager {
     private static Vector<BarcodeFormat> parseDecodeFormats(Iterable<String> scanFormats,
                                                             String decodeMode) {
         if (scanFormats != null) {
-            Vector<BarcodeFormat> formats = new Vector<BarcodeFormat>();
-            try {
-                for (String format : scanFormats) {
-                    formats.add(BarcodeFormat.valueOf(format));
-                }
-                return formats;
-            } catch (IllegalArgumentException iae) {
-                // ignore it then
+            List<BarcodeFormat> formats = DecodeFormats.parse(scanFormats);
+            // ignore unknown formats then
+            if (formats != null) {
+                return new Vector<BarcodeFormat>(formats);
             }
         }
         if (decodeMode != null) {
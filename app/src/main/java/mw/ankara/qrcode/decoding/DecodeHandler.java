@@ -16,89 +16,118 @@
 
 package mw.ankara.qrcode.decoding;
 
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
 
-import java.util.Hashtable;
-
-import mw.ankara.qrcode.QRCaptureActivity;
 import mw.ankara.qrcode.R;
-import mw.ankara.qrcode.camera.CameraManager;
-import mw.ankara.qrcode.camera.PlanarYUVLuminanceSource;
+import mw.ankara.qrcode.core.DecodeConfig;
+import mw.ankara.qrcode.core.DecodeLoop;
+import mw.ankara.qrcode.core.Frame;
+import mw.ankara.qrcode.core.FrameDecoder;
+import mw.ankara.qrcode.core.RotatedPlanarYUVLuminanceSource;
 
-final class DecodeHandler extends Handler {
+final class DecodeHandler extends Handler implements DecodeLoop.Listener {
 
     private static final String TAG = DecodeHandler.class.getSimpleName();
 
-    private final QRCaptureActivity activity;
-    private final MultiFormatReader multiFormatReader;
+    // The CaptureActivityHandler the outcome of each frame goes to.
+    private final Handler resultHandler;
+    private final DecodePool pool;
+    private final int index;
+    private final FrameDecoder decoder;
+    private final DecodeLoop decodeLoop;
+    // Whether the frame being decoded is read for several barcodes, and whether it had a new one.
+    private boolean multiRead;
+    private boolean found;
+
+    DecodeHandler(Handler resultHandler, DecodeConfig config, DecodePool pool, int index) {
+        this.resultHandler = resultHandler;
+        this.pool = pool;
+        this.index = index;
+        decoder = new FrameDecoder(config);
+        decoder.setBinarizerSelector(pool.getBinarizerSelector());
+        decodeLoop = new DecodeLoop(pool.getMailbox(), decoder, this);
+        decodeLoop.setMetrics(pool.getMetrics());
+        decodeLoop.setQualityGate(pool.getQualityGate());
+        decodeLoop.setSceneChangeDetector(pool.getSceneChangeDetector());
+        decodeLoop.setRoiTracker(pool.getRoiTracker());
+        decodeLoop.setTryHarderPolicy(pool.getTryHarderPolicy());
+    }
 
-    DecodeHandler(QRCaptureActivity activity, Hashtable<DecodeHintType, Object> hints) {
-        multiFormatReader = new MultiFormatReader();
-        multiFormatReader.setHints(hints);
-        this.activity = activity;
+    /**
+     * Loads the reader and binarizer classes before the first frame comes in.
+     */
+    void warmUp() {
+        decoder.warmUp();
     }
 
     @Override
     public void handleMessage(Message message) {
         int id = message.what;
         if (id == R.id.decode) {
-            decode((byte[]) message.obj, message.arg1, message.arg2);
+            decode();
         } else if (id == R.id.quit) {
             Looper.myLooper().quit();
         }
     }
 
     /**
-     * Decode the data within the viewfinder rectangle, and time how long it took. For efficiency,
-     * reuse the same reader objects from one decode to the next.
-     *
-     * @param data   The YUV preview frame.
-     * @param width  The width of the preview frame.
-     * @param height The height of the preview frame.
+     * Decode the freshest frame waiting in the mailbox. For efficiency, the same reader objects
+     * and frame buffers are reused from one decode to the next.
      */
-    private void decode(byte[] data, int width, int height) {
-        Result rawResult = null;
-
-        //modify here
-        byte[] rotatedData = new byte[data.length];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++)
-                rotatedData[x * height + height - y - 1] = data[x + y * width];
+    private void decode() {
+        boolean decoded;
+        if (pool.isCancelled()) {
+            // Another worker already found the barcode, don't bother with this frame.
+            decodeLoop.skipNext();
+            decoded = false;
+        } else {
+            decoder.setConfig(pool.getConfig());
+            decodeLoop.setPyramid(pool.isPyramid());
+            multiRead = pool.isMultiRead();
+            decodeLoop.setResultCache(multiRead ? pool.getResultCache() : null);
+            found = false;
+            decoded = decodeLoop.decodeNext();
+            if (multiRead && found) {
+                // The barcodes went out on their own, so this worker still has to say it is free.
+                decoded = false;
+            }
         }
-        int tmp = width; // Here we are swapping, that's the difference to #11
-        width = height;
-        height = tmp;
-
-        PlanarYUVLuminanceSource source = CameraManager.get().buildLuminanceSource(rotatedData, width, height);
-        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-        try {
-            rawResult = multiFormatReader.decodeWithState(bitmap);
-        } catch (ReaderException re) {
-            // continue
-        } finally {
-            multiFormatReader.reset();
+        if (!decoded) {
+            // Either there was no frame left, or it was skipped, or, reading several barcodes,
+            // it was done with. Either way this worker is free.
+            Message.obtain(resultHandler, R.id.decode_failed, index, 0)
+                    .sendToTarget();
         }
+    }
 
-        if (rawResult != null) {
-            Message message = Message.obtain(activity.getCaptureActivityHandler(), R.id.decode_succeeded, rawResult);
-            Bundle bundle = new Bundle();
-            bundle.putParcelable(DecodeThread.BARCODE_BITMAP, source.renderCroppedGreyscaleBitmap());
-            message.setData(bundle);
-            //Log.d(TAG, "Sending decode succeeded message...");
-            message.sendToTarget();
-        } else {
-            Message message = Message.obtain(activity.getCaptureActivityHandler(), R.id.decode_failed);
-            message.sendToTarget();
-        }
+    @Override
+    public void onDecodeSucceeded(Frame frame, Result rawResult,
+                                  RotatedPlanarYUVLuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Bitmap barcode = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        barcode.setPixels(source.renderCroppedGreyscale(), 0, width, 0, 0, width, height);
+
+        found = true;
+        Message message = Message.obtain(resultHandler,
+                multiRead ? R.id.barcode_found : R.id.decode_succeeded, index, 0, rawResult);
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(DecodeThread.BARCODE_BITMAP, barcode);
+        message.setData(bundle);
+        //Log.d(TAG, "Sending decode succeeded message...");
+        message.sendToTarget();
+    }
+
+    @Override
+    public void onDecodeFailed(Frame frame) {
+        Message message = Message.obtain(resultHandler,
+                R.id.decode_failed, index, 0);
+        message.sendToTarget();
     }
 }
@@ -0,0 +1,329 @@
+package mw.ankara.qrcode.decoding;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Message;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPointCallback;
+
+import java.util.Vector;
+
+import mw.ankara.qrcode.R;
+import mw.ankara.qrcode.camera.CameraManager;
+import mw.ankara.qrcode.core.BinarizerSelector;
+import mw.ankara.qrcode.core.DecodeConfig;
+import mw.ankara.qrcode.core.Frame;
+import mw.ankara.qrcode.core.FrameMailbox;
+import mw.ankara.qrcode.core.FrameQualityGate;
+import mw.ankara.qrcode.core.PipelineMetrics;
+import mw.ankara.qrcode.core.ResultCache;
+import mw.ankara.qrcode.core.RoiTracker;
+import mw.ankara.qrcode.core.SceneChangeDetector;
+import mw.ankara.qrcode.core.StartupTimeline;
+import mw.ankara.qrcode.core.TryHarderPolicy;
+
+/**
+ * Runs several {@link DecodeThread}s, each with its own reader, so frames can be decoded on more
+ * than one core. The camera streams into a {@link FrameMailbox}; whenever a frame is waiting, the
+ * next idle worker, in round-robin order, is woken up to take the freshest one. Frames are numbered
+ * in the order workers were woken, and results are released in that order: a barcode found in a
+ * later frame waits until every earlier frame still being decoded has finished, and only the first
+ * result is reported.
+ * <p>
+ * The decode configuration can be swapped while the workers run: each worker reads the one
+ * published last before every frame, so a frame is decoded with exactly one configuration and
+ * nothing has to be restarted.
+ * <p>
+ * When reading several barcodes per frame, workers report each new barcode straight away, checked
+ * against a shared {@link ResultCache}, and nothing is held back or cancelled.
+ * <p>
+ * Apart from {@link #isCancelled()}, {@link #isPyramid()}, {@link #isMultiRead()} and
+ * {@link #getConfig()}, which the workers poll, and their setters, all methods must be called from
+ * the thread of the {@link CaptureActivityHandler}.
+ */
+final class DecodePool {
+
+    private static final int MAX_DEFAULT_WORKERS = 4;
+    private static final long IDLE = -1L;
+
+    private final FrameMailbox mailbox;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final FrameQualityGate qualityGate = new FrameQualityGate();
+    private final SceneChangeDetector sceneChangeDetector = new SceneChangeDetector();
+    private final RoiTracker roiTracker = new RoiTracker();
+    private final BinarizerSelector binarizerSelector = new BinarizerSelector();
+    private final TryHarderPolicy tryHarderPolicy = new TryHarderPolicy();
+    private final ResultCache resultCache = new ResultCache();
+    private final DecodeThread[] workers;
+    // The sequence number of the frame each worker is decoding, and the generation it belongs to.
+    private final long[] sequences;
+    private final int[] generations;
+    private long nextSequence;
+    private int nextWorker;
+    private int generation;
+    private volatile boolean cancelled;
+    private volatile boolean pyramid;
+    private volatile DecodeConfig config;
+    private volatile boolean multiRead;
+
+    private Outcome pending;
+    private long pendingSequence;
+
+    /**
+     * @return One worker per spare core, leaving one for the camera and UI, capped at a few.
+     */
+    static int defaultWorkerCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores - 1, MAX_DEFAULT_WORKERS));
+    }
+
+    /**
+     * @param resultHandler Where the workers send the outcome of each frame.
+     * @param cameraManager The camera the frames come from, and go back to.
+     * @param timeline      Where to record how long each worker takes to warm up, or null.
+     */
+    DecodePool(Handler resultHandler,
+               final CameraManager cameraManager,
+               Vector<BarcodeFormat> decodeFormats,
+               String characterSet,
+               ResultPointCallback resultPointCallback,
+               int workerCount,
+               StartupTimeline timeline) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Need at least one decode worker: " + workerCount);
+        }
+        mailbox = new FrameMailbox(new FrameMailbox.Recycler() {
+            @Override
+            public void recycle(Frame frame) {
+                cameraManager.releasePreviewBuffer(frame.getData());
+            }
+        });
+        mailbox.setMetrics(metrics);
+        config = new DecodeConfig(decodeFormats, characterSet, resultPointCallback);
+        workers = new DecodeThread[workerCount];
+        sequences = new long[workerCount];
+        generations = new int[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new DecodeThread(resultHandler, config, this, i, timeline);
+            sequences[i] = IDLE;
+        }
+    }
+
+    void start() {
+        for (DecodeThread worker : workers) {
+            worker.start();
+        }
+    }
+
+    FrameMailbox getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * @return The metrics every worker and the mailbox report to.
+     */
+    PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * @return The check every worker runs before decoding a frame.
+     */
+    FrameQualityGate getQualityGate() {
+        return qualityGate;
+    }
+
+    /**
+     * @return What every worker uses to skip frames showing a scene that already held nothing.
+     */
+    SceneChangeDetector getSceneChangeDetector() {
+        return sceneChangeDetector;
+    }
+
+    /**
+     * @return What every worker uses to narrow decoding to where a barcode was last half found.
+     */
+    RoiTracker getRoiTracker() {
+        return roiTracker;
+    }
+
+    /**
+     * @return What every worker uses to pick the binarizer for a frame.
+     */
+    BinarizerSelector getBinarizerSelector() {
+        return binarizerSelector;
+    }
+
+    /**
+     * @return What every worker asks which frames to decode trying harder.
+     */
+    TryHarderPolicy getTryHarderPolicy() {
+        return tryHarderPolicy;
+    }
+
+    /**
+     * @return What every worker checks the barcodes it finds against while reading several.
+     */
+    ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @param multiRead Whether workers read every barcode in each frame, and report each new one
+     *                  as soon as it is found, instead of the first barcode of the first frame that
+     *                  has one. Can be changed at any time, from any thread.
+     */
+    void setMultiRead(boolean multiRead) {
+        this.multiRead = multiRead;
+    }
+
+    boolean isMultiRead() {
+        return multiRead;
+    }
+
+    /**
+     * @param pyramid Whether workers first decode each frame scaled down. Can be changed at any
+     *                time, from any thread.
+     */
+    void setPyramid(boolean pyramid) {
+        this.pyramid = pyramid;
+    }
+
+    boolean isPyramid() {
+        return pyramid;
+    }
+
+    /**
+     * @param config What the workers look for, from the next frame each of them takes. Can be
+     *               changed at any time, from any thread.
+     */
+    void setConfig(DecodeConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("No decode configuration");
+        }
+        this.config = config;
+    }
+
+    DecodeConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Wakes the next idle worker to take the frame waiting in the mailbox.
+     *
+     * @return false if every worker is busy. The frame stays in the mailbox, and is picked up as
+     * soon as a worker finishes.
+     */
+    boolean wakeIdleWorker() {
+        for (int i = 0; i < workers.length; i++) {
+            int index = (nextWorker + i) % workers.length;
+            if (sequences[index] == IDLE) {
+                nextWorker = index + 1;
+                sequences[index] = nextSequence++;
+                generations[index] = generation;
+                Message.obtain(workers[index].getHandler(), R.id.decode).sendToTarget();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that a worker finished its frame.
+     *
+     * @param index   The worker that finished.
+     * @param result  What it decoded, or null if it found nothing.
+     * @param barcode The cropped frame the result was decoded from, if any.
+     * @return The result to report now, or null if there is none yet. A result found in this frame
+     * may be held back until earlier frames finish, and one held back earlier may be returned here.
+     */
+    Outcome onDecodeFinished(int index, Result result, Bitmap barcode) {
+        long sequence = sequences[index];
+        boolean current = generations[index] == generation;
+        sequences[index] = IDLE;
+        if (sequence == IDLE || !current) {
+            // Decoded before the last cancel or reset, nobody is waiting for it any more.
+            return null;
+        }
+
+        if (result != null && (pending == null || sequence < pendingSequence)) {
+            pending = new Outcome(result, barcode);
+            pendingSequence = sequence;
+        }
+        if (pending == null) {
+            return null;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            if (sequences[i] != IDLE && generations[i] == generation
+                    && sequences[i] < pendingSequence) {
+                return null;
+            }
+        }
+        Outcome ready = pending;
+        pending = null;
+        return ready;
+    }
+
+    /**
+     * Drops all work in flight: workers skip the frames they have not started yet, and anything
+     * still being decoded is ignored when it finishes.
+     */
+    void cancel() {
+        cancelled = true;
+        generation++;
+        pending = null;
+    }
+
+    /**
+     * Starts a new round of decoding after {@link #cancel()}, forgetting the scenes and barcodes
+     * seen so far.
+     */
+    void reset() {
+        sceneChangeDetector.reset();
+        roiTracker.reset();
+        binarizerSelector.reset();
+        tryHarderPolicy.reset();
+        resultCache.reset();
+        cancelled = false;
+        generation++;
+        pending = null;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops every worker and waits for them to exit.
+     */
+    void quit() {
+        cancel();
+        for (DecodeThread worker : workers) {
+            Message.obtain(worker.getHandler(), R.id.quit).sendToTarget();
+        }
+        for (DecodeThread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                // continue
+            }
+        }
+    }
+
+    static final class Outcome {
+        final Result result;
+        final Bitmap barcode;
+
+        Outcome(Result result, Bitmap barcode) {
+            this.result = result;
+            this.barcode = barcode;
+        }
+    }
+
+}
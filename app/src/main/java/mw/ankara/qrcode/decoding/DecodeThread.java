@@ -19,18 +19,14 @@ package mw.ankara.qrcode.decoding;
 import android.os.Handler;
 import android.os.Looper;
 
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.ResultPointCallback;
-
-import java.util.Hashtable;
-import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
 
-import mw.ankara.qrcode.QRCaptureActivity;
+import mw.ankara.qrcode.core.DecodeConfig;
+import mw.ankara.qrcode.core.StartupTimeline;
 
 /**
- * This thread does all the heavy lifting of decoding the images.
+ * This thread does all the heavy lifting of decoding the images. A {@link DecodePool} runs several
+ * of them side by side, each with its own reader.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
@@ -38,50 +34,27 @@ final class DecodeThread extends Thread {
 
     public static final String BARCODE_BITMAP = "barcode_bitmap";
 
-    private final QRCaptureActivity activity;
-    private final Hashtable<DecodeHintType, Object> hints;
-    private Handler handler;
+    private final Handler resultHandler;
+    private final DecodePool pool;
+    private final int index;
+    private final DecodeConfig config;
+    private final StartupTimeline timeline;
+    private DecodeHandler handler;
     private final CountDownLatch handlerInitLatch;
 
-    DecodeThread(QRCaptureActivity activity,
-                 Vector<BarcodeFormat> decodeFormats,
-                 String characterSet,
-                 ResultPointCallback resultPointCallback) {
-
-        this.activity = activity;
+    /**
+     * @param timeline Where to record how long the thread takes to warm up, or null.
+     */
+    DecodeThread(Handler resultHandler, DecodeConfig config, DecodePool pool, int index,
+                 StartupTimeline timeline) {
+        super("DecodeThread-" + index);
+
+        this.resultHandler = resultHandler;
+        this.config = config;
+        this.pool = pool;
+        this.index = index;
+        this.timeline = timeline;
         handlerInitLatch = new CountDownLatch(1);
-
-        hints = new Hashtable<DecodeHintType, Object>(3);
-
-//    // The prefs can't change while the thread is running, so pick them up once here.
-//    if (decodeFormats == null || decodeFormats.isEmpty()) {
-//      SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
-//      decodeFormats = new Vector<BarcodeFormat>();
-//      if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_1D, true)) {
-//        decodeFormats.addAll(DecodeFormatManager.ONE_D_FORMATS);
-//      }
-//      if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_QR, true)) {
-//        decodeFormats.addAll(DecodeFormatManager.QR_CODE_FORMATS);
-//      }
-//      if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_DATA_MATRIX, true)) {
-//        decodeFormats.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
-//      }
-//    }
-        if (decodeFormats == null || decodeFormats.isEmpty()) {
-            decodeFormats = new Vector<BarcodeFormat>();
-            decodeFormats.addAll(DecodeFormatManager.ONE_D_FORMATS);
-            decodeFormats.addAll(DecodeFormatManager.QR_CODE_FORMATS);
-            decodeFormats.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
-
-        }
-
-        hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
-
-        if (characterSet != null) {
-            hints.put(DecodeHintType.CHARACTER_SET, characterSet);
-        }
-
-        hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
     }
 
     Handler getHandler() {
@@ -96,8 +69,15 @@ final class DecodeThread extends Thread {
     @Override
     public void run() {
         Looper.prepare();
-        handler = new DecodeHandler(activity, hints);
+        StartupTimeline.Span span = timeline == null ? null
+                : timeline.begin("decoder " + index + " warm-up");
+        handler = new DecodeHandler(resultHandler, config, pool, index);
         handlerInitLatch.countDown();
+        // Frames sent meanwhile wait, and would have paid for the warm-up anyway.
+        handler.warmUp();
+        if (span != null) {
+            span.end();
+        }
         Looper.loop();
     }
 
@@ -93,11 +93,79 @@ public final class Intents {
          */
         public static final String RESULT_FORMAT = "SCAN_RESULT_FORMAT";
 
+        /**
+         * When reading several barcodes, call intent.getStringArrayListExtra(RESULTS) for the
+         * contents of every barcode found, in the order they were found.
+         */
+        public static final String RESULTS = "SCAN_RESULTS";
+
+        /**
+         * When reading several barcodes, call intent.getStringArrayListExtra(RESULT_FORMATS) for
+         * the format of each of the {@link #RESULTS}.
+         */
+        public static final String RESULT_FORMATS = "SCAN_RESULT_FORMATS";
+
         /**
          * Setting this to false will not save scanned codes in the history.
          */
         public static final String SAVE_HISTORY = "SAVE_HISTORY";
 
+        /**
+         * Setting this to false decodes every frame, instead of skipping frames that are too
+         * blurry or too flat to hold a readable barcode.
+         */
+        public static final String QUALITY_GATE = "QUALITY_GATE";
+
+        /**
+         * Setting this to false decodes every frame, instead of skipping frames that show the
+         * same scene as a frame that held no barcode, and slowing down while nothing moves.
+         */
+        public static final String SKIP_UNCHANGED = "SKIP_UNCHANGED";
+
+        /**
+         * Setting this to false always decodes the whole framing rectangle, instead of a window
+         * around the points where a barcode was last half found.
+         */
+        public static final String TRACK_BARCODE = "TRACK_BARCODE";
+
+        /**
+         * Setting this to true first decodes each frame scaled down, and only at full resolution
+         * if that finds nothing. Faster for large barcodes held close to a high resolution camera.
+         */
+        public static final String PYRAMID_DECODE = "PYRAMID_DECODE";
+
+        /**
+         * Setting this to false always binarizes with the hybrid binarizer first, instead of
+         * the cheaper global histogram one for evenly lit frames it is likely to read.
+         */
+        public static final String ADAPTIVE_BINARIZER = "ADAPTIVE_BINARIZER";
+
+        /**
+         * Setting this to false never has the readers try harder. By default, they do on every
+         * few frames after a run of frames that found nothing.
+         */
+        public static final String ESCALATE_TRY_HARDER = "ESCALATE_TRY_HARDER";
+
+        /**
+         * Setting this to true also decodes the frames the readers try harder on inverted, for
+         * light barcodes on a dark background.
+         */
+        public static final String SCAN_INVERTED = "SCAN_INVERTED";
+
+        /**
+         * Setting this to true keeps scanning after the first barcode, reading every barcode in
+         * view and reporting each one once, until the user goes back. The results are then
+         * returned in {@link #RESULTS} and {@link #RESULT_FORMATS}.
+         */
+        public static final String MULTI_READ = "MULTI_READ";
+
+        /**
+         * Setting this to true keeps the camera and the decoders running after a barcode is
+         * found, and publishes every barcode to the subscribers of the activity's scan stream
+         * instead of returning it.
+         */
+        public static final String CONTINUOUS = "CONTINUOUS_SCAN";
+
         private Scan() {
         }
     }
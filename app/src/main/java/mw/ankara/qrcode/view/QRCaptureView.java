@@ -61,6 +61,8 @@ public final class QRCaptureView extends View {
     private Collection<ResultPoint> mPossibleResultPoints;
     private Collection<ResultPoint> mLastPossibleResultPoints;
 
+    private CameraManager mCameraManager;
+
     // This constructor is used when the class is built from an XML resource.
     public QRCaptureView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -79,9 +81,17 @@ public final class QRCaptureView extends View {
         mPossibleResultPoints = new HashSet<>(5);
     }
 
+    /**
+     * @param cameraManager The camera whose framing rect to draw, or null to draw nothing.
+     */
+    public void setCameraManager(CameraManager cameraManager) {
+        mCameraManager = cameraManager;
+        invalidate();
+    }
+
     @Override
     public void onDraw(Canvas canvas) {
-        Rect frame = CameraManager.get().getFramingRect();
+        Rect frame = mCameraManager == null ? null : mCameraManager.getFramingRect();
         if (frame == null) {
             return;
         }
@@ -128,12 +138,18 @@ public final class QRCaptureView extends View {
             canvas.drawRect(frame.left + 8, frame.top + mCurrentPosition - 1,
                     frame.right - 8, frame.top + mCurrentPosition + 1, mPaint);
 
-            Collection<ResultPoint> currentPossible = mPossibleResultPoints;
+            // Several decode threads may be adding points, so swap in a fresh collection for them.
+            Collection<ResultPoint> currentPossible;
+            synchronized (this) {
+                currentPossible = mPossibleResultPoints;
+                if (!currentPossible.isEmpty()) {
+                    mPossibleResultPoints = new HashSet<>(5);
+                }
+            }
             Collection<ResultPoint> currentLast = mLastPossibleResultPoints;
             if (currentPossible.isEmpty()) {
                 mLastPossibleResultPoints = null;
             } else {
-                mPossibleResultPoints.clear();
                 mLastPossibleResultPoints = currentPossible;
                 mPaint.setAlpha(OPAQUE);
                 mPaint.setColor(mResultPointColor);
@@ -170,7 +186,7 @@ public final class QRCaptureView extends View {
         invalidate();
     }
 
-    public void addPossibleResultPoint(ResultPoint point) {
+    public synchronized void addPossibleResultPoint(ResultPoint point) {
         mPossibleResultPoints.add(point);
     }
 
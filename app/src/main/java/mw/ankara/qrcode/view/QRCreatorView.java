@@ -9,12 +9,7 @@ import android.util.AttributeSet;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.EncodeHintType;
-import com.google.zxing.common.BitMatrix;
-import com.google.zxing.qrcode.QRCodeWriter;
-
-import java.util.HashMap;
+import mw.ankara.qrcode.core.QRCodeEncoder;
 
 /**
  * 生成二维码的ImageView
@@ -48,9 +43,6 @@ public class QRCreatorView extends ImageView {
         }
 
         try {
-            HashMap<EncodeHintType, String> hints = new HashMap<>(1);
-            hints.put(EncodeHintType.CHARACTER_SET, "utf-8");
-
             // 确保已经measure过了
             ViewGroup.LayoutParams params = getLayoutParams();
             int measureSpec = MeasureSpec.makeMeasureSpec(params.height,
@@ -59,22 +51,8 @@ public class QRCreatorView extends ImageView {
 
             final int width = getMeasuredWidth();
             final int height = getMeasuredHeight();
-            //图像数据转换，使用了矩阵转换
-            BitMatrix rawBitMatrix = new QRCodeWriter().encode(
-                    message, BarcodeFormat.QR_CODE, width, height, hints);
-
-            //下面这里按照二维码的算法，逐个生成二维码的图片，
-            int[] pixels = new int[width * height];
-            //两个for循环是图片横列扫描的结果
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    if (rawBitMatrix.get(x, y)) {
-                        pixels[y * width + x] = 0xff000000;
-                    } else {
-                        pixels[y * width + x] = 0xffffffff;
-                    }
-                }
-            }
+            //按照二维码的算法，逐个生成二维码的像素
+            int[] pixels = QRCodeEncoder.encode(message, width, height);
 
             //生成二维码图片的格式，使用ARGB_8888
             Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
@@ -0,0 +1,271 @@
+package mw.ankara.qrcode.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.widget.FrameLayout;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import mw.ankara.qrcode.camera.CameraManager;
+import mw.ankara.qrcode.camera.CameraOpener;
+import mw.ankara.qrcode.core.ScanStream;
+import mw.ankara.qrcode.core.StartupTimeline;
+import mw.ankara.qrcode.decoding.CaptureActivityHandler;
+import mw.ankara.qrcode.decoding.CaptureHost;
+
+/**
+ * A scanner to embed in any layout: the camera preview, the {@link QRCaptureView} overlay, and the
+ * camera and decode threads behind them, which belong to this view alone. Barcodes are published
+ * to its {@link #getScanStream() scan stream}, so subscribe to it and request as many as you want;
+ * nothing is decoded while no subscriber asks for more.
+ * <p>
+ * The camera opens on a thread of its own while the preview surface is created and the decode
+ * threads warm up, and each cold start is timed on the {@link #getStartupTimeline() timeline}.
+ * <p>
+ * The host drives the lifecycle. {@link #start()} when the scanner is shown. {@link #stop()} when
+ * it is hidden, which keeps the camera open and the decode threads waiting, so the next start is
+ * instant. {@link #release()} to let go of the camera, at the latest when the host is paused,
+ * unless it means to hold the camera while in the background. All on the main thread.
+ */
+public final class ScannerView extends FrameLayout {
+
+    private static final String TAG = ScannerView.class.getSimpleName();
+
+    private final SurfaceView mSurfaceView;
+    private final QRCaptureView mQRCaptureView;
+    private final CameraManager mCameraManager;
+    private final ScanStream mScanStream = new ScanStream();
+    private final StartupTimeline mStartupTimeline = new StartupTimeline();
+    private CameraOpener mCameraOpener;
+    private CaptureActivityHandler mCaptureHandler;
+
+    private Vector<BarcodeFormat> mBarcodeFormats;
+    private String mCharacterSet;
+    private boolean mMultiRead;
+
+    private boolean mStarted;
+    private boolean mHasSurface;
+
+    public ScannerView(Context context) {
+        this(context, null);
+    }
+
+    public ScannerView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        mCameraManager = new CameraManager(context.getApplicationContext());
+        mSurfaceView = new SurfaceView(context);
+        addView(mSurfaceView, new LayoutParams(LayoutParams.MATCH_PARENT,
+                LayoutParams.MATCH_PARENT));
+        mQRCaptureView = new QRCaptureView(context, null);
+        mQRCaptureView.setCameraManager(mCameraManager);
+        addView(mQRCaptureView, new LayoutParams(LayoutParams.MATCH_PARENT,
+                LayoutParams.MATCH_PARENT));
+        mSurfaceView.getHolder().addCallback(mSurfaceCallback);
+    }
+
+    /**
+     * @return Where barcodes are published. Subscriptions outlive {@link #release()}.
+     */
+    public ScanStream getScanStream() {
+        return mScanStream;
+    }
+
+    /**
+     * @return The camera this view scans with.
+     */
+    public CameraManager getCameraManager() {
+        return mCameraManager;
+    }
+
+    /**
+     * @return How the last cold start went, from {@link #start()} to the first frame and result.
+     */
+    public StartupTimeline getStartupTimeline() {
+        return mStartupTimeline;
+    }
+
+    /**
+     * @return What drives the scan, with the pipeline's metrics and stages to tune, or null until
+     * the first {@link #start()}, and after {@link #release()}.
+     */
+    public CaptureActivityHandler getCaptureHandler() {
+        return mCaptureHandler;
+    }
+
+    /**
+     * Changes what to look for. Takes effect on the next frame if scanning.
+     *
+     * @param formats      The formats to decode, or null or empty for every supported one.
+     * @param characterSet The character set to assume, or null to let the reader guess.
+     */
+    public void setDecodeFormats(Vector<BarcodeFormat> formats, String characterSet) {
+        mBarcodeFormats = formats;
+        mCharacterSet = characterSet;
+        if (mCaptureHandler != null) {
+            mCaptureHandler.setDecodeConfig(formats, characterSet,
+                    mCaptureHandler.getDecodeConfig().isTryHarder());
+        }
+    }
+
+    /**
+     * @param multiRead Whether to read every barcode in each frame, instead of one.
+     */
+    public void setMultiRead(boolean multiRead) {
+        mMultiRead = multiRead;
+        if (mCaptureHandler != null) {
+            mCaptureHandler.setMultiRead(multiRead);
+        }
+    }
+
+    /**
+     * Opens the camera, if it is not open yet, and starts the preview and decoding as soon as it
+     * is open and the preview surface is there.
+     */
+    public void start() {
+        mStarted = true;
+        if (mCaptureHandler == null) {
+            // A cold start: the decode threads warm up while the camera opens.
+            mStartupTimeline.start();
+            mCaptureHandler = new CaptureActivityHandler(mHost, mCameraManager, mBarcodeFormats,
+                    mCharacterSet);
+            mCaptureHandler.setMultiRead(mMultiRead);
+            mCaptureHandler.setScanStream(mScanStream);
+        }
+        if (!mCameraManager.isOpen() && mCameraOpener == null) {
+            mCameraOpener = new CameraOpener(mCameraManager, mStartupTimeline, mCameraCallback);
+            mCameraOpener.start();
+        }
+        startScanningIfReady();
+    }
+
+    /**
+     * Stops the preview and decoding, keeping the camera open and the decode threads waiting.
+     */
+    public void stop() {
+        mStarted = false;
+        if (mCaptureHandler != null) {
+            mCaptureHandler.pauseScanning();
+        }
+    }
+
+    /**
+     * Stops scanning, ends the decode threads and closes the camera. {@link #start()} opens it
+     * again.
+     */
+    public void release() {
+        mStarted = false;
+        if (mCameraOpener != null) {
+            mCameraOpener.cancel();
+            mCameraOpener = null;
+        }
+        if (mCaptureHandler != null) {
+            mCaptureHandler.quitSynchronously();
+            mCaptureHandler = null;
+        }
+        mCameraManager.closeDriver();
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    private void startScanningIfReady() {
+        if (!mStarted || !mHasSurface || mCaptureHandler == null || !mCameraManager.isOpen()) {
+            return;
+        }
+        try {
+            mCameraManager.setPreviewDisplay(mSurfaceView.getHolder());
+        } catch (IOException ioe) {
+            Log.w(TAG, "Cannot show the preview", ioe);
+            return;
+        }
+        mCaptureHandler.resumeScanning();
+    }
+
+    private final CameraOpener.Callback mCameraCallback = new CameraOpener.Callback() {
+        @Override
+        public void onCameraOpened() {
+            mCameraOpener = null;
+            startScanningIfReady();
+        }
+
+        @Override
+        public void onCameraFailed(Exception e) {
+            mCameraOpener = null;
+            Log.w(TAG, "Cannot open the camera", e);
+        }
+    };
+
+    private final SurfaceHolder.Callback mSurfaceCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            mStartupTimeline.markOnce("surface created");
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            // Also called once after the surface is created. The framing rect follows the size.
+            mHasSurface = true;
+            mCameraManager.setSurfaceSize(width, height);
+            if (mCaptureHandler != null) {
+                mCaptureHandler.pauseScanning();
+            }
+            startScanningIfReady();
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            mHasSurface = false;
+            if (mCaptureHandler != null) {
+                mCaptureHandler.pauseScanning();
+            }
+        }
+    };
+
+    private final CaptureHost mHost = new CaptureHost() {
+        @Override
+        public Context getContext() {
+            return ScannerView.this.getContext();
+        }
+
+        @Override
+        public QRCaptureView getQRCaptureView() {
+            return mQRCaptureView;
+        }
+
+        @Override
+        public StartupTimeline getStartupTimeline() {
+            return mStartupTimeline;
+        }
+
+        @Override
+        public void drawViewfinder() {
+            mQRCaptureView.drawViewfinder();
+        }
+
+        @Override
+        public void handleDecode(Result result, Bitmap barcode) {
+            // Only without a scan stream, if the handler was told to end the scan.
+            mQRCaptureView.drawResultBitmap(barcode);
+        }
+
+        @Override
+        public void handleBarcodeFound(Result result, Bitmap barcode) {
+        }
+
+        @Override
+        public void handleScan(Result result, Bitmap barcode) {
+            // The subscribers decide what to do with it.
+        }
+    };
+
+}
@@ -0,0 +1,74 @@
+package mw.ankara.qrcode.benchmarks;
+
+import java.util.Random;
+
+import mw.ankara.qrcode.core.DecodeConfig;
+import mw.ankara.qrcode.core.DecodeFormats;
+import mw.ankara.qrcode.core.Frame;
+import mw.ankara.qrcode.core.FrameDecoder;
+import mw.ankara.qrcode.core.SyntheticFrameGenerator;
+
+/**
+ * NV21 preview frames for the benchmarks. The chroma plane is a flat grey, as the decoders never
+ * look at it.
+ */
+final class BenchmarkFrames {
+
+    private static final long SEED = 42L;
+
+    private BenchmarkFrames() {
+    }
+
+    /**
+     * @param resolution A preview size such as "1280x720".
+     * @return The width and height.
+     */
+    static int[] parseResolution(String resolution) {
+        int x = resolution.indexOf('x');
+        return new int[]{
+                Integer.parseInt(resolution.substring(0, x)),
+                Integer.parseInt(resolution.substring(x + 1))
+        };
+    }
+
+    /**
+     * @return A frame of random luminance, in which no barcode can be found.
+     */
+    static byte[] noise(int width, int height) {
+        byte[] frame = blank(width, height);
+        Random random = new Random(SEED);
+        byte[] luminance = new byte[width * height];
+        random.nextBytes(luminance);
+        System.arraycopy(luminance, 0, frame, 0, luminance.length);
+        return frame;
+    }
+
+    /**
+     * @return The first frame of a clean synthetic corpus that decodes, with a QR code filling
+     * four fifths of the crop rectangle.
+     */
+    static Frame qrCode(int width, int height, int rotation,
+                        int cropLeft, int cropTop, int cropWidth, int cropHeight) {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(width, height, SEED);
+        generator.setCrop(rotation, cropLeft, cropTop, cropWidth, cropHeight);
+        generator.setScale(0.8f, 0.8f);
+        FrameDecoder decoder = new FrameDecoder(
+                new DecodeConfig(DecodeFormats.QR_CODE_FORMATS, null, null));
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 10)) {
+            Frame frame = generator.render(sample, null);
+            if (decoder.decode(decoder.buildLuminanceSource(frame)) != null) {
+                return frame;
+            }
+        }
+        throw new IllegalStateException("No readable QR code in the corpus");
+    }
+
+    private static byte[] blank(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = width * height; i < frame.length; i++) {
+            frame[i] = (byte) 128;
+        }
+        return frame;
+    }
+
+}
@@ -0,0 +1,77 @@
+package mw.ankara.qrcode.benchmarks;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import mw.ankara.qrcode.core.ReusableHybridBinarizer;
+import mw.ankara.qrcode.core.RotatedPlanarYUVLuminanceSource;
+
+/**
+ * Turning the cropped luminance into a black and white matrix, for both binarizers zxing offers
+ * and for the decoders' own copy of the hybrid one, which reuses its buffers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class BinarizerBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    @Param({"240", "480", "720"})
+    public int roi;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    private LuminanceSource source;
+    private final ReusableHybridBinarizer.Buffers buffers = new ReusableHybridBinarizer.Buffers();
+
+    @Setup
+    public void setUp() {
+        // Portrait, as the capture activity shows it.
+        int left = (HEIGHT - roi) / 2;
+        int top = (WIDTH - roi) / 2;
+        byte[] frame = hit
+                ? BenchmarkFrames.qrCode(WIDTH, HEIGHT, 90, left, top, roi, roi).getData()
+                : BenchmarkFrames.noise(WIDTH, HEIGHT);
+        source = new RotatedPlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 90,
+                left, top, roi, roi, new byte[roi * roi]);
+    }
+
+    @Benchmark
+    public BitMatrix hybrid() throws NotFoundException {
+        return new HybridBinarizer(source).getBlackMatrix();
+    }
+
+    @Benchmark
+    public BitMatrix reusableHybrid() throws NotFoundException {
+        return new ReusableHybridBinarizer(source, buffers).getBlackMatrix();
+    }
+
+    @Benchmark
+    public BitMatrix globalHistogram() throws NotFoundException {
+        return new GlobalHistogramBinarizer(source).getBlackMatrix();
+    }
+
+}
@@ -0,0 +1,89 @@
+package mw.ankara.qrcode.benchmarks;
+
+import com.google.zxing.Result;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import mw.ankara.qrcode.core.DecodeConfig;
+import mw.ankara.qrcode.core.Frame;
+import mw.ankara.qrcode.core.FrameDecoder;
+
+/**
+ * The whole cost of a frame on a decode worker, from the camera buffer to a result: rotating and
+ * cropping, binarizing, and running every reader. Misses matter as much as hits, since most frames
+ * hold no readable barcode. In pyramid mode, a scaled down copy is decoded first, as
+ * {@link mw.ankara.qrcode.core.DecodeLoop#setPyramid(boolean)} does, so hits get cheaper and
+ * misses pay for both passes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"240", "480"})
+    public int roi;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    @Param({"false", "true"})
+    public boolean pyramid;
+
+    private FrameDecoder decoder;
+    private Frame frame;
+
+    @Setup
+    public void setUp() {
+        int[] size = BenchmarkFrames.parseResolution(resolution);
+        int width = size[0];
+        int height = size[1];
+        int side = Math.min(roi, height);
+        // Portrait, as the capture activity shows it.
+        int left = (height - side) / 2;
+        int top = (width - side) / 2;
+        frame = hit
+                ? BenchmarkFrames.qrCode(width, height, 90, left, top, side, side)
+                : new Frame(BenchmarkFrames.noise(width, height), width, height, 90,
+                left, top, side, side, 0L);
+        decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+
+        if ((decode() != null) != hit) {
+            throw new IllegalStateException("Frame does not decode as expected: " + resolution
+                    + ", roi " + roi + ", hit " + hit + ", pyramid " + pyramid);
+        }
+    }
+
+    @Benchmark
+    public Result decode() {
+        int width = frame.getCropWidth();
+        int height = frame.getCropHeight();
+        int scale = pyramid ? FrameDecoder.coarseScale(width, height) : 1;
+        if (scale > 1) {
+            Result result = decoder.decode(
+                    decoder.buildLuminanceSource(frame, 0, 0, width, height, scale));
+            if (result != null) {
+                return result;
+            }
+        }
+        return decoder.decode(decoder.buildLuminanceSource(frame));
+    }
+
+}
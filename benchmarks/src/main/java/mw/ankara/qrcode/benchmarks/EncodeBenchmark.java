@@ -0,0 +1,41 @@
+package mw.ankara.qrcode.benchmarks;
+
+import com.google.zxing.WriterException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import mw.ankara.qrcode.core.QRCodeEncoder;
+
+/**
+ * Encoding a message and rendering it to pixels, as {@code QRCreatorView} does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+    private static final String MESSAGE = "http://example.com/anqrcode?id=0123456789";
+
+    @Param({"200", "400", "800"})
+    public int size;
+
+    @Benchmark
+    public int[] encode() throws WriterException {
+        return QRCodeEncoder.encode(MESSAGE, size, size);
+    }
+
+}
@@ -0,0 +1,78 @@
+package mw.ankara.qrcode.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import mw.ankara.qrcode.core.RotatedPlanarYUVLuminanceSource;
+
+/**
+ * Rotating and cropping the framing rectangle out of a preview frame, the way the decoders and the
+ * result bitmap read it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class LuminanceBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"240", "480"})
+    public int roi;
+
+    @Param({"0", "90"})
+    public int rotation;
+
+    private RotatedPlanarYUVLuminanceSource source;
+    private byte[] row;
+
+    @Setup
+    public void setUp() {
+        int[] size = BenchmarkFrames.parseResolution(resolution);
+        int width = size[0];
+        int height = size[1];
+        boolean swapped = rotation == 90 || rotation == 270;
+        int rotatedWidth = swapped ? height : width;
+        int rotatedHeight = swapped ? width : height;
+        int side = Math.min(roi, Math.min(rotatedWidth, rotatedHeight));
+
+        source = new RotatedPlanarYUVLuminanceSource(BenchmarkFrames.noise(width, height),
+                width, height, rotation, (rotatedWidth - side) / 2, (rotatedHeight - side) / 2,
+                side, side, new byte[side * side]);
+        row = new byte[side];
+    }
+
+    @Benchmark
+    public byte[] matrix() {
+        return source.getMatrix();
+    }
+
+    @Benchmark
+    public void rows(Blackhole blackhole) {
+        int height = source.getHeight();
+        for (int y = 0; y < height; y++) {
+            blackhole.consume(source.getRow(y, row));
+        }
+    }
+
+    @Benchmark
+    public int[] greyscalePixels() {
+        return source.renderCroppedGreyscale();
+    }
+
+}
@@ -0,0 +1,102 @@
+package mw.ankara.qrcode.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import mw.ankara.qrcode.core.DecodeFormats;
+import mw.ankara.qrcode.core.DecodeProfile;
+import mw.ankara.qrcode.core.RotatedPlanarYUVLuminanceSource;
+
+/**
+ * Running the readers over an already binarized frame, through {@link MultiFormatReader} and
+ * through the reader chain of a {@link DecodeProfile}, for QR codes alone and for every format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class ReaderBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int ROI = 480;
+
+    @Param({"QR_CODE", "ALL"})
+    public String formats;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    private BinaryBitmap bitmap;
+    private MultiFormatReader multiFormatReader;
+    private DecodeProfile.Chain chain;
+
+    @Setup
+    public void setUp() throws NotFoundException {
+        int left = (HEIGHT - ROI) / 2;
+        int top = (WIDTH - ROI) / 2;
+        byte[] frame = hit
+                ? BenchmarkFrames.qrCode(WIDTH, HEIGHT, 90, left, top, ROI, ROI).getData()
+                : BenchmarkFrames.noise(WIDTH, HEIGHT);
+        bitmap = new BinaryBitmap(new HybridBinarizer(new RotatedPlanarYUVLuminanceSource(frame,
+                WIDTH, HEIGHT, 90, left, top, ROI, ROI, null)));
+        // Binarized once, so only the readers are measured.
+        bitmap.getBlackMatrix();
+
+        List<BarcodeFormat> possible = "ALL".equals(formats)
+                ? DecodeFormats.ALL_FORMATS : DecodeFormats.QR_CODE_FORMATS;
+        Map<DecodeHintType, Object> hints =
+                new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, possible);
+        multiFormatReader = new MultiFormatReader();
+        multiFormatReader.setHints(hints);
+        chain = new DecodeProfile(possible, false).newChain(hints);
+
+        if ((multiFormatReader() != null) != hit || (profile() != null) != hit) {
+            throw new IllegalStateException("Frame does not decode as expected: " + formats
+                    + ", hit " + hit);
+        }
+    }
+
+    @Benchmark
+    public Result multiFormatReader() {
+        try {
+            return multiFormatReader.decodeWithState(bitmap);
+        } catch (ReaderException re) {
+            return null;
+        } finally {
+            multiFormatReader.reset();
+        }
+    }
+
+    @Benchmark
+    public Result profile() {
+        return chain.decode(bitmap);
+    }
+
+}
@@ -0,0 +1,243 @@
+package mw.ankara.qrcode.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mw.ankara.qrcode.core.BinarizerSelector;
+import mw.ankara.qrcode.core.DecodeConfig;
+import mw.ankara.qrcode.core.DecodeLoop;
+import mw.ankara.qrcode.core.FrameDecoder;
+import mw.ankara.qrcode.core.FrameMailbox;
+import mw.ankara.qrcode.core.FrameQualityGate;
+import mw.ankara.qrcode.core.FrameRecording;
+import mw.ankara.qrcode.core.FrameReplayer;
+import mw.ankara.qrcode.core.PipelineMetrics;
+import mw.ankara.qrcode.core.ResultCache;
+import mw.ankara.qrcode.core.RoiTracker;
+import mw.ankara.qrcode.core.SceneChangeDetector;
+import mw.ankara.qrcode.core.ThroughputPreviewSizeStrategy;
+import mw.ankara.qrcode.core.TryHarderPolicy;
+
+/**
+ * Replays a recorded scan through the decoders and prints what it cost: first every frame as fast
+ * as possible, for throughput, then at the recorded pace through a mailbox, as on the device, for
+ * latency and frames replaced before a decoder took them. Each run ends with the
+ * {@link PipelineMetrics} breakdown, and the first with the decoding cost per pixel of the crop,
+ * for the {@link ThroughputPreviewSizeStrategy} cost model.
+ * <p>
+ * Arguments: the recording, optionally the number of decode threads, then optionally
+ * {@code nogate} to decode the frames the {@link FrameQualityGate} rejects, {@code noskip} to
+ * decode the frames the {@link SceneChangeDetector} skips, {@code notrack} to decode the whole
+ * crop rectangle instead of the {@link RoiTracker} window, {@code hybrid} to binarize every
+ * frame with the hybrid binarizer first instead of asking a {@link BinarizerSelector},
+ * {@code noescalate} to never try harder, whatever the {@link TryHarderPolicy} would say, and
+ * {@code multi} to read every barcode in each frame, counting each one once in a
+ * {@link ResultCache}.
+ * Comparing runs shows what each stage saves and whether it delays results.
+ */
+public final class ReplayMain {
+
+    private final FrameRecording recording;
+    private final int threads;
+    private final boolean gated;
+    private final boolean skipping;
+    private final boolean tracking;
+    private final boolean adaptive;
+    private final boolean escalating;
+    private final boolean multiRead;
+
+    ReplayMain(FrameRecording recording, int threads, boolean gated, boolean skipping,
+               boolean tracking, boolean adaptive, boolean escalating, boolean multiRead) {
+        this.recording = recording;
+        this.threads = threads;
+        this.gated = gated;
+        this.skipping = skipping;
+        this.tracking = tracking;
+        this.adaptive = adaptive;
+        this.escalating = escalating;
+        this.multiRead = multiRead;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayMain <recording> [threads] [nogate] [noskip] [notrack]"
+                    + " [hybrid] [noescalate] [multi]");
+            System.exit(1);
+        }
+        FrameRecording recording = new FrameRecording(new File(args[0]));
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        List<String> options = Arrays.asList(args).subList(Math.min(2, args.length), args.length);
+        boolean gated = !options.contains("nogate");
+        boolean skipping = !options.contains("noskip");
+        boolean tracking = !options.contains("notrack");
+        boolean adaptive = !options.contains("hybrid");
+        boolean escalating = !options.contains("noescalate");
+        boolean multiRead = options.contains("multi");
+        System.out.println(recording.size() + " frames (" + recording.getDroppedCount()
+                + " dropped while recording), " + threads + " decode thread(s), "
+                + (gated ? "quality gate on, " : "quality gate off, ")
+                + (skipping ? "skipping unchanged scenes, " : "decoding unchanged scenes, ")
+                + (tracking ? "tracking barcodes, " : "decoding the whole crop, ")
+                + (adaptive ? "choosing binarizers, " : "hybrid binarizer first, ")
+                + (escalating ? "escalating to try harder" : "never trying harder")
+                + (multiRead ? ", reading every barcode" : ""));
+        if (recording.size() == 0) {
+            return;
+        }
+
+        ReplayMain replay = new ReplayMain(recording, threads, gated, skipping, tracking,
+                adaptive, escalating, multiRead);
+        replay.fullSpeed();
+        replay.recordedPace();
+    }
+
+    /**
+     * Decodes every frame as fast as the decode threads can.
+     */
+    ReplayStats fullSpeed() throws InterruptedException {
+        final FrameReplayer replayer = new FrameReplayer(recording);
+        final ReplayStats stats = new ReplayStats(recording.size());
+        PipelineMetrics metrics = new PipelineMetrics();
+        FrameQualityGate qualityGate = gated ? new FrameQualityGate() : null;
+        SceneChangeDetector detector = skipping ? new SceneChangeDetector() : null;
+        RoiTracker tracker = tracking ? new RoiTracker() : null;
+        BinarizerSelector selector = newBinarizerSelector();
+        TryHarderPolicy policy = newTryHarderPolicy();
+        ResultCache cache = multiRead ? new ResultCache() : null;
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final DecodeLoop loop = new DecodeLoop(replayer, newDecoder(selector), stats);
+            loop.setMetrics(metrics);
+            loop.setQualityGate(qualityGate);
+            loop.setSceneChangeDetector(detector);
+            loop.setRoiTracker(tracker);
+            loop.setTryHarderPolicy(policy);
+            loop.setResultCache(cache);
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop.run();
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Full speed: " + String.format("%.1f", stats.decoded() * 1e9 / elapsed)
+                + " frames/s, " + stats.summary());
+        System.out.println(metrics.snapshot());
+        System.out.println(selector);
+        System.out.println(policy);
+        if (cache != null) {
+            System.out.println(cache);
+        }
+        // What to give ThroughputPreviewSizeStrategy.setCostModel() for this device.
+        ThroughputPreviewSizeStrategy strategy = new ThroughputPreviewSizeStrategy();
+        strategy.setCalibrationTolerance(0.0);
+        if (strategy.calibrate(metrics.snapshot())) {
+            System.out.println("Preview size cost model: " + strategy);
+        }
+        return stats;
+    }
+
+    /**
+     * Posts the frames to a mailbox at the pace they were recorded, as the camera would.
+     */
+    ReplayStats recordedPace() throws InterruptedException {
+        final FrameReplayer replayer = new FrameReplayer(recording);
+        final FrameMailbox mailbox = new FrameMailbox(replayer);
+        final Semaphore available = new Semaphore(0);
+        mailbox.setListener(new FrameMailbox.Listener() {
+            @Override
+            public void onFrameAvailable() {
+                available.release();
+            }
+        });
+        mailbox.open();
+
+        final ReplayStats stats = new ReplayStats(recording.size());
+        PipelineMetrics metrics = new PipelineMetrics();
+        FrameQualityGate qualityGate = gated ? new FrameQualityGate() : null;
+        SceneChangeDetector detector = skipping ? new SceneChangeDetector() : null;
+        RoiTracker tracker = tracking ? new RoiTracker() : null;
+        BinarizerSelector selector = newBinarizerSelector();
+        TryHarderPolicy policy = newTryHarderPolicy();
+        ResultCache cache = multiRead ? new ResultCache() : null;
+        mailbox.setMetrics(metrics);
+        final AtomicInteger running = new AtomicInteger(threads);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final DecodeLoop loop = new DecodeLoop(mailbox, newDecoder(selector), stats);
+            loop.setMetrics(metrics);
+            loop.setQualityGate(qualityGate);
+            loop.setSceneChangeDetector(detector);
+            loop.setRoiTracker(tracker);
+            loop.setTryHarderPolicy(policy);
+            loop.setResultCache(cache);
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            available.acquire();
+                            while (loop.decodeNext()) {
+                                // Keep up until the mailbox is empty.
+                            }
+                            if (running.get() == 0) {
+                                return;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // Replay over.
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        replayer.play(mailbox, 1f);
+        // Wake every worker to take the last frame and exit.
+        running.set(0);
+        available.release(threads);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        mailbox.close();
+
+        System.out.println("Recorded pace: " + stats.summary() + ", "
+                + mailbox.getReplacedCount() + " frames replaced");
+        System.out.println(metrics.snapshot());
+        System.out.println(selector);
+        System.out.println(policy);
+        if (cache != null) {
+            System.out.println(cache);
+        }
+        return stats;
+    }
+
+    private BinarizerSelector newBinarizerSelector() {
+        BinarizerSelector selector = new BinarizerSelector();
+        selector.setEnabled(adaptive);
+        return selector;
+    }
+
+    private TryHarderPolicy newTryHarderPolicy() {
+        TryHarderPolicy policy = new TryHarderPolicy();
+        policy.setEnabled(escalating);
+        return policy;
+    }
+
+    private static FrameDecoder newDecoder(BinarizerSelector selector) {
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        decoder.setBinarizerSelector(selector);
+        return decoder;
+    }
+
+}
@@ -0,0 +1,97 @@
+package mw.ankara.qrcode.benchmarks;
+
+import com.google.zxing.Result;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mw.ankara.qrcode.core.DecodeLoop;
+import mw.ankara.qrcode.core.Frame;
+import mw.ankara.qrcode.core.RotatedPlanarYUVLuminanceSource;
+
+/**
+ * Collects how long frames took from being handed out to being decoded. When every barcode in a
+ * frame is read, the loop reports each new one, so a frame is only counted and timed on the first
+ * report the decoding thread makes for it.
+ */
+final class ReplayStats implements DecodeLoop.Listener {
+
+    private final long[] latencies;
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger barcodes = new AtomicInteger();
+    // The last frame each decoding thread reported, whose further reports are more barcodes.
+    private final ThreadLocal<Frame> lastFrame = new ThreadLocal<Frame>();
+
+    /**
+     * @param capacity How many frames can be decoded, at most.
+     */
+    ReplayStats(int capacity) {
+        latencies = new long[capacity];
+    }
+
+    @Override
+    public void onDecodeSucceeded(Frame frame, Result result,
+                                  RotatedPlanarYUVLuminanceSource source) {
+        barcodes.incrementAndGet();
+        if (add(frame)) {
+            hits.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onDecodeFailed(Frame frame) {
+        add(frame);
+    }
+
+    /**
+     * @return Whether this is the first report of the frame.
+     */
+    private boolean add(Frame frame) {
+        if (lastFrame.get() == frame) {
+            return false;
+        }
+        lastFrame.set(frame);
+        latencies[count.getAndIncrement()] = System.nanoTime() - frame.getTimestampNanos();
+        return true;
+    }
+
+    /**
+     * @return How many frames were decoded.
+     */
+    int decoded() {
+        return count.get();
+    }
+
+    /**
+     * @return How many frames held at least one barcode.
+     */
+    int hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return How many barcodes were reported, more than the hits when reading every barcode.
+     */
+    int barcodes() {
+        return barcodes.get();
+    }
+
+    String summary() {
+        int n = count.get();
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        return n + " decoded, " + hits.get() + " hits, " + barcodes.get()
+                + " barcodes, latency p50 " + millis(sorted, 0.5) + " ms, p90 "
+                + millis(sorted, 0.9) + " ms, max " + millis(sorted, 1.0) + " ms";
+    }
+
+    private static String millis(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int index = Math.min(sorted.length - 1, (int) (quantile * sorted.length));
+        return String.format("%.2f", sorted[index] / 1e6);
+    }
+
+}
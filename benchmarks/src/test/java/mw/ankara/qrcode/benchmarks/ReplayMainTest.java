@@ -0,0 +1,92 @@
+package mw.ankara.qrcode.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import mw.ankara.qrcode.core.Frame;
+import mw.ankara.qrcode.core.FrameRecorder;
+import mw.ankara.qrcode.core.FrameRecording;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayMainTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int NV21 = 17;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException, WriterException {
+        file = File.createTempFile("frames", ".yuv");
+        assertTrue(file.delete());
+        FrameRecorder recorder = new FrameRecorder(file);
+        // Two barcodes in the first frame, nothing in the second, 300 ms later.
+        recorder.record(twoQrCodes("left", "right", 0L), NV21);
+        recorder.record(blank(300000000L), NV21);
+        recorder.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void multiReadCountsEachFrameOnce() throws Exception {
+        ReplayMain replay = new ReplayMain(new FrameRecording(file), 1, false, false, false,
+                true, true, true);
+
+        ReplayStats fullSpeed = replay.fullSpeed();
+        assertEquals(2, fullSpeed.decoded());
+        assertEquals(1, fullSpeed.hits());
+        assertEquals(2, fullSpeed.barcodes());
+
+        ReplayStats recordedPace = replay.recordedPace();
+        assertEquals(2, recordedPace.decoded());
+        assertEquals(1, recordedPace.hits());
+        assertEquals(2, recordedPace.barcodes());
+    }
+
+    private static Frame blank(long timestampNanos) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(data, (byte) 0xe0);
+        return new Frame(data, WIDTH, HEIGHT, 0, 0, 0, WIDTH, HEIGHT, timestampNanos);
+    }
+
+    /**
+     * @return A frame with a QR code in each half, in black on white.
+     */
+    private static Frame twoQrCodes(String left, String right, long timestampNanos)
+            throws WriterException {
+        Frame frame = blank(timestampNanos);
+        draw(frame.getData(), new QRCodeWriter().encode(left, BarcodeFormat.QR_CODE, 200, 200),
+                40, 140);
+        draw(frame.getData(), new QRCodeWriter().encode(right, BarcodeFormat.QR_CODE, 200, 200),
+                380, 140);
+        return frame;
+    }
+
+    private static void draw(byte[] data, BitMatrix code, int left, int top) {
+        for (int y = 0; y < code.getHeight(); y++) {
+            for (int x = 0; x < code.getWidth(); x++) {
+                if (code.get(x, y)) {
+                    data[(top + y) * WIDTH + left + x] = 0x20;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package mw.ankara.qrcode.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records frames through a {@link FrameRecorder} on a writer thread of its own, so the thread
+ * frames arrive on never waits for the disk. Each frame is copied into one of a few buffers the
+ * recorder owns, and the caller's buffer can go straight back to the camera. When the writer falls
+ * so far behind that no buffer is free, the frame is dropped, and the recording notes how many
+ * were dropped before the next frame it gets.
+ * <p>
+ * Thread safe.
+ */
+public final class BackgroundFrameRecorder {
+
+    /**
+     * How many frames can wait to be written by default, about a tenth of a second of preview.
+     */
+    public static final int DEFAULT_CAPACITY = 3;
+
+    private final FrameRecorder recorder;
+    // Buffers ready to copy a frame into, and frames copied and waiting to be written.
+    private final BlockingQueue<Pending> free;
+    private final BlockingQueue<Pending> queued;
+    private final Thread writer;
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Frames dropped since the last one queued, guarded by this.
+    private int droppedSinceQueued;
+    private boolean closed;
+    private volatile IOException failure;
+
+    public BackgroundFrameRecorder(FrameRecorder recorder) {
+        this(recorder, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity How many frames can wait to be written before more are dropped.
+     */
+    public BackgroundFrameRecorder(FrameRecorder recorder, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Need room for at least one frame: " + capacity);
+        }
+        this.recorder = recorder;
+        free = new ArrayBlockingQueue<Pending>(capacity);
+        // One more than the buffers, for the end of the recording.
+        queued = new ArrayBlockingQueue<Pending>(capacity + 1);
+        for (int i = 0; i < capacity; i++) {
+            free.add(new Pending());
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "FrameRecorder");
+        writer.start();
+    }
+
+    /**
+     * Copies the frame and queues it to be written, or drops it if the writer is too far behind.
+     * The frame's data can be reused as soon as this returns.
+     *
+     * @param format The {@code ImageFormat} of the frame data.
+     * @return Whether the frame was queued.
+     */
+    public synchronized boolean record(Frame frame, int format) {
+        Pending pending = closed || failure != null ? null : free.poll();
+        if (pending == null) {
+            droppedSinceQueued++;
+            dropped.incrementAndGet();
+            return false;
+        }
+        pending.copy(frame, format, droppedSinceQueued);
+        droppedSinceQueued = 0;
+        queued.add(pending);
+        return true;
+    }
+
+    /**
+     * @return How many frames were written.
+     */
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    /**
+     * @return How many frames were dropped because the writer was too far behind, or had failed.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the frames still queued and closes the file.
+     *
+     * @throws IOException if a frame could not be written, after which none were.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queued.add(Pending.END);
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            recorder.close();
+            throw new InterruptedIOException("Interrupted writing the last frames");
+        }
+        recorder.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                Pending pending = queued.take();
+                if (pending == Pending.END) {
+                    return;
+                }
+                if (failure == null) {
+                    try {
+                        recorder.record(pending.frame, pending.format, pending.dropped);
+                        recorded.incrementAndGet();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                free.add(pending);
+            }
+        } catch (InterruptedException e) {
+            // Closing gave up on the frames left.
+        }
+    }
+
+    /**
+     * A frame copied into a buffer of the recorder's own.
+     */
+    private static final class Pending {
+
+        static final Pending END = new Pending();
+
+        private byte[] data;
+        Frame frame;
+        int format;
+        int dropped;
+
+        void copy(Frame frame, int format, int dropped) {
+            byte[] source = frame.getData();
+            if (data == null || data.length != source.length) {
+                data = new byte[source.length];
+            }
+            System.arraycopy(source, 0, data, 0, source.length);
+            this.frame = new Frame(data, frame.getWidth(), frame.getHeight(), frame.getRotation(),
+                    frame.getCropLeft(), frame.getCropTop(), frame.getCropWidth(),
+                    frame.getCropHeight(), frame.getTimestampNanos());
+            this.format = format;
+            this.dropped = dropped;
+        }
+
+    }
+
+}
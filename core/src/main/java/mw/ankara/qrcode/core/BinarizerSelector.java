@@ -0,0 +1,338 @@
+package mw.ankara.qrcode.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Picks the binarizer to try first on each frame. The global histogram binarizer is cheaper than
+ * the hybrid one, and reads evenly lit barcodes that fill a good part of the frame just as well,
+ * but loses everything under shadows and gradients, and small barcodes on a large background,
+ * where the hybrid one is needed.
+ * <p>
+ * Each frame is judged from {@value #GRID} by {@value #GRID} cells over the cropped luminance, of
+ * a few samples each. The brightest sample of each cell stands for the paper white there, and the
+ * brightest and darkest of those must differ by at most {@link #setMaxShading(int) a few} grey
+ * levels. At least {@link #setMinDarkShare(float) a share} of all samples must also be darker
+ * than halfway between the darkest and brightest sample. Frames passing both are plain, and the
+ * others always go to the hybrid binarizer first.
+ * <p>
+ * Plain frames go to the global histogram binarizer first, unless the other binarizer has lately
+ * been finding the barcodes it missed. A pass that misses is only followed by one with the other
+ * binarizer if the readers saw candidate points, so empty frames are not decoded twice. Every
+ * such rescue moves the choice for plain frames towards the binarizer that made it, and every
+ * first pass the global histogram binarizer wins moves it back, so each session learns which one
+ * is winning. While the hybrid binarizer is preferred, the choice drifts back a little with every
+ * frame so the cheaper one gets another chance now and then.
+ * <p>
+ * Thread safe, so several decoders can share one selector and its counts. Each one needs its own
+ * {@link Choice}.
+ */
+public final class BinarizerSelector {
+
+    public enum Strategy {
+        GLOBAL_HISTOGRAM, HYBRID;
+
+        public Strategy other() {
+            return this == HYBRID ? GLOBAL_HISTOGRAM : HYBRID;
+        }
+    }
+
+    public static final int GRID = 4;
+    public static final int DEFAULT_MAX_SHADING = 32;
+    public static final float DEFAULT_MIN_DARK_SHARE = 0.05f;
+
+    private static final int SAMPLES_PER_CELL = 8;
+    private static final int HISTOGRAM_SHIFT = 3;
+    private static final int HISTOGRAM_BUCKETS = 256 >> HISTOGRAM_SHIFT;
+    // How far a rescue moves the choice, against a single win, and how far the choice can go.
+    private static final int RESCUE_WEIGHT = 4;
+    private static final int MAX_SCORE = 16;
+
+    // The counts, per strategy, in the order of its ordinal.
+    private static final int CHOSEN = 0;
+    private static final int PASSES = 1;
+    private static final int HITS = 2;
+    private static final int RESCUES = 3;
+    private static final int NANOS = 4;
+    private static final int COUNTS = 5;
+
+    private volatile boolean enabled = true;
+    private volatile int maxShading = DEFAULT_MAX_SHADING;
+    private volatile float minDarkShare = DEFAULT_MIN_DARK_SHARE;
+    private final AtomicLongArray counts =
+            new AtomicLongArray(Strategy.values().length * COUNTS);
+    private final AtomicLong plainFrames = new AtomicLong();
+
+    // From zero up, plain frames try the global histogram binarizer first. Guarded by this.
+    private int score;
+
+    /**
+     * @param enabled Whether to choose at all. A disabled selector always picks the hybrid
+     *                binarizer, as the decoders did before it existed, but still falls back.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param shading The largest difference in grey levels between the brightest samples of two
+     *                cells for which a frame can still be plain.
+     */
+    public void setMaxShading(int shading) {
+        maxShading = shading;
+    }
+
+    /**
+     * @param share The least share of dark samples for which a frame can still be plain. Below the
+     *              default, barcodes are too small for the global histogram to pick out.
+     */
+    public void setMinDarkShare(float share) {
+        minDarkShare = share;
+    }
+
+    /**
+     * @return A choice for one decoder to pass to {@link #choose(byte[], int, int, Choice)}.
+     */
+    public Choice newChoice() {
+        return new Choice();
+    }
+
+    /**
+     * Picks the binarizer for the first pass over a frame.
+     *
+     * @param luminances The cropped luminance, width pixels per row.
+     * @param choice     Filled in with what was picked and why, to pass on to
+     *                   {@link #record(Choice, Strategy, boolean, long)}.
+     */
+    public Strategy choose(byte[] luminances, int width, int height, Choice choice) {
+        choice.passes = 0;
+        choice.measure(luminances, width, height);
+        choice.plain = enabled && choice.shading <= maxShading
+                && choice.darkShare >= minDarkShare;
+        Strategy strategy = Strategy.HYBRID;
+        if (choice.plain) {
+            plainFrames.incrementAndGet();
+            synchronized (this) {
+                if (score >= 0) {
+                    strategy = Strategy.GLOBAL_HISTOGRAM;
+                } else {
+                    score++;
+                }
+            }
+        }
+        counts.incrementAndGet(index(strategy, CHOSEN));
+        return strategy;
+    }
+
+    /**
+     * Counts a pass over the frame, and learns from it.
+     *
+     * @param strategy The binarizer the pass used.
+     * @param found    Whether the pass found a barcode.
+     * @param nanos    How long the pass took, binarizing and reading.
+     */
+    public void record(Choice choice, Strategy strategy, boolean found, long nanos) {
+        boolean rescue = choice.passes > 0 && found;
+        choice.passes++;
+        counts.incrementAndGet(index(strategy, PASSES));
+        counts.addAndGet(index(strategy, NANOS), nanos);
+        if (found) {
+            counts.incrementAndGet(index(strategy, HITS));
+        }
+        if (rescue) {
+            counts.incrementAndGet(index(strategy, RESCUES));
+        }
+        if (!choice.plain || !found) {
+            return;
+        }
+        synchronized (this) {
+            if (rescue) {
+                score += strategy == Strategy.GLOBAL_HISTOGRAM ? RESCUE_WEIGHT : -RESCUE_WEIGHT;
+            } else if (strategy == Strategy.GLOBAL_HISTOGRAM) {
+                score++;
+            }
+            score = Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score));
+        }
+    }
+
+    /**
+     * Forgets what was learnt, for a new session.
+     */
+    public synchronized void reset() {
+        score = 0;
+    }
+
+    /**
+     * @return The binarizer plain frames go to first at the moment.
+     */
+    public synchronized Strategy getPreferred() {
+        return score >= 0 ? Strategy.GLOBAL_HISTOGRAM : Strategy.HYBRID;
+    }
+
+    /**
+     * @return How many frames counted as plain.
+     */
+    public long getPlainFrameCount() {
+        return plainFrames.get();
+    }
+
+    /**
+     * @return How many frames went to the strategy first.
+     */
+    public long getChosenCount(Strategy strategy) {
+        return counts.get(index(strategy, CHOSEN));
+    }
+
+    /**
+     * @return How many passes, first or not, used the strategy.
+     */
+    public long getPassCount(Strategy strategy) {
+        return counts.get(index(strategy, PASSES));
+    }
+
+    public long getHitCount(Strategy strategy) {
+        return counts.get(index(strategy, HITS));
+    }
+
+    /**
+     * @return How many barcodes the strategy found after the other one missed them.
+     */
+    public long getRescueCount(Strategy strategy) {
+        return counts.get(index(strategy, RESCUES));
+    }
+
+    /**
+     * @return The share of the strategy's passes that found a barcode.
+     */
+    public double getHitRate(Strategy strategy) {
+        long passes = getPassCount(strategy);
+        return passes == 0 ? 0 : (double) getHitCount(strategy) / passes;
+    }
+
+    /**
+     * @return The mean time of a pass with the strategy, in nanoseconds.
+     */
+    public long getMeanNanos(Strategy strategy) {
+        long passes = getPassCount(strategy);
+        return passes == 0 ? 0 : counts.get(index(strategy, NANOS)) / passes;
+    }
+
+    public void resetCounts() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+        plainFrames.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("plainFrames=").append(getPlainFrameCount())
+                .append(" preferred=").append(getPreferred());
+        for (Strategy strategy : Strategy.values()) {
+            result.append(' ').append(strategy).append("{chosen=")
+                    .append(getChosenCount(strategy))
+                    .append(" passes=").append(getPassCount(strategy))
+                    .append(" hits=").append(getHitCount(strategy))
+                    .append(" rescues=").append(getRescueCount(strategy))
+                    .append(" mean=").append(getMeanNanos(strategy) / 1000).append("us}");
+        }
+        return result.toString();
+    }
+
+    private static int index(Strategy strategy, int count) {
+        return strategy.ordinal() * COUNTS + count;
+    }
+
+    /**
+     * What was picked for the frame one decoder is working on. Reused from one frame to the next.
+     */
+    public static final class Choice {
+        private final int[] brightest = new int[GRID * GRID];
+        private final int[] histogram = new int[HISTOGRAM_BUCKETS];
+        private int shading;
+        private float darkShare;
+        private boolean plain;
+        private int passes;
+
+        Choice() {
+        }
+
+        /**
+         * @return The difference in grey levels between the brightest samples of the brightest and
+         * darkest cells.
+         */
+        public int getShading() {
+            return shading;
+        }
+
+        /**
+         * @return The share of samples darker than halfway between the darkest and brightest.
+         */
+        public float getDarkShare() {
+            return darkShare;
+        }
+
+        /**
+         * @return Whether the frame counted as plain enough for the global histogram binarizer.
+         */
+        public boolean isPlain() {
+            return plain;
+        }
+
+        void measure(byte[] luminances, int width, int height) {
+            Arrays.fill(histogram, 0);
+            int samples = 0;
+            for (int cellY = 0; cellY < GRID; cellY++) {
+                int cellTop = cellY * height / GRID;
+                int cellHeight = (cellY + 1) * height / GRID - cellTop;
+                int stepY = Math.max(1, cellHeight / SAMPLES_PER_CELL);
+                for (int cellX = 0; cellX < GRID; cellX++) {
+                    int cellLeft = cellX * width / GRID;
+                    int cellWidth = (cellX + 1) * width / GRID - cellLeft;
+                    int stepX = Math.max(1, cellWidth / SAMPLES_PER_CELL);
+                    int max = 0;
+                    for (int y = cellTop; y < cellTop + cellHeight; y += stepY) {
+                        int offset = y * width;
+                        for (int x = cellLeft; x < cellLeft + cellWidth; x += stepX) {
+                            int pixel = luminances[offset + x] & 0xff;
+                            max = Math.max(max, pixel);
+                            histogram[pixel >> HISTOGRAM_SHIFT]++;
+                            samples++;
+                        }
+                    }
+                    brightest[cellY * GRID + cellX] = max;
+                }
+            }
+
+            int lowest = 0xff;
+            int highest = 0;
+            for (int max : brightest) {
+                lowest = Math.min(lowest, max);
+                highest = Math.max(highest, max);
+            }
+            shading = highest - lowest;
+            if (samples == 0) {
+                darkShare = 0f;
+                return;
+            }
+
+            int darkest = 0;
+            while (histogram[darkest] == 0) {
+                darkest++;
+            }
+            int middle = (darkest + highest / (1 << HISTOGRAM_SHIFT)) / 2;
+            int dark = 0;
+            for (int i = 0; i < middle; i++) {
+                dark += histogram[i];
+            }
+            darkShare = (float) dark / samples;
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package mw.ankara.qrcode.core;
+
+/**
+ * What a camera was configured with the last time it opened: the preview size and format, the
+ * zoom, the preview frame rate and the focus mode. Working these out means parsing the camera's
+ * parameter strings, so the profile is kept per device and applied as is on the next open.
+ * Immutable.
+ * <p>
+ * Values are camera parameter values, which never hold a ';', so {@link #encode()} can join them
+ * with one.
+ */
+public final class CameraProfile {
+
+    private static final String VERSION = "1";
+    private static final String SEPARATOR = ";";
+    private static final int FIELDS = 10;
+
+    private final int previewWidth;
+    private final int previewHeight;
+    private final int previewFormat;
+    private final String previewFormatString;
+    private final String zoom;
+    private final String takingPictureZoom;
+    private final int minFps;
+    private final int maxFps;
+    private final String focusMode;
+
+    /**
+     * @param previewFormatString The "preview-format" parameter, or null.
+     * @param zoom                The "zoom" parameter to set, or null to leave it.
+     * @param takingPictureZoom   The "taking-picture-zoom" parameter to set, or null to leave it.
+     * @param minFps              The least preview frame rate, in frames per 1000 seconds, or 0
+     *                            to leave the range.
+     * @param maxFps              The greatest preview frame rate, in frames per 1000 seconds.
+     * @param focusMode           The focus mode to set, or null to leave it.
+     */
+    public CameraProfile(int previewWidth, int previewHeight, int previewFormat,
+                         String previewFormatString, String zoom, String takingPictureZoom,
+                         int minFps, int maxFps, String focusMode) {
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+        this.previewFormat = previewFormat;
+        this.previewFormatString = previewFormatString;
+        this.zoom = zoom;
+        this.takingPictureZoom = takingPictureZoom;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.focusMode = focusMode;
+    }
+
+    /**
+     * @return What to keep a profile under: the device, its camera, the OS build and the size of
+     * the screen the preview size was picked for. Any of them changing calls for a new profile.
+     */
+    public static String key(String model, String cameraId, String build, int screenWidth,
+                             int screenHeight) {
+        return model + '/' + cameraId + '/' + build + '/' + screenWidth + 'x' + screenHeight;
+    }
+
+    public int getPreviewWidth() {
+        return previewWidth;
+    }
+
+    public int getPreviewHeight() {
+        return previewHeight;
+    }
+
+    public int getPreviewFormat() {
+        return previewFormat;
+    }
+
+    public String getPreviewFormatString() {
+        return previewFormatString;
+    }
+
+    public String getZoom() {
+        return zoom;
+    }
+
+    public String getTakingPictureZoom() {
+        return takingPictureZoom;
+    }
+
+    public int getMinFps() {
+        return minFps;
+    }
+
+    public int getMaxFps() {
+        return maxFps;
+    }
+
+    public String getFocusMode() {
+        return focusMode;
+    }
+
+    /**
+     * @return The profile as one line, for {@link #decode(String)} to read back.
+     */
+    public String encode() {
+        return VERSION + SEPARATOR + previewWidth + SEPARATOR + previewHeight + SEPARATOR
+                + previewFormat + SEPARATOR + orEmpty(previewFormatString) + SEPARATOR
+                + orEmpty(zoom) + SEPARATOR + orEmpty(takingPictureZoom) + SEPARATOR + minFps
+                + SEPARATOR + maxFps + SEPARATOR + orEmpty(focusMode);
+    }
+
+    /**
+     * @return The profile {@link #encode()} wrote, or null if there is none, it is damaged, or an
+     * older version wrote it.
+     */
+    public static CameraProfile decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        String[] fields = encoded.split(SEPARATOR, -1);
+        if (fields.length != FIELDS || !VERSION.equals(fields[0])) {
+            return null;
+        }
+        try {
+            int previewWidth = Integer.parseInt(fields[1]);
+            int previewHeight = Integer.parseInt(fields[2]);
+            if (previewWidth <= 0 || previewHeight <= 0) {
+                return null;
+            }
+            return new CameraProfile(previewWidth, previewHeight, Integer.parseInt(fields[3]),
+                    orNull(fields[4]), orNull(fields[5]), orNull(fields[6]),
+                    Integer.parseInt(fields[7]), Integer.parseInt(fields[8]), orNull(fields[9]));
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    private static String orEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String orNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CameraProfile)) {
+            return false;
+        }
+        return encode().equals(((CameraProfile) o).encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return previewWidth + "x" + previewHeight + " format " + previewFormat + '/'
+                + previewFormatString + ", zoom " + zoom + '/' + takingPictureZoom + ", fps "
+                + minFps + '-' + maxFps + ", focus " + focusMode;
+    }
+
+}
@@ -0,0 +1,45 @@
+package mw.ankara.qrcode.core;
+
+/**
+ * Scratch buffers for a {@link FrameDecoder}. Preview frames keep the same size for the lifetime of a
+ * camera session, so after the first frame every buffer here is reused as-is and the frame path
+ * stops allocating. A buffer is only replaced when a frame of a different size shows up.
+ * <p>
+ * Not thread safe: each decoder owns exactly one instance.
+ */
+final class DecodeBuffers {
+
+    private final ReusableHybridBinarizer.Buffers binarizer = new ReusableHybridBinarizer.Buffers();
+    private byte[] matrix;
+    private byte[] inverted;
+
+    /**
+     * @param area The number of pixels of the cropped luminance matrix.
+     * @return A buffer at least area bytes long, for {@code LuminanceSource.getMatrix()} to fill.
+     */
+    byte[] matrixBuffer(int area) {
+        if (matrix == null || matrix.length < area) {
+            matrix = new byte[area];
+        }
+        return matrix;
+    }
+
+    /**
+     * @param area The number of pixels of the cropped luminance matrix.
+     * @return A buffer at least area bytes long, for an inverted copy of the matrix.
+     */
+    byte[] invertedBuffer(int area) {
+        if (inverted == null || inverted.length < area) {
+            inverted = new byte[area];
+        }
+        return inverted;
+    }
+
+    /**
+     * @return The buffers for the binarizer, which size themselves to each source.
+     */
+    ReusableHybridBinarizer.Buffers binarizerBuffers() {
+        return binarizer;
+    }
+
+}
@@ -0,0 +1,101 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.ResultPointCallback;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What to look for in a frame: the barcode formats, the character set to assume, whether to try
+ * harder, and who to tell about candidate points, along with the {@link DecodeProfile} of readers
+ * the formats need. Immutable, so one instance can be shared by every decoder, and a new one can be
+ * handed to running decoders through {@link FrameDecoder#setConfig(DecodeConfig)}.
+ */
+public final class DecodeConfig {
+
+    private final List<BarcodeFormat> formats;
+    private final String characterSet;
+    private final boolean tryHarder;
+    private final ResultPointCallback resultPointCallback;
+    private final Map<DecodeHintType, Object> hints;
+    private final DecodeProfile profile;
+
+    /**
+     * @param formats             The formats to decode, or null or empty for every supported one.
+     * @param characterSet        The character set to assume, or null to let the reader guess.
+     * @param resultPointCallback Notified of candidate points while decoding, or null.
+     */
+    public DecodeConfig(Collection<BarcodeFormat> formats, String characterSet,
+                        ResultPointCallback resultPointCallback) {
+        this(formats, characterSet, resultPointCallback, false);
+    }
+
+    /**
+     * @param formats             The formats to decode, or null or empty for every supported one.
+     * @param characterSet        The character set to assume, or null to let the reader guess.
+     * @param resultPointCallback Notified of candidate points while decoding, or null.
+     * @param tryHarder           Whether the readers spend longer on each frame, looking for
+     *                            barcodes that are harder to find.
+     */
+    public DecodeConfig(Collection<BarcodeFormat> formats, String characterSet,
+                        ResultPointCallback resultPointCallback, boolean tryHarder) {
+        if (formats == null || formats.isEmpty()) {
+            formats = DecodeFormats.ALL_FORMATS;
+        }
+        this.formats = Collections.unmodifiableList(new ArrayList<BarcodeFormat>(formats));
+        this.characterSet = characterSet;
+        this.tryHarder = tryHarder;
+        this.resultPointCallback = resultPointCallback;
+
+        Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, this.formats);
+        if (characterSet != null) {
+            hints.put(DecodeHintType.CHARACTER_SET, characterSet);
+        }
+        if (tryHarder) {
+            hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        }
+        if (resultPointCallback != null) {
+            hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
+        }
+        this.hints = Collections.unmodifiableMap(hints);
+        profile = new DecodeProfile(this.formats, tryHarder);
+    }
+
+    public List<BarcodeFormat> getFormats() {
+        return formats;
+    }
+
+    public String getCharacterSet() {
+        return characterSet;
+    }
+
+    public boolean isTryHarder() {
+        return tryHarder;
+    }
+
+    public ResultPointCallback getResultPointCallback() {
+        return resultPointCallback;
+    }
+
+    /**
+     * @return The reader hints for this configuration.
+     */
+    public Map<DecodeHintType, Object> getHints() {
+        return hints;
+    }
+
+    /**
+     * @return The readers the formats need.
+     */
+    public DecodeProfile getProfile() {
+        return profile;
+    }
+
+}
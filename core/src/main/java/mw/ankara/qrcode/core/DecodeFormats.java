@@ -0,0 +1,63 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The groups of barcode formats a scan can be restricted to.
+ */
+public final class DecodeFormats {
+
+    public static final List<BarcodeFormat> PRODUCT_FORMATS;
+    public static final List<BarcodeFormat> ONE_D_FORMATS;
+    public static final List<BarcodeFormat> QR_CODE_FORMATS;
+    public static final List<BarcodeFormat> DATA_MATRIX_FORMATS;
+    public static final List<BarcodeFormat> ALL_FORMATS;
+
+    static {
+        List<BarcodeFormat> product = new ArrayList<BarcodeFormat>(5);
+        product.add(BarcodeFormat.UPC_A);
+        product.add(BarcodeFormat.UPC_E);
+        product.add(BarcodeFormat.EAN_13);
+        product.add(BarcodeFormat.EAN_8);
+        product.add(BarcodeFormat.RSS_14);
+        List<BarcodeFormat> oneD = new ArrayList<BarcodeFormat>(product.size() + 4);
+        oneD.addAll(product);
+        oneD.add(BarcodeFormat.CODE_39);
+        oneD.add(BarcodeFormat.CODE_93);
+        oneD.add(BarcodeFormat.CODE_128);
+        oneD.add(BarcodeFormat.ITF);
+        List<BarcodeFormat> all = new ArrayList<BarcodeFormat>(oneD.size() + 2);
+        all.addAll(oneD);
+        all.add(BarcodeFormat.QR_CODE);
+        all.add(BarcodeFormat.DATA_MATRIX);
+        PRODUCT_FORMATS = Collections.unmodifiableList(product);
+        ONE_D_FORMATS = Collections.unmodifiableList(oneD);
+        QR_CODE_FORMATS = Collections.singletonList(BarcodeFormat.QR_CODE);
+        DATA_MATRIX_FORMATS = Collections.singletonList(BarcodeFormat.DATA_MATRIX);
+        ALL_FORMATS = Collections.unmodifiableList(all);
+    }
+
+    private DecodeFormats() {
+    }
+
+    /**
+     * @param names Names of {@link BarcodeFormat} constants, such as "EAN_13".
+     * @return The formats, or null if any name is not a known format.
+     */
+    public static List<BarcodeFormat> parse(Iterable<String> names) {
+        List<BarcodeFormat> formats = new ArrayList<BarcodeFormat>();
+        try {
+            for (String name : names) {
+                formats.add(BarcodeFormat.valueOf(name));
+            }
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+        return formats;
+    }
+
+}
@@ -0,0 +1,269 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Result;
+
+/**
+ * Pulls frames from a {@link FrameSource}, decodes them and reports the outcome. It can either be
+ * stepped one frame at a time by a thread that is woken up when frames arrive, or run on a thread
+ * of its own until the source runs dry.
+ */
+public final class DecodeLoop {
+
+    public interface Listener {
+        /**
+         * Called on the decoding thread when a barcode was found. The luminance source covers the
+         * part of the crop rectangle that was decoded, possibly scaled down, and the result points
+         * are relative to it. The frame and luminance source are only valid until this method
+         * returns. When reading several barcodes per frame, it is called once for each new one.
+         */
+        void onDecodeSucceeded(Frame frame, Result result, RotatedPlanarYUVLuminanceSource source);
+
+        /**
+         * Called on the decoding thread when the frame held no barcode, or no new one.
+         */
+        void onDecodeFailed(Frame frame);
+    }
+
+    private final FrameSource source;
+    private final FrameDecoder decoder;
+    private final Listener listener;
+    private final FrameTimings timings = new FrameTimings();
+    private PipelineMetrics metrics;
+    private FrameQualityGate qualityGate;
+    private SceneChangeDetector sceneChangeDetector;
+    private SceneChangeDetector.Fingerprint fingerprint;
+    private RoiTracker roiTracker;
+    private RoiTracker.Observation observation;
+    private TryHarderPolicy tryHarderPolicy;
+    private ResultCache resultCache;
+    private boolean pyramid;
+    private volatile boolean running;
+
+    public DecodeLoop(FrameSource source, FrameDecoder decoder, Listener listener) {
+        this.source = source;
+        this.decoder = decoder;
+        this.listener = listener;
+    }
+
+    /**
+     * @param metrics Where to report how long each frame took, or null.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param qualityGate Checks each frame before it is decoded, or null to decode every frame.
+     *                    Rejected frames are reported as failed.
+     */
+    public void setQualityGate(FrameQualityGate qualityGate) {
+        this.qualityGate = qualityGate;
+    }
+
+    /**
+     * @param detector Skips frames showing a scene that already held nothing, or null to decode
+     *                 every frame. Skipped frames are reported as failed.
+     */
+    public void setSceneChangeDetector(SceneChangeDetector detector) {
+        sceneChangeDetector = detector;
+        fingerprint = detector == null ? null : detector.newFingerprint();
+    }
+
+    /**
+     * @param tracker Narrows decoding to where a barcode was last half found, or null to always
+     *                decode the whole crop rectangle.
+     */
+    public void setRoiTracker(RoiTracker tracker) {
+        roiTracker = tracker;
+        observation = tracker == null ? null : tracker.newObservation();
+        decoder.setPointListener(observation);
+    }
+
+    /**
+     * @param policy Decides which frames the readers try harder on, or null to always decode the
+     *               fast way, unless the configuration says otherwise.
+     */
+    public void setTryHarderPolicy(TryHarderPolicy policy) {
+        tryHarderPolicy = policy;
+    }
+
+    /**
+     * @param cache If not null, every barcode in each frame is read, instead of the first one, and
+     *              only those the cache has not seen yet are reported. The whole crop rectangle is
+     *              then decoded every time, without the tracker, the pyramid or trying harder.
+     */
+    public void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+
+    /**
+     * @param pyramid Whether to first decode a copy of the crop rectangle scaled down by
+     *                {@link FrameDecoder#coarseScale(int, int)}, and only decode it at full
+     *                resolution if that finds nothing. Large barcodes close to the camera are then
+     *                found in a quarter or a sixteenth of the pixels.
+     */
+    public void setPyramid(boolean pyramid) {
+        this.pyramid = pyramid;
+    }
+
+    /**
+     * Decodes the next frame of the source.
+     *
+     * @return false if the source had no frame.
+     */
+    public boolean decodeNext() {
+        Frame frame = source.nextFrame();
+        if (frame == null) {
+            return false;
+        }
+        try {
+            PipelineMetrics metrics = this.metrics;
+            FrameTimings timings = null;
+            if (metrics != null) {
+                timings = this.timings;
+                timings.clear();
+            }
+            SceneChangeDetector detector = sceneChangeDetector;
+            if (detector != null && !detector.isEnabled()) {
+                detector = null;
+            }
+            if (detector != null && !detector.shouldDecode(frame, fingerprint)) {
+                if (metrics != null) {
+                    metrics.recordUnchangedFrame();
+                }
+                listener.onDecodeFailed(frame);
+                return true;
+            }
+            FrameQualityGate qualityGate = this.qualityGate;
+            if (qualityGate != null && qualityGate.isEnabled()) {
+                long start = System.nanoTime();
+                boolean accepted = qualityGate.accept(frame);
+                if (metrics != null) {
+                    metrics.recordQualityCheck(System.nanoTime() - start, accepted);
+                }
+                if (!accepted) {
+                    if (detector != null) {
+                        detector.decodeFailed(fingerprint);
+                    }
+                    listener.onDecodeFailed(frame);
+                    return true;
+                }
+            }
+            ResultCache cache = resultCache;
+            if (cache != null) {
+                decodeMultiple(frame, cache, detector, metrics, timings);
+                return true;
+            }
+            RoiTracker tracker = roiTracker;
+            int left = 0;
+            int top = 0;
+            int width = frame.getCropWidth();
+            int height = frame.getCropHeight();
+            if (tracker != null && tracker.isEnabled()) {
+                tracker.start(frame, observation);
+                left = observation.getLeft();
+                top = observation.getTop();
+                width = observation.getWidth();
+                height = observation.getHeight();
+            } else {
+                tracker = null;
+            }
+            TryHarderPolicy policy = tryHarderPolicy;
+            boolean harder = false;
+            if (policy != null) {
+                harder = policy.shouldTryHarder(detector == null ? null : fingerprint);
+            }
+            decoder.setTryHarder(harder);
+            decoder.setAlsoInverted(harder && policy.isAlsoInverted());
+            // Barcodes worth trying harder for are rarely readable scaled down.
+            int scale = pyramid && !harder ? FrameDecoder.coarseScale(width, height) : 1;
+            RotatedPlanarYUVLuminanceSource luminance =
+                    decoder.buildLuminanceSource(frame, left, top, width, height, scale);
+            Result result = decoder.decode(luminance, timings);
+            if (result == null && scale > 1) {
+                // Nothing at this scale, or a barcode too fine to read, so look at every pixel.
+                scale = 1;
+                luminance = decoder.buildLuminanceSource(frame, left, top, width, height);
+                result = decoder.decode(luminance, timings);
+            }
+            if (metrics != null) {
+                metrics.recordFrame(timings);
+            }
+            if (policy != null) {
+                policy.record(harder, result != null);
+            }
+            if (tracker != null) {
+                if (result != null) {
+                    observation.addResultPoints(result.getResultPoints(), scale);
+                }
+                tracker.finish(frame, observation, result != null);
+            }
+            if (result != null) {
+                listener.onDecodeSucceeded(frame, result, luminance);
+            } else {
+                if (detector != null) {
+                    detector.decodeFailed(fingerprint);
+                }
+                listener.onDecodeFailed(frame);
+            }
+        } finally {
+            source.releaseFrame(frame);
+        }
+        return true;
+    }
+
+    private void decodeMultiple(Frame frame, ResultCache cache, SceneChangeDetector detector,
+                                PipelineMetrics metrics, FrameTimings timings) {
+        decoder.setTryHarder(false);
+        decoder.setAlsoInverted(false);
+        long now = frame.getTimestampNanos();
+        RotatedPlanarYUVLuminanceSource luminance = decoder.buildLuminanceSource(frame);
+        Result[] results = decoder.decodeMultiple(luminance, cache, now, timings);
+        if (metrics != null) {
+            metrics.recordFrame(timings);
+        }
+        for (Result result : results) {
+            listener.onDecodeSucceeded(frame, result, luminance);
+        }
+        if (results.length == 0) {
+            // Nothing new here, so the same scene is not worth decoding again.
+            if (detector != null) {
+                detector.decodeFailed(fingerprint);
+            }
+            listener.onDecodeFailed(frame);
+        }
+    }
+
+    /**
+     * Takes the next frame of the source and gives it straight back without decoding it.
+     *
+     * @return false if the source had no frame.
+     */
+    public boolean skipNext() {
+        Frame frame = source.nextFrame();
+        if (frame == null) {
+            return false;
+        }
+        source.releaseFrame(frame);
+        return true;
+    }
+
+    /**
+     * Decodes frames until the source has none left or {@link #stop()} is called.
+     *
+     * @return The number of frames decoded.
+     */
+    public int run() {
+        running = true;
+        int frames = 0;
+        while (running && decodeNext()) {
+            frames++;
+        }
+        return frames;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+}
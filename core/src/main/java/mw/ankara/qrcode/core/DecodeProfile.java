@@ -0,0 +1,219 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.aztec.AztecReader;
+import com.google.zxing.datamatrix.DataMatrixReader;
+import com.google.zxing.maxicode.MaxiCodeReader;
+import com.google.zxing.oned.MultiFormatOneDReader;
+import com.google.zxing.pdf417.PDF417Reader;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The readers a set of formats needs, worked out once. All 1D formats share one
+ * {@link MultiFormatOneDReader}, which only looks for the formats it is given, and every 2D format
+ * has its own reader, so a profile for QR codes alone calls {@link QRCodeReader} directly, without
+ * going through {@link com.google.zxing.MultiFormatReader} and resetting readers it never needed.
+ * <p>
+ * The readers start in the order MultiFormatReader tries them, with the 1D reader last when
+ * trying harder, since it then also scans rotated copies of the frame. Immutable, so one profile
+ * can be shared by every decoder. Each decoder builds its own {@link Chain}, which moves the
+ * readers that find the most barcodes to the front.
+ */
+public final class DecodeProfile {
+
+    /**
+     * The formats one reader handles.
+     */
+    public enum Family {
+        ONE_D, QR_CODE, DATA_MATRIX, AZTEC, PDF_417, MAXICODE
+    }
+
+    private static final Set<BarcodeFormat> ONE_D_FORMATS = EnumSet.of(BarcodeFormat.UPC_A,
+            BarcodeFormat.UPC_E, BarcodeFormat.EAN_13, BarcodeFormat.EAN_8, BarcodeFormat.CODABAR,
+            BarcodeFormat.CODE_39, BarcodeFormat.CODE_93, BarcodeFormat.CODE_128,
+            BarcodeFormat.ITF, BarcodeFormat.RSS_14, BarcodeFormat.RSS_EXPANDED);
+
+    private final List<Family> families;
+
+    /**
+     * @param formats   The formats to decode.
+     * @param tryHarder Whether the readers are asked to try harder.
+     */
+    public DecodeProfile(Collection<BarcodeFormat> formats, boolean tryHarder) {
+        this(familiesFor(formats, tryHarder));
+    }
+
+    private DecodeProfile(List<Family> families) {
+        this.families = Collections.unmodifiableList(families);
+    }
+
+    private static List<Family> familiesFor(Collection<BarcodeFormat> formats, boolean tryHarder) {
+        List<Family> families = new ArrayList<Family>();
+        boolean oneD = false;
+        for (BarcodeFormat format : formats) {
+            if (ONE_D_FORMATS.contains(format)) {
+                oneD = true;
+            }
+        }
+        if (oneD && !tryHarder) {
+            families.add(Family.ONE_D);
+        }
+        addIfAsked(families, formats, BarcodeFormat.QR_CODE, Family.QR_CODE);
+        addIfAsked(families, formats, BarcodeFormat.DATA_MATRIX, Family.DATA_MATRIX);
+        addIfAsked(families, formats, BarcodeFormat.AZTEC, Family.AZTEC);
+        addIfAsked(families, formats, BarcodeFormat.PDF_417, Family.PDF_417);
+        addIfAsked(families, formats, BarcodeFormat.MAXICODE, Family.MAXICODE);
+        if (oneD && tryHarder) {
+            families.add(Family.ONE_D);
+        }
+        if (families.isEmpty()) {
+            // Nothing readable on its own was asked for, so look for everything, as
+            // MultiFormatReader does.
+            families.addAll(Arrays.asList(Family.values()));
+        }
+        return families;
+    }
+
+    /**
+     * @return The readers to try, in their starting order.
+     */
+    public List<Family> getFamilies() {
+        return families;
+    }
+
+    /**
+     * @return A profile with the same readers, in the same order, except for the given one.
+     */
+    public DecodeProfile without(Family family) {
+        List<Family> families = new ArrayList<Family>(this.families);
+        families.remove(family);
+        return new DecodeProfile(families);
+    }
+
+    /**
+     * @param hints Passed to every reader, and to the 1D reader when it is built.
+     * @return A new chain of readers, for one decoder.
+     */
+    public Chain newChain(Map<DecodeHintType, ?> hints) {
+        return new Chain(families, hints);
+    }
+
+    private static void addIfAsked(List<Family> families, Collection<BarcodeFormat> formats,
+                                   BarcodeFormat format, Family family) {
+        if (formats.contains(format)) {
+            families.add(family);
+        }
+    }
+
+    private static Reader newReader(Family family, Map<DecodeHintType, ?> hints) {
+        switch (family) {
+            case ONE_D:
+                return new MultiFormatOneDReader(hints);
+            case QR_CODE:
+                return new QRCodeReader();
+            case DATA_MATRIX:
+                return new DataMatrixReader();
+            case AZTEC:
+                return new AztecReader();
+            case PDF_417:
+                return new PDF417Reader();
+            case MAXICODE:
+                return new MaxiCodeReader();
+            default:
+                throw new IllegalArgumentException("Unknown reader family: " + family);
+        }
+    }
+
+    /**
+     * The readers of a profile, for one decoder. After each hit, the reader that found the barcode
+     * moves ahead of the one before it if it has now found more barcodes, so the readers settle
+     * in the order of how often they find something. Misses try every reader anyway.
+     * <p>
+     * Not thread safe: each decoder owns exactly one chain.
+     */
+    public static final class Chain {
+        private final Map<DecodeHintType, ?> hints;
+        private final Family[] families;
+        private final Reader[] readers;
+        private final long[] hits;
+
+        Chain(List<Family> families, Map<DecodeHintType, ?> hints) {
+            this.hints = hints;
+            this.families = families.toArray(new Family[families.size()]);
+            readers = new Reader[this.families.length];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = newReader(this.families[i], hints);
+            }
+            hits = new long[readers.length];
+        }
+
+        /**
+         * @return The barcode found in the bitmap, or null if no reader finds one.
+         */
+        public Result decode(BinaryBitmap bitmap) {
+            for (int i = 0; i < readers.length; i++) {
+                Reader reader = readers[i];
+                Result result;
+                try {
+                    result = reader.decode(bitmap, hints);
+                } catch (ReaderException re) {
+                    continue;
+                } finally {
+                    reader.reset();
+                }
+                hits[i]++;
+                if (i > 0 && hits[i] > hits[i - 1]) {
+                    swap(i, i - 1);
+                }
+                return result;
+            }
+            return null;
+        }
+
+        /**
+         * @return The readers, in the order they are tried now.
+         */
+        public List<Family> getOrder() {
+            return Collections.unmodifiableList(Arrays.asList(families.clone()));
+        }
+
+        /**
+         * @return How many barcodes the reader found in this chain.
+         */
+        public long getHitCount(Family family) {
+            for (int i = 0; i < families.length; i++) {
+                if (families[i] == family) {
+                    return hits[i];
+                }
+            }
+            return 0L;
+        }
+
+        private void swap(int i, int j) {
+            Family family = families[i];
+            families[i] = families[j];
+            families[j] = family;
+            Reader reader = readers[i];
+            readers[i] = readers[j];
+            readers[j] = reader;
+            long count = hits[i];
+            hits[i] = hits[j];
+            hits[j] = count;
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package mw.ankara.qrcode.core;
+
+/**
+ * One preview frame and what is needed to decode it: the planar YUV data as the camera delivered
+ * it, its size, the clockwise rotation to the display, and the crop rectangle in rotated
+ * coordinates.
+ */
+public final class Frame {
+
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final int rotation;
+    private final int cropLeft;
+    private final int cropTop;
+    private final int cropWidth;
+    private final int cropHeight;
+    private final long timestampNanos;
+
+    public Frame(byte[] data, int width, int height, int rotation,
+                 int cropLeft, int cropTop, int cropWidth, int cropHeight, long timestampNanos) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.cropLeft = cropLeft;
+        this.cropTop = cropTop;
+        this.cropWidth = cropWidth;
+        this.cropHeight = cropHeight;
+        this.timestampNanos = timestampNanos;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public int getCropLeft() {
+        return cropLeft;
+    }
+
+    public int getCropTop() {
+        return cropTop;
+    }
+
+    public int getCropWidth() {
+        return cropWidth;
+    }
+
+    public int getCropHeight() {
+        return cropHeight;
+    }
+
+    /**
+     * @return The left of the crop rectangle mapped back onto the unrotated data.
+     */
+    int getDataCropLeft() {
+        switch (rotation) {
+            case 90:
+                return cropTop;
+            case 180:
+                return width - cropLeft - cropWidth;
+            case 270:
+                return width - cropTop - cropHeight;
+            default:
+                return cropLeft;
+        }
+    }
+
+    /**
+     * @return The top of the crop rectangle mapped back onto the unrotated data.
+     */
+    int getDataCropTop() {
+        switch (rotation) {
+            case 90:
+                return height - cropLeft - cropWidth;
+            case 180:
+                return height - cropTop - cropHeight;
+            case 270:
+                return cropLeft;
+            default:
+                return cropTop;
+        }
+    }
+
+    /**
+     * @return The width of the crop rectangle on the unrotated data.
+     */
+    int getDataCropWidth() {
+        return rotation == 90 || rotation == 270 ? cropHeight : cropWidth;
+    }
+
+    /**
+     * @return The height of the crop rectangle on the unrotated data.
+     */
+    int getDataCropHeight() {
+        return rotation == 90 || rotation == 270 ? cropWidth : cropHeight;
+    }
+
+    /**
+     * @return When the frame was captured, on the {@link System#nanoTime()} clock.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+}
@@ -0,0 +1,434 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.MultipleBarcodeReader;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes frames with the readers of the configuration's {@link DecodeProfile}. For efficiency,
+ * the same readers and buffers are reused from one frame to the next, so an instance must only be
+ * used by one thread at a time.
+ * <p>
+ * Candidate points found while decoding are always reported relative to the crop rectangle of the
+ * frame, in its pixels, even when only a window of it is decoded or it is scaled down.
+ * <p>
+ * Frames can be decoded {@link #setTryHarder(boolean) trying harder} and
+ * {@link #setAlsoInverted(boolean) inverted} from one frame to the next, as a
+ * {@link TryHarderPolicy} decides, without rebuilding the decoder.
+ */
+public final class FrameDecoder {
+
+    /**
+     * The shorter side a scaled down source must keep for {@link #coarseScale(int, int)} to pick
+     * it. Below that, the modules of all but the closest barcodes shrink under two pixels.
+     */
+    public static final int MIN_COARSE_SIZE = 240;
+
+    // The side of the blank frame decoded by warmUp(). Large enough for the hybrid binarizer to
+    // work in blocks, rather than fall back to the global histogram.
+    private static final int WARM_UP_SIZE = 64;
+
+    private final DecodeBuffers buffers = new DecodeBuffers();
+    private DecodeConfig config;
+    private DecodeProfile.Chain readers;
+    private Map<DecodeHintType, Object> hints;
+    // Built the first time a frame is decoded trying harder.
+    private DecodeProfile.Chain harderReaders;
+    private boolean tryHarder;
+    private boolean alsoInverted;
+    // Built the first time a frame is decoded for several barcodes.
+    private QRCodeMultiReader qrCodeMultiReader;
+    private MultipleBarcodeReader otherMultiReader;
+    private ResultPointCallback resultPointCallback;
+    private ResultPointCallback pointListener;
+    private BinarizerSelector binarizerSelector;
+    private BinarizerSelector.Choice binarizerChoice;
+    // Candidate points reported during the current pass.
+    private int pointCount;
+    // Where the window being decoded sits in the crop rectangle, and how far it is scaled down.
+    private int windowLeft;
+    private int windowTop;
+    private int windowScale = 1;
+
+    public FrameDecoder(DecodeConfig config) {
+        setConfig(config);
+    }
+
+    /**
+     * Switches to another configuration, from the next decode on. Only the hints and readers are
+     * rebuilt; the buffers and everything else are kept. Does nothing if the configuration is the
+     * one already in use, so it is cheap to call before every frame.
+     */
+    public void setConfig(DecodeConfig config) {
+        if (config == this.config) {
+            return;
+        }
+        this.config = config;
+        resultPointCallback = config.getResultPointCallback();
+        Map<DecodeHintType, Object> hints =
+                new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.putAll(config.getHints());
+        hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, new ResultPointCallback() {
+            @Override
+            public void foundPossibleResultPoint(ResultPoint point) {
+                onPossibleResultPoint(point);
+            }
+        });
+        this.hints = hints;
+        readers = config.getProfile().newChain(hints);
+        harderReaders = config.isTryHarder() ? readers : null;
+        qrCodeMultiReader = null;
+        otherMultiReader = null;
+    }
+
+    /**
+     * @param tryHarder Whether the next frames are decoded with the readers trying harder, whatever
+     *                  the configuration says. They then use a second chain of readers, built the
+     *                  first time it is needed.
+     */
+    public void setTryHarder(boolean tryHarder) {
+        this.tryHarder = tryHarder;
+    }
+
+    /**
+     * @param alsoInverted Whether the next frames are also decoded inverted, with the hybrid
+     *                     binarizer, when nothing is found the right way round. Reads light
+     *                     barcodes on a dark background.
+     */
+    public void setAlsoInverted(boolean alsoInverted) {
+        this.alsoInverted = alsoInverted;
+    }
+
+    /**
+     * @param listener Also told about candidate points, after the callback of the configuration,
+     *                 or null.
+     */
+    public void setPointListener(ResultPointCallback listener) {
+        pointListener = listener;
+    }
+
+    public DecodeConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return The readers, with how many barcodes each has found. A new configuration brings a
+     * new chain.
+     */
+    public DecodeProfile.Chain getReaders() {
+        return readers;
+    }
+
+    /**
+     * @param selector Picks the binarizer for each frame, and the other one when the first misses
+     *                 a barcode the readers half saw, or null to always use the hybrid binarizer.
+     */
+    public void setBinarizerSelector(BinarizerSelector selector) {
+        binarizerSelector = selector;
+        binarizerChoice = selector == null ? null : selector.newChoice();
+    }
+
+    /**
+     * @return A source for the crop rectangle of the frame, rotated to the display. It shares the
+     * frame data and this decoder's buffers, so it is only valid until the next frame.
+     */
+    public RotatedPlanarYUVLuminanceSource buildLuminanceSource(Frame frame) {
+        return buildLuminanceSource(frame, 0, 0, frame.getCropWidth(), frame.getCropHeight());
+    }
+
+    /**
+     * Like {@link #buildLuminanceSource(Frame)}, but for a window of the crop rectangle only.
+     * Points found while decoding the source are moved back into the crop rectangle before they
+     * are reported.
+     *
+     * @param left Left of the window, relative to the crop rectangle.
+     * @param top  Top of the window, relative to the crop rectangle.
+     */
+    public RotatedPlanarYUVLuminanceSource buildLuminanceSource(Frame frame, int left, int top,
+                                                                int width, int height) {
+        return buildLuminanceSource(frame, left, top, width, height, 1);
+    }
+
+    /**
+     * Like {@link #buildLuminanceSource(Frame, int, int, int, int)}, but scaled down as it is
+     * rotated and cropped.
+     *
+     * @param scale How many pixels of the window, along each side, make one pixel of the source.
+     */
+    public RotatedPlanarYUVLuminanceSource buildLuminanceSource(Frame frame, int left, int top,
+                                                                int width, int height, int scale) {
+        windowLeft = left;
+        windowTop = top;
+        windowScale = scale;
+        return new RotatedPlanarYUVLuminanceSource(frame.getData(), frame.getWidth(),
+                frame.getHeight(), frame.getRotation(), frame.getCropLeft() + left,
+                frame.getCropTop() + top, width, height, scale,
+                buffers.matrixBuffer((width / scale) * (height / scale)));
+    }
+
+    /**
+     * @return The largest of 4 and 2 that keeps the shorter side of a window of the given size
+     * at {@link #MIN_COARSE_SIZE} pixels or more, or 1 if neither does.
+     */
+    public static int coarseScale(int width, int height) {
+        int side = Math.min(width, height);
+        for (int scale = 4; scale > 1; scale /= 2) {
+            if (side / scale >= MIN_COARSE_SIZE) {
+                return scale;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Runs a blank frame through both binarizers and the readers, so their classes are loaded
+     * before the first real frame comes in. Nothing is recorded.
+     */
+    public void warmUp() {
+        LuminanceSource blank = new PlanarYUVLuminanceSource(
+                new byte[WARM_UP_SIZE * WARM_UP_SIZE], WARM_UP_SIZE, WARM_UP_SIZE, 0, 0,
+                WARM_UP_SIZE, WARM_UP_SIZE);
+        decode(blank, BinarizerSelector.Strategy.HYBRID, null);
+        decode(blank, BinarizerSelector.Strategy.GLOBAL_HISTOGRAM, null);
+    }
+
+    /**
+     * @return The barcode found in the source, or null if there is none.
+     */
+    public Result decode(LuminanceSource source) {
+        return decode(source, null);
+    }
+
+    /**
+     * @param timings If not null, how long each step took is added to it, and what was found is
+     *                recorded.
+     * @return The barcode found in the source, or null if there is none.
+     */
+    public Result decode(LuminanceSource source, FrameTimings timings) {
+        long start = System.nanoTime();
+        // Rotate and crop once, up front, so the binarizer and readers work on a plain copy.
+        int width = source.getWidth();
+        int height = source.getHeight();
+        byte[] matrix = source.getMatrix();
+        long cropped = System.nanoTime();
+
+        LuminanceSource plain =
+                new PlanarYUVLuminanceSource(matrix, width, height, 0, 0, width, height);
+        if (timings != null) {
+            timings.add(cropped - start, 0L, 0L, 0L, null);
+        }
+
+        Result result = decode(plain, matrix, width, height, timings);
+        if (result == null && alsoInverted) {
+            long invertStart = System.nanoTime();
+            int area = width * height;
+            byte[] inverted = buffers.invertedBuffer(area);
+            for (int i = 0; i < area; i++) {
+                inverted[i] = (byte) ~matrix[i];
+            }
+            if (timings != null) {
+                timings.add(System.nanoTime() - invertStart, 0L, 0L, 0L, null);
+            }
+            result = decode(new PlanarYUVLuminanceSource(inverted, width, height, 0, 0, width,
+                    height), BinarizerSelector.Strategy.HYBRID, timings);
+        }
+        return result;
+    }
+
+    private Result decode(LuminanceSource plain, byte[] matrix, int width, int height,
+                          FrameTimings timings) {
+        BinarizerSelector selector = binarizerSelector;
+        if (selector == null) {
+            return decode(plain, BinarizerSelector.Strategy.HYBRID, timings);
+        }
+        BinarizerSelector.Choice choice = binarizerChoice;
+        BinarizerSelector.Strategy strategy = selector.choose(matrix, width, height, choice);
+        long passStart = System.nanoTime();
+        pointCount = 0;
+        Result result = decode(plain, strategy, timings);
+        selector.record(choice, strategy, result != null, System.nanoTime() - passStart);
+        if (result == null && pointCount > 0) {
+            // The readers saw something, which the other binarizer may bring out better.
+            strategy = strategy.other();
+            passStart = System.nanoTime();
+            result = decode(plain, strategy, timings);
+            selector.record(choice, strategy, result != null, System.nanoTime() - passStart);
+        }
+        return result;
+    }
+
+    private Result decode(LuminanceSource source, BinarizerSelector.Strategy strategy,
+                          FrameTimings timings) {
+        long start = System.nanoTime();
+        Binarizer binarizer = strategy == BinarizerSelector.Strategy.HYBRID
+                ? new ReusableHybridBinarizer(source, buffers.binarizerBuffers())
+                : new GlobalHistogramBinarizer(source);
+        BinaryBitmap bitmap = new BinaryBitmap(binarizer);
+        Result result = null;
+        long binarized;
+        try {
+            bitmap.getBlackMatrix();
+            binarized = System.nanoTime();
+            result = tryHarder ? harderReaders().decode(bitmap) : readers.decode(bitmap);
+        } catch (NotFoundException nfe) {
+            // Too small or too flat to binarize, there is nothing to decode.
+            binarized = System.nanoTime();
+        }
+
+        if (timings != null) {
+            timings.add(0L, binarized - start, System.nanoTime() - binarized,
+                    (long) source.getWidth() * source.getHeight(),
+                    result == null ? null : result.getBarcodeFormat());
+        }
+        return result;
+    }
+
+    private DecodeProfile.Chain harderReaders() {
+        if (harderReaders == null) {
+            Map<DecodeHintType, Object> harderHints =
+                    new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+            harderHints.putAll(hints);
+            harderHints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+            harderReaders = new DecodeProfile(config.getFormats(), true).newChain(harderHints);
+        }
+        return harderReaders;
+    }
+
+    /**
+     * Finds every barcode in the source, with the hybrid binarizer, instead of stopping at the
+     * first one. QR codes are found by zxing's {@link QRCodeMultiReader}, which tells the finder
+     * patterns of several codes apart. Other formats go through a
+     * {@link GenericMultipleBarcodeReader} over the remaining readers of the profile, which looks
+     * for more barcodes around each one it finds.
+     *
+     * @param cache    If not null, the areas of the barcodes it saw recently are masked first, so
+     *                 they are not decoded again, and the barcodes found are offered to it. Every
+     *                 source must then cover the same part of the frames, at the same scale, for
+     *                 the areas to line up.
+     * @param nowNanos The timestamp of the frame, for the cache.
+     * @param timings  If not null, how long each step took is added to it, and what was found is
+     *                 recorded.
+     * @return The barcodes found that the cache had not seen, or all of them without a cache.
+     */
+    public Result[] decodeMultiple(LuminanceSource source, ResultCache cache, long nowNanos,
+                                   FrameTimings timings) {
+        long start = System.nanoTime();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        byte[] matrix = source.getMatrix();
+        if (cache != null) {
+            cache.mask(matrix, width, height, nowNanos);
+        }
+        long cropped = System.nanoTime();
+        BinaryBitmap bitmap = new BinaryBitmap(new ReusableHybridBinarizer(
+                new PlanarYUVLuminanceSource(matrix, width, height, 0, 0, width, height),
+                buffers.binarizerBuffers()));
+        List<Result> results = Collections.emptyList();
+        long binarized;
+        try {
+            bitmap.getBlackMatrix();
+            binarized = System.nanoTime();
+            results = new ArrayList<Result>();
+            DecodeProfile profile = config.getProfile();
+            if (profile.getFamilies().contains(DecodeProfile.Family.QR_CODE)) {
+                if (qrCodeMultiReader == null) {
+                    qrCodeMultiReader = new QRCodeMultiReader();
+                    otherMultiReader = new GenericMultipleBarcodeReader(asReader(
+                            profile.without(DecodeProfile.Family.QR_CODE).newChain(hints)));
+                }
+                addMultiple(results, qrCodeMultiReader, bitmap);
+            } else if (otherMultiReader == null) {
+                otherMultiReader = new GenericMultipleBarcodeReader(asReader(readers));
+            }
+            addMultiple(results, otherMultiReader, bitmap);
+        } catch (NotFoundException nfe) {
+            binarized = System.nanoTime();
+        }
+
+        if (timings != null) {
+            timings.add(cropped - start, binarized - cropped, System.nanoTime() - binarized,
+                    (long) width * height,
+                    results.isEmpty() ? null : results.get(0).getBarcodeFormat());
+        }
+        if (cache != null && !results.isEmpty()) {
+            List<Result> fresh = new ArrayList<Result>(results.size());
+            for (Result result : results) {
+                if (cache.offer(result, nowNanos, matrix, width, height)) {
+                    fresh.add(result);
+                }
+            }
+            results = fresh;
+        }
+        return results.toArray(new Result[results.size()]);
+    }
+
+    private void addMultiple(List<Result> results, MultipleBarcodeReader reader,
+                             BinaryBitmap bitmap) {
+        try {
+            Collections.addAll(results, reader.decodeMultiple(bitmap, hints));
+        } catch (NotFoundException nfe) {
+            // Nothing of these formats.
+        }
+    }
+
+    /**
+     * @return The chain as a zxing reader, for the readers built on top of one.
+     */
+    private static Reader asReader(final DecodeProfile.Chain chain) {
+        return new Reader() {
+            @Override
+            public Result decode(BinaryBitmap image) throws NotFoundException {
+                Result result = chain.decode(image);
+                if (result == null) {
+                    throw NotFoundException.getNotFoundInstance();
+                }
+                return result;
+            }
+
+            @Override
+            public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints)
+                    throws NotFoundException {
+                return decode(image);
+            }
+
+            @Override
+            public void reset() {
+                // The chain resets each reader after every call.
+            }
+        };
+    }
+
+    private void onPossibleResultPoint(ResultPoint point) {
+        pointCount++;
+        if (resultPointCallback == null && pointListener == null) {
+            return;
+        }
+        if (windowLeft != 0 || windowTop != 0 || windowScale != 1) {
+            point = new ResultPoint(point.getX() * windowScale + windowLeft,
+                    point.getY() * windowScale + windowTop);
+        }
+        if (resultPointCallback != null) {
+            resultPointCallback.foundPossibleResultPoint(point);
+        }
+        if (pointListener != null) {
+            pointListener.foundPossibleResultPoint(point);
+        }
+    }
+
+}
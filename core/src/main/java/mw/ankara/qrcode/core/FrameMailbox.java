@@ -0,0 +1,187 @@
+package mw.ankara.qrcode.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A single slot between the camera and the decoders. The camera keeps streaming into it, each new
+ * frame replaces the one still waiting, and a decoder that becomes free always takes the freshest
+ * frame. Posting and taking never block or lock.
+ * <p>
+ * Whenever a frame lands in an empty slot the listener is told once, so a burst of frames does not
+ * flood it. Frames that are replaced, posted while the mailbox is closed, or released by a decoder
+ * go to the recycler.
+ * <p>
+ * The mailbox notes when each frame was posted, and reports how long it waited for a decoder to
+ * the metrics. Its own clock is used rather than the frame's timestamp, which need not be on the
+ * {@link System#nanoTime()} clock.
+ */
+public final class FrameMailbox implements FrameSource {
+
+    public interface Listener {
+        /**
+         * Called on the posting thread when a frame arrives in an empty mailbox.
+         */
+        void onFrameAvailable();
+    }
+
+    public interface Recycler {
+        /**
+         * Called when nobody needs the frame any more, so its buffer can be reused.
+         */
+        void recycle(Frame frame);
+    }
+
+    private final AtomicReference<Posted> slot = new AtomicReference<Posted>();
+    // A holder left over from a frame taken or replaced, so posting does not allocate.
+    private final AtomicReference<Posted> spare = new AtomicReference<Posted>();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong replaced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Recycler recycler;
+
+    private volatile boolean open;
+    private volatile Listener listener;
+    private volatile PipelineMetrics metrics;
+
+    /**
+     * @param recycler Where frames go once nobody needs them, or null if they can be left to the
+     *                 garbage collector.
+     */
+    public FrameMailbox(Recycler recycler) {
+        this.recycler = recycler;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param metrics Where to report replaced frames, and how long frames waited, or null.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts accepting frames.
+     */
+    public void open() {
+        open = true;
+    }
+
+    /**
+     * Stops accepting frames, and recycles the frame still waiting, if any.
+     */
+    public void close() {
+        open = false;
+        Posted posted = slot.getAndSet(null);
+        if (posted != null) {
+            recycle(take(posted));
+        }
+    }
+
+    /**
+     * Offers a new frame, replacing any frame no decoder has taken yet.
+     */
+    public void post(Frame frame) {
+        if (!open) {
+            dropped.incrementAndGet();
+            recycle(frame);
+            return;
+        }
+        Posted posted = spare.getAndSet(null);
+        if (posted == null) {
+            posted = new Posted();
+        }
+        posted.frame = frame;
+        posted.nanos = System.nanoTime();
+        Posted previous = slot.getAndSet(posted);
+        if (previous != null) {
+            replaced.incrementAndGet();
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.recordReplacedFrame();
+            }
+            recycle(take(previous));
+        } else {
+            Listener listener = this.listener;
+            if (listener != null) {
+                listener.onFrameAvailable();
+            }
+        }
+    }
+
+    /**
+     * @return The freshest frame, or null if there is none.
+     */
+    @Override
+    public Frame nextFrame() {
+        Posted posted = slot.getAndSet(null);
+        if (posted == null) {
+            return null;
+        }
+        long waitNanos = System.nanoTime() - posted.nanos;
+        consumed.incrementAndGet();
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordQueueWait(waitNanos);
+        }
+        return take(posted);
+    }
+
+    @Override
+    public void releaseFrame(Frame frame) {
+        recycle(frame);
+    }
+
+    public boolean hasFrame() {
+        return slot.get() != null;
+    }
+
+    /**
+     * @return How many frames decoders have taken.
+     */
+    public long getConsumedCount() {
+        return consumed.get();
+    }
+
+    /**
+     * @return How many frames were replaced by a newer one before any decoder took them.
+     */
+    public long getReplacedCount() {
+        return replaced.get();
+    }
+
+    /**
+     * @return How many frames arrived while the mailbox was closed.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void recycle(Frame frame) {
+        if (frame != null && recycler != null) {
+            recycler.recycle(frame);
+        }
+    }
+
+    /**
+     * @return The frame the holder held, after putting the holder aside for the next post.
+     */
+    private Frame take(Posted posted) {
+        Frame frame = posted.frame;
+        posted.frame = null;
+        spare.set(posted);
+        return frame;
+    }
+
+    /**
+     * A frame in the slot, and when it was posted. Whoever takes it out of the slot owns it.
+     */
+    private static final class Posted {
+        Frame frame;
+        long nanos;
+    }
+
+}
@@ -0,0 +1,211 @@
+package mw.ankara.qrcode.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cheap check that runs before a frame is decoded, and turns away frames that are too blurry or
+ * too flat to hold a readable barcode, such as frames taken while the phone is moving or the lens
+ * is still focusing.
+ * <p>
+ * Only a grid of at most {@link #setSamples(int) samples} by samples pixels inside the crop
+ * rectangle is read, straight from the unrotated Y plane, so a check takes microseconds. At each
+ * of them the gate looks at the pixel and its right and lower neighbours:
+ * <ul>
+ * <li>contrast is the standard deviation of the luminance, in grey levels;</li>
+ * <li>sharpness is the mean squared difference between neighbouring pixels, divided by the
+ * variance. Blurring an edge over n pixels divides it by about n, while a change of lighting
+ * leaves it alone.</li>
+ * </ul>
+ * Thread safe, so several decoders can share one gate and its counts.
+ */
+public final class FrameQualityGate {
+
+    public static final float DEFAULT_MIN_CONTRAST = 8f;
+    public static final float DEFAULT_MIN_SHARPNESS = 0.01f;
+    public static final int DEFAULT_SAMPLES = 64;
+
+    private volatile boolean enabled = true;
+    private volatile float minContrast = DEFAULT_MIN_CONTRAST;
+    private volatile float minSharpness = DEFAULT_MIN_SHARPNESS;
+    private volatile int samples = DEFAULT_SAMPLES;
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param enabled Whether frames are checked at all. A disabled gate lets every frame through.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param contrast Frames with a lower standard deviation of luminance are rejected. 0 turns
+     *                 the contrast check off.
+     */
+    public void setMinContrast(float contrast) {
+        minContrast = contrast;
+    }
+
+    /**
+     * @param sharpness Frames with a lower sharpness are rejected. 0 turns the sharpness check off.
+     *                  Sharp barcodes score 0.05 and more, and barcodes blurred past reading
+     *                  mostly score below the default.
+     */
+    public void setMinSharpness(float sharpness) {
+        minSharpness = sharpness;
+    }
+
+    /**
+     * @param samples How many pixels to look at along each side of the crop rectangle.
+     */
+    public void setSamples(int samples) {
+        if (samples < 2) {
+            throw new IllegalArgumentException("Need at least 2 samples: " + samples);
+        }
+        this.samples = samples;
+    }
+
+    public float getMinContrast() {
+        return minContrast;
+    }
+
+    public float getMinSharpness() {
+        return minSharpness;
+    }
+
+    /**
+     * @return Whether the frame is worth decoding. Allocates nothing.
+     */
+    public boolean accept(Frame frame) {
+        checked.incrementAndGet();
+        long measured = measure(frame, samples);
+        boolean accepted = contrast(measured) >= minContrast
+                && sharpness(measured) >= minSharpness;
+        if (!accepted) {
+            rejected.incrementAndGet();
+        }
+        return accepted;
+    }
+
+    /**
+     * Measures the frame without counting it.
+     */
+    public Quality measure(Frame frame) {
+        long measured = measure(frame, samples);
+        return new Quality(contrast(measured), sharpness(measured));
+    }
+
+    /**
+     * @return How many frames {@link #accept(Frame)} checked.
+     */
+    public long getCheckedCount() {
+        return checked.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The share of checked frames that were rejected.
+     */
+    public double getRejectionRate() {
+        long checked = this.checked.get();
+        return checked == 0 ? 0 : (double) rejected.get() / checked;
+    }
+
+    public void resetCounts() {
+        checked.set(0L);
+        rejected.set(0L);
+    }
+
+    /**
+     * @return The contrast and sharpness, packed as two floats so nothing needs to be allocated.
+     */
+    private static long measure(Frame frame, int samples) {
+        byte[] data = frame.getData();
+        int dataWidth = frame.getWidth();
+        // Which way round the pixels are does not matter for either measure.
+        int x = frame.getDataCropLeft();
+        int y = frame.getDataCropTop();
+        int width = frame.getDataCropWidth();
+        int height = frame.getDataCropHeight();
+
+        long count = 0;
+        long sum = 0;
+        long sumOfSquares = 0;
+        long gradient = 0;
+        // Leave room for the right and lower neighbours of the last sample.
+        int stepX = Math.max(1, (width - 1) / samples);
+        int stepY = Math.max(1, (height - 1) / samples);
+        for (int row = y; row < y + height - 1; row += stepY) {
+            int offset = row * dataWidth;
+            for (int column = x; column < x + width - 1; column += stepX) {
+                int index = offset + column;
+                int value = data[index] & 0xff;
+                int dx = (data[index + 1] & 0xff) - value;
+                int dy = (data[index + dataWidth] & 0xff) - value;
+                count++;
+                sum += value;
+                sumOfSquares += value * value;
+                gradient += dx * dx + dy * dy;
+            }
+        }
+
+        if (count == 0) {
+            return 0L;
+        }
+        double mean = (double) sum / count;
+        double variance = Math.max(0, (double) sumOfSquares / count - mean * mean);
+        float contrast = (float) Math.sqrt(variance);
+        // Two differences per sample.
+        float sharpness = variance == 0 ? 0f : (float) (gradient / (2.0 * count) / variance);
+        return (long) Float.floatToRawIntBits(contrast) << 32
+                | Float.floatToRawIntBits(sharpness) & 0xffffffffL;
+    }
+
+    private static float contrast(long measured) {
+        return Float.intBitsToFloat((int) (measured >>> 32));
+    }
+
+    private static float sharpness(long measured) {
+        return Float.intBitsToFloat((int) measured);
+    }
+
+    /**
+     * What {@link #measure(Frame)} found.
+     */
+    public static final class Quality {
+        private final float contrast;
+        private final float sharpness;
+
+        Quality(float contrast, float sharpness) {
+            this.contrast = contrast;
+            this.sharpness = sharpness;
+        }
+
+        /**
+         * @return The standard deviation of the luminance, in grey levels.
+         */
+        public float getContrast() {
+            return contrast;
+        }
+
+        /**
+         * @return The mean squared difference between neighbouring pixels over the variance.
+         */
+        public float getSharpness() {
+            return sharpness;
+        }
+
+        @Override
+        public String toString() {
+            return "contrast " + contrast + ", sharpness " + sharpness;
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package mw.ankara.qrcode.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends preview frames and what is known about them to a file, so a scan can be replayed offline
+ * with a {@link FrameRecording}. Recording an existing file adds to it, after dropping a last frame
+ * that was cut short.
+ * <p>
+ * Frames are written as they arrive, on the caller's thread. To record from the camera, put a
+ * {@link BackgroundFrameRecorder} in front of it so the camera is never kept waiting on the disk.
+ */
+public final class FrameRecorder {
+
+    static final int MAGIC = 0x41515246; // "AQRF"
+    static final int VERSION = 2;
+    static final int FILE_HEADER_SIZE = 8;
+    // Width, height, format, rotation, the crop rectangle, the timestamp, the number of frames
+    // dropped before it and the data length.
+    static final int FRAME_HEADER_SIZE = 8 * 4 + 8 + 4 + 4;
+
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+    /**
+     * @throws IOException if the file cannot be written, or holds something other than frames.
+     */
+    public FrameRecorder(File file) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        channel = output.getChannel();
+        try {
+            long end = completeLength(output, file);
+            channel.truncate(end);
+            channel.position(end);
+            if (end == 0) {
+                ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                fileHeader.putInt(MAGIC).putInt(VERSION).flip();
+                writeFully(fileHeader);
+            }
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param format The {@code ImageFormat} of the frame data.
+     */
+    public void record(Frame frame, int format) throws IOException {
+        record(frame, format, 0);
+    }
+
+    /**
+     * @param format  The {@code ImageFormat} of the frame data.
+     * @param dropped How many frames were dropped unrecorded since the last one recorded.
+     */
+    public synchronized void record(Frame frame, int format, int dropped) throws IOException {
+        byte[] data = frame.getData();
+        header.clear();
+        header.putInt(frame.getWidth())
+                .putInt(frame.getHeight())
+                .putInt(format)
+                .putInt(frame.getRotation())
+                .putInt(frame.getCropLeft())
+                .putInt(frame.getCropTop())
+                .putInt(frame.getCropWidth())
+                .putInt(frame.getCropHeight())
+                .putLong(frame.getTimestampNanos())
+                .putInt(dropped)
+                .putInt(data.length)
+                .flip();
+        writeFully(header);
+        writeFully(ByteBuffer.wrap(data));
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return The length of the file up to the end of its last complete frame.
+     */
+    private static long completeLength(RandomAccessFile input, File file) throws IOException {
+        long length = input.length();
+        if (length == 0) {
+            return 0;
+        }
+        input.seek(0);
+        if (length < FILE_HEADER_SIZE || input.readInt() != MAGIC) {
+            throw new IOException("Not a frame recording: " + file);
+        }
+        int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version + ": " + file);
+        }
+        long offset = FILE_HEADER_SIZE;
+        while (offset + FRAME_HEADER_SIZE <= length) {
+            input.seek(offset + FRAME_HEADER_SIZE - 4);
+            int dataLength = input.readInt();
+            if (dataLength < 0 || offset + FRAME_HEADER_SIZE + dataLength > length) {
+                break;
+            }
+            offset += FRAME_HEADER_SIZE + dataLength;
+        }
+        return offset;
+    }
+
+}
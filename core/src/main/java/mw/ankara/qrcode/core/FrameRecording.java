@@ -0,0 +1,146 @@
+package mw.ankara.qrcode.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A file written by a {@link FrameRecorder}, memory-mapped so frames are read straight from the
+ * page cache instead of being loaded up front. A frame cut short by the recorder being killed is
+ * ignored.
+ * <p>
+ * Thread safe.
+ */
+public final class FrameRecording {
+
+    private final MappedByteBuffer buffer;
+    // Where the header of each frame starts.
+    private final int[] offsets;
+
+    /**
+     * @throws IOException if the file cannot be read, is not a recording, or is too large to map.
+     */
+    public FrameRecording(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Recording too large to map: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            input.close();
+        }
+
+        if (buffer.limit() < FrameRecorder.FILE_HEADER_SIZE
+                || buffer.getInt(0) != FrameRecorder.MAGIC) {
+            throw new IOException("Not a frame recording: " + file);
+        }
+        int version = buffer.getInt(4);
+        if (version != FrameRecorder.VERSION) {
+            throw new IOException("Unsupported recording version " + version + ": " + file);
+        }
+
+        int[] offsets = new int[16];
+        int count = 0;
+        int offset = FrameRecorder.FILE_HEADER_SIZE;
+        while (offset + FrameRecorder.FRAME_HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(offset + FrameRecorder.FRAME_HEADER_SIZE - 4);
+            long end = (long) offset + FrameRecorder.FRAME_HEADER_SIZE + length;
+            if (length < 0 || end > buffer.limit()) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+            offset = (int) end;
+        }
+        this.offsets = Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * @return The number of frames recorded.
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    public int getWidth(int index) {
+        return buffer.getInt(offsets[index]);
+    }
+
+    public int getHeight(int index) {
+        return buffer.getInt(offsets[index] + 4);
+    }
+
+    /**
+     * @return The {@code ImageFormat} of the frame data.
+     */
+    public int getFormat(int index) {
+        return buffer.getInt(offsets[index] + 8);
+    }
+
+    /**
+     * @return When the frame was captured, on the recording device's {@link System#nanoTime()}
+     * clock.
+     */
+    public long getTimestampNanos(int index) {
+        return buffer.getLong(offsets[index] + 32);
+    }
+
+    /**
+     * @return How many frames the recorder dropped, because it could not write them fast enough,
+     * between the previous frame and this one.
+     */
+    public int getDroppedBefore(int index) {
+        return buffer.getInt(offsets[index] + 40);
+    }
+
+    /**
+     * @return How many frames the recorder dropped in all.
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            dropped += getDroppedBefore(i);
+        }
+        return dropped;
+    }
+
+    /**
+     * @return The length of the frame data.
+     */
+    public int getDataLength(int index) {
+        return buffer.getInt(offsets[index] + 44);
+    }
+
+    /**
+     * Copies a frame out of the recording.
+     *
+     * @param data           Where to copy the frame data, or null or too small to allocate a new
+     *                       array.
+     * @param timestampNanos The timestamp to give the copy, such as the time it is replayed.
+     */
+    public Frame getFrame(int index, byte[] data, long timestampNanos) {
+        int offset = offsets[index];
+        int length = getDataLength(index);
+        if (data == null || data.length < length) {
+            data = new byte[length];
+        }
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(offset + FrameRecorder.FRAME_HEADER_SIZE);
+        frame.get(data, 0, length);
+        return new Frame(data, buffer.getInt(offset), buffer.getInt(offset + 4),
+                buffer.getInt(offset + 12), buffer.getInt(offset + 16),
+                buffer.getInt(offset + 20), buffer.getInt(offset + 24),
+                buffer.getInt(offset + 28), timestampNanos);
+    }
+
+}
@@ -0,0 +1,107 @@
+package mw.ankara.qrcode.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * Feeds the frames of a {@link FrameRecording} to the decoders, in one of two ways:
+ * <ul>
+ * <li>As a {@link FrameSource}, handing out every frame in turn as fast as the decoders take them,
+ * to measure throughput.</li>
+ * <li>With {@link #play(FrameMailbox, float)}, posting frames to a mailbox at the pace they were
+ * recorded, like the camera does, to measure latency and dropped frames.</li>
+ * </ul>
+ * Either way, each frame is copied out of the recording into a buffer of its own and stamped with
+ * the time it was handed out. Released frames hand their buffer to the next frame.
+ */
+public final class FrameReplayer implements FrameSource, FrameMailbox.Recycler {
+
+    private final FrameRecording recording;
+    private final ArrayDeque<byte[]> buffers = new ArrayDeque<byte[]>();
+    private int next;
+    private volatile boolean stopped;
+
+    public FrameReplayer(FrameRecording recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * @return The next recorded frame, or null once all have been replayed.
+     */
+    @Override
+    public Frame nextFrame() {
+        int index;
+        byte[] buffer;
+        synchronized (this) {
+            if (next >= recording.size() || stopped) {
+                return null;
+            }
+            index = next++;
+            buffer = buffers.poll();
+        }
+        return recording.getFrame(index, buffer, System.nanoTime());
+    }
+
+    @Override
+    public synchronized void releaseFrame(Frame frame) {
+        buffers.push(frame.getData());
+    }
+
+    @Override
+    public void recycle(Frame frame) {
+        releaseFrame(frame);
+    }
+
+    /**
+     * Posts the remaining frames to a mailbox, spaced as they were recorded, and returns once the
+     * last one is posted or {@link #stop()} is called. The mailbox must recycle frames to this
+     * replayer.
+     *
+     * @param speed How much faster than recorded to replay, such as 1 for the original cadence.
+     * @throws InterruptedException if the thread is interrupted while waiting for the next frame.
+     */
+    public void play(FrameMailbox mailbox, float speed) throws InterruptedException {
+        long start = System.nanoTime();
+        long firstTimestamp = 0;
+        boolean first = true;
+        while (!stopped) {
+            int index;
+            synchronized (this) {
+                if (next >= recording.size()) {
+                    return;
+                }
+                index = next;
+            }
+            long recorded = recording.getTimestampNanos(index);
+            if (first) {
+                firstTimestamp = recorded;
+                first = false;
+            }
+            long due = start + (long) ((recorded - firstTimestamp) / speed);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+            }
+            Frame frame = nextFrame();
+            if (frame == null) {
+                return;
+            }
+            mailbox.post(frame);
+        }
+    }
+
+    /**
+     * Stops handing out frames, from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Starts again from the first frame.
+     */
+    public synchronized void rewind() {
+        next = 0;
+        stopped = false;
+    }
+
+}
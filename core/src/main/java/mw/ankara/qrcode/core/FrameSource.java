@@ -0,0 +1,21 @@
+package mw.ankara.qrcode.core;
+
+/**
+ * Where a {@link DecodeLoop} gets its frames from: a live camera, a recording, or a generator.
+ * Implementations must allow {@link #nextFrame()} and {@link #releaseFrame(Frame)} to be called
+ * from any decode thread.
+ */
+public interface FrameSource {
+
+    /**
+     * @return The next frame to decode, or null if there is none right now. The caller owns the
+     * frame until it passes it to {@link #releaseFrame(Frame)}.
+     */
+    Frame nextFrame();
+
+    /**
+     * Gives a frame back once it has been decoded, so its buffer can be reused.
+     */
+    void releaseFrame(Frame frame);
+
+}
@@ -0,0 +1,78 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+
+/**
+ * Where the time went while one frame was decoded, in nanoseconds.
+ * <p>
+ * Instances are reused from one frame to the next, so they are only valid until the call they are
+ * passed to returns.
+ */
+public final class FrameTimings {
+
+    long rotateCropNanos;
+    long binarizeNanos;
+    long decodeNanos;
+    long pixels;
+    BarcodeFormat format;
+
+    /**
+     * @return Copying the crop rectangle out of the frame, rotated.
+     */
+    public long getRotateCropNanos() {
+        return rotateCropNanos;
+    }
+
+    /**
+     * @return Turning the cropped luminance into black and white.
+     */
+    public long getBinarizeNanos() {
+        return binarizeNanos;
+    }
+
+    /**
+     * @return Running the readers.
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * @return How many pixels the readers went over, counting each pass once. A frame decoded in a
+     * tracked window, or scaled down, covers fewer than its crop rectangle, and one the binarizers
+     * or inverted readers took another pass at covers more.
+     */
+    public long getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return The format of the barcode found, or null if there was none.
+     */
+    public BarcodeFormat getFormat() {
+        return format;
+    }
+
+    void clear() {
+        rotateCropNanos = 0L;
+        binarizeNanos = 0L;
+        decodeNanos = 0L;
+        pixels = 0L;
+        format = null;
+    }
+
+    /**
+     * Adds one decoding pass. A frame may take several, such as a coarse one and a full one.
+     */
+    void add(long rotateCropNanos, long binarizeNanos, long decodeNanos, long pixels,
+             BarcodeFormat format) {
+        this.rotateCropNanos += rotateCropNanos;
+        this.binarizeNanos += binarizeNanos;
+        this.decodeNanos += decodeNanos;
+        this.pixels += pixels;
+        if (format != null) {
+            this.format = format;
+        }
+    }
+
+}
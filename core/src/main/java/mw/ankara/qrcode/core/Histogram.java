@@ -0,0 +1,169 @@
+package mw.ankara.qrcode.core;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values into fixed buckets. Recording never locks or allocates, so it can be called for
+ * every frame from any thread.
+ */
+public final class Histogram {
+
+    /**
+     * Bucket bounds for durations in nanoseconds, from 10 microseconds to 10 seconds.
+     */
+    public static final long[] LATENCY_BOUNDS_NANOS = {
+            10000L, 20000L, 50000L, 100000L, 200000L, 500000L,
+            1000000L, 2000000L, 5000000L, 10000000L, 20000000L, 50000000L,
+            100000000L, 200000000L, 500000000L,
+            1000000000L, 2000000000L, 5000000000L, 10000000000L
+    };
+
+    private final long[] bounds;
+    // One bucket per bound, plus one for values above the last bound.
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param bounds The inclusive upper bound of each bucket, in increasing order.
+     */
+    public Histogram(long[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException(
+                        "Bounds must increase: " + Arrays.toString(bounds));
+            }
+        }
+        this.bounds = bounds.clone();
+        counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * @return A histogram for durations in nanoseconds.
+     */
+    public static Histogram forLatency() {
+        return new Histogram(LATENCY_BOUNDS_NANOS);
+    }
+
+    public void record(long value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        counts.incrementAndGet(bucket);
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return The values recorded so far. Values recorded while the snapshot is taken may be
+     * partly included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[this.counts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.counts.get(i);
+        }
+        return new Snapshot(bounds, counts, sum.get(), max.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+        sum.set(0L);
+        max.set(Long.MIN_VALUE);
+    }
+
+    public static final class Snapshot {
+        private final long[] bounds;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] bounds, long[] counts, long sum, long max) {
+            this.bounds = bounds;
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return The largest value recorded, or 0 if there is none.
+         */
+        public long getMax() {
+            return count == 0 ? 0 : max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return The inclusive upper bound of each bucket. The last bucket, for values above the
+         * last bound, has none.
+         */
+        public long[] getBounds() {
+            return bounds.clone();
+        }
+
+        /**
+         * @return The number of values in each bucket, one more than there are bounds.
+         */
+        public long[] getCounts() {
+            return counts.clone();
+        }
+
+        /**
+         * @param quantile Between 0 and 1, such as 0.9 for the 90th percentile.
+         * @return The upper bound of the bucket the quantile falls in, or the largest value if it
+         * is above the last bound, or 0 if nothing was recorded.
+         */
+        public long getPercentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(bounds[i], max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return Count, mean, median, 90th and 99th percentile and maximum, in milliseconds if
+         * the values are durations in nanoseconds.
+         */
+        public String toMillisString() {
+            return String.format(Locale.US,
+                    "n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f", count, getMean() / 1e6,
+                    getPercentile(0.5) / 1e6, getPercentile(0.9) / 1e6,
+                    getPercentile(0.99) / 1e6, getMax() / 1e6);
+        }
+    }
+
+}
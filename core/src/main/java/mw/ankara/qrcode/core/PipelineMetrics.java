@@ -0,0 +1,315 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what happens to frames on their way through the pipeline, and how long each step takes.
+ * Decoders report every frame, and how many their {@link SceneChangeDetector} and
+ * {@link FrameQualityGate} turned away, the {@link FrameMailbox} reports frames replaced by a
+ * newer one and how long the others waited for a decoder, and the scanner reports when a session
+ * starts and delivers its result.
+ * <p>
+ * Recording never locks or allocates. Listeners are called on the thread that recorded, so they
+ * must be quick; {@link #snapshot()} is the cheaper way to look at the numbers now and then.
+ */
+public final class PipelineMetrics {
+
+    public interface Listener {
+        /**
+         * Called on the decoding thread after each frame.
+         */
+        void onFrameDecoded(FrameTimings timings);
+
+        /**
+         * Called when a frame in the {@link FrameMailbox} was replaced by a newer one before any
+         * decoder took it.
+         */
+        void onFrameReplaced();
+
+        /**
+         * Called when a session delivered its first result.
+         *
+         * @param nanos The time since the session started.
+         */
+        void onFirstResult(long nanos);
+    }
+
+    private static final BarcodeFormat[] FORMATS = BarcodeFormat.values();
+
+    private final Histogram queueWait = Histogram.forLatency();
+    private final Histogram qualityCheck = Histogram.forLatency();
+    private final Histogram rotateCrop = Histogram.forLatency();
+    private final Histogram binarize = Histogram.forLatency();
+    private final Histogram decode = Histogram.forLatency();
+    private final Histogram timeToFirstResult = Histogram.forLatency();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong pixels = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLongArray hits = new AtomicLongArray(FORMATS.length);
+    private final AtomicLong replaced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong sessionStart = new AtomicLong();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    void recordFrame(FrameTimings timings) {
+        frames.incrementAndGet();
+        pixels.addAndGet(timings.pixels);
+        rotateCrop.record(timings.rotateCropNanos);
+        binarize.record(timings.binarizeNanos);
+        decode.record(timings.decodeNanos);
+        if (timings.format != null) {
+            hits.incrementAndGet(timings.format.ordinal());
+        } else {
+            misses.incrementAndGet();
+        }
+        for (Listener listener : listeners) {
+            listener.onFrameDecoded(timings);
+        }
+    }
+
+    void recordQualityCheck(long nanos, boolean accepted) {
+        qualityCheck.record(nanos);
+        if (!accepted) {
+            rejected.incrementAndGet();
+        }
+    }
+
+    void recordUnchangedFrame() {
+        unchanged.incrementAndGet();
+    }
+
+    void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    void recordReplacedFrame() {
+        replaced.incrementAndGet();
+        for (Listener listener : listeners) {
+            listener.onFrameReplaced();
+        }
+    }
+
+    /**
+     * Starts timing a scan, from the moment frames are first decoded.
+     */
+    public void startSession() {
+        sessionStart.set(System.nanoTime());
+    }
+
+    /**
+     * Records the time to the first result of the current session, and ends it. Does nothing if
+     * no session is running.
+     */
+    public void resultDelivered() {
+        long start = sessionStart.getAndSet(0L);
+        if (start == 0L) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        timeToFirstResult.record(nanos);
+        for (Listener listener : listeners) {
+            listener.onFirstResult(nanos);
+        }
+    }
+
+    public Snapshot snapshot() {
+        Map<BarcodeFormat, Long> hits = new EnumMap<BarcodeFormat, Long>(BarcodeFormat.class);
+        for (BarcodeFormat format : FORMATS) {
+            long count = this.hits.get(format.ordinal());
+            if (count > 0) {
+                hits.put(format, count);
+            }
+        }
+        return new Snapshot(frames.get(), pixels.get(), misses.get(), hits, replaced.get(),
+                rejected.get(), unchanged.get(), queueWait.snapshot(), qualityCheck.snapshot(),
+                rotateCrop.snapshot(), binarize.snapshot(), decode.snapshot(),
+                timeToFirstResult.snapshot());
+    }
+
+    /**
+     * Clears every counter and histogram. Values recorded at the same time may survive.
+     */
+    public void reset() {
+        queueWait.reset();
+        qualityCheck.reset();
+        rotateCrop.reset();
+        binarize.reset();
+        decode.reset();
+        timeToFirstResult.reset();
+        frames.set(0L);
+        pixels.set(0L);
+        misses.set(0L);
+        for (int i = 0; i < hits.length(); i++) {
+            hits.set(i, 0L);
+        }
+        replaced.set(0L);
+        rejected.set(0L);
+        unchanged.set(0L);
+    }
+
+    public static final class Snapshot {
+        private final long frames;
+        private final long pixels;
+        private final long misses;
+        private final Map<BarcodeFormat, Long> hits;
+        private final long replaced;
+        private final long rejected;
+        private final long unchanged;
+        private final Histogram.Snapshot queueWait;
+        private final Histogram.Snapshot qualityCheck;
+        private final Histogram.Snapshot rotateCrop;
+        private final Histogram.Snapshot binarize;
+        private final Histogram.Snapshot decode;
+        private final Histogram.Snapshot timeToFirstResult;
+
+        Snapshot(long frames, long pixels, long misses, Map<BarcodeFormat, Long> hits,
+                 long replaced, long rejected, long unchanged, Histogram.Snapshot queueWait,
+                 Histogram.Snapshot qualityCheck, Histogram.Snapshot rotateCrop,
+                 Histogram.Snapshot binarize, Histogram.Snapshot decode,
+                 Histogram.Snapshot timeToFirstResult) {
+            this.frames = frames;
+            this.pixels = pixels;
+            this.misses = misses;
+            this.hits = hits;
+            this.replaced = replaced;
+            this.rejected = rejected;
+            this.unchanged = unchanged;
+            this.queueWait = queueWait;
+            this.qualityCheck = qualityCheck;
+            this.rotateCrop = rotateCrop;
+            this.binarize = binarize;
+            this.decode = decode;
+            this.timeToFirstResult = timeToFirstResult;
+        }
+
+        /**
+         * @return The number of frames decoded, with or without a result.
+         */
+        public long getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return How many pixels the readers went over in the frames decoded.
+         * @see FrameTimings#getPixels()
+         */
+        public long getPixels() {
+            return pixels;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getHits(BarcodeFormat format) {
+            Long count = hits.get(format);
+            return count == null ? 0L : count;
+        }
+
+        /**
+         * @return The share of decoded frames that held a barcode of the given format.
+         */
+        public double getHitRate(BarcodeFormat format) {
+            return frames == 0 ? 0 : (double) getHits(format) / frames;
+        }
+
+        /**
+         * @return The number of frames replaced in the {@link FrameMailbox} by a newer one before
+         * any decoder took them, as {@link FrameMailbox#getReplacedCount()} counts them.
+         */
+        public long getReplaced() {
+            return replaced;
+        }
+
+        /**
+         * @return The number of frames the quality gate turned away. They are not counted as
+         * decoded.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return The share of frames that reached the quality gate and were turned away.
+         */
+        public double getRejectionRate() {
+            long checked = qualityCheck.getCount();
+            return checked == 0 ? 0 : (double) rejected / checked;
+        }
+
+        /**
+         * @return The number of frames skipped because they showed a scene that already held
+         * nothing. They are not counted as decoded.
+         */
+        public long getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * @return From a frame being posted to a {@link FrameMailbox} to a decoder taking it.
+         * Frames from other sources are taken as soon as they are made, so do not count.
+         */
+        public Histogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        public Histogram.Snapshot getQualityCheck() {
+            return qualityCheck;
+        }
+
+        public Histogram.Snapshot getRotateCrop() {
+            return rotateCrop;
+        }
+
+        public Histogram.Snapshot getBinarize() {
+            return binarize;
+        }
+
+        public Histogram.Snapshot getDecode() {
+            return decode;
+        }
+
+        public Histogram.Snapshot getTimeToFirstResult() {
+            return timeToFirstResult;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append("frames=").append(frames)
+                    .append(" misses=").append(misses)
+                    .append(" replaced=").append(replaced)
+                    .append(" rejected=").append(rejected)
+                    .append(" unchanged=").append(unchanged);
+            for (Map.Entry<BarcodeFormat, Long> entry : hits.entrySet()) {
+                result.append(String.format(Locale.US, " %s=%d (%.1f%%)", entry.getKey(),
+                        entry.getValue(), 100 * getHitRate(entry.getKey())));
+            }
+            result.append("\nqueue wait (ms): ").append(queueWait.toMillisString())
+                    .append("\nquality check (ms): ").append(qualityCheck.toMillisString())
+                    .append("\nrotate/crop (ms): ").append(rotateCrop.toMillisString())
+                    .append("\nbinarize (ms): ").append(binarize.toMillisString())
+                    .append("\ndecode (ms): ").append(decode.toMillisString())
+                    .append("\nfirst result (ms): ").append(timeToFirstResult.toMillisString());
+            return result.toString();
+        }
+    }
+
+}
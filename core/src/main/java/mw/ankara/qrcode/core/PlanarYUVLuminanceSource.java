@@ -14,9 +14,7 @@
  * limitations under the License.
  */
 
-package mw.ankara.qrcode.camera;
-
-import android.graphics.Bitmap;
+package mw.ankara.qrcode.core;
 
 import com.google.zxing.LuminanceSource;
 
@@ -36,9 +34,19 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     private final int dataHeight;
     private final int left;
     private final int top;
+    private final byte[] matrixBuffer;
 
     public PlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int left, int top,
                                     int width, int height) {
+        this(yuvData, dataWidth, dataHeight, left, top, width, height, null);
+    }
+
+    /**
+     * @param matrixBuffer If not null and at least width * height bytes long, {@link #getMatrix()}
+     *                     copies the cropped luminance into it instead of allocating a new array.
+     */
+    public PlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int left, int top,
+                                    int width, int height, byte[] matrixBuffer) {
         super(width, height);
 
         if (left + width > dataWidth || top + height > dataHeight) {
@@ -50,6 +58,7 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
         this.dataHeight = dataHeight;
         this.left = left;
         this.top = top;
+        this.matrixBuffer = matrixBuffer;
     }
 
     @Override
@@ -78,7 +87,8 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
         }
 
         int area = width * height;
-        byte[] matrix = new byte[area];
+        byte[] matrix = matrixBuffer != null && matrixBuffer.length >= area ?
+                matrixBuffer : new byte[area];
         int inputOffset = top * dataWidth + left;
 
         // If the width matches the full width of the underlying data, perform a single copy.
@@ -102,6 +112,37 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
         return true;
     }
 
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new PlanarYUVLuminanceSource(yuvData, dataWidth, dataHeight, this.left + left,
+                this.top + top, width, height);
+    }
+
+    @Override
+    public boolean isRotateSupported() {
+        return true;
+    }
+
+    /**
+     * Readers trying harder turn the image to look for 1D barcodes standing on end. The cropped
+     * luminance is copied out turned, into a new array, since this only happens on frames that
+     * already missed.
+     */
+    @Override
+    public LuminanceSource rotateCounterClockwise() {
+        int width = getWidth();
+        int height = getHeight();
+        byte[] matrix = getMatrix();
+        byte[] rotated = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            int inputOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                rotated[(width - 1 - x) * height + y] = matrix[inputOffset + x];
+            }
+        }
+        return new PlanarYUVLuminanceSource(rotated, height, width, 0, 0, height, width);
+    }
+
     public int getDataWidth() {
         return dataWidth;
     }
@@ -110,7 +151,11 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
         return dataHeight;
     }
 
-    public Bitmap renderCroppedGreyscaleBitmap() {
+    /**
+     * @return The cropped luminance as opaque ARGB pixels, one row after the other, ready to be
+     * turned into a bitmap.
+     */
+    public int[] renderCroppedGreyscale() {
         int width = getWidth();
         int height = getHeight();
         int[] pixels = new int[width * height];
@@ -125,9 +170,6 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
             }
             inputOffset += dataWidth;
         }
-
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return bitmap;
+        return pixels;
     }
 }
@@ -0,0 +1,35 @@
+package mw.ankara.qrcode.core;
+
+import java.util.List;
+
+/**
+ * Picks the size of the preview frames among those the camera supports, and how fast they come.
+ * Larger frames put more pixels on a barcode in the framing rect, but cost more to decode.
+ * Implementations must be thread safe, as the camera is set up on a thread of its own.
+ */
+public interface PreviewSizeStrategy {
+
+    /**
+     * @param sizes        The preview sizes the camera supports, each {width, height}, in the
+     *                     camera's orientation.
+     * @param screenWidth  The width of the screen the preview fills, in pixels, either way round.
+     * @param screenHeight The height of the screen.
+     * @param framingSize  The side of the square framing rect on the screen, in pixels.
+     * @return The index of the size to use, or -1 to pick the one closest to the screen.
+     */
+    int selectPreviewSize(List<int[]> sizes, int screenWidth, int screenHeight, int framingSize);
+
+    /**
+     * @param fpsRanges     The preview frame rate ranges the camera supports, each {min, max}, in
+     *                      frames per 1000 seconds.
+     * @param previewWidth  The width of the preview size picked.
+     * @param previewHeight The height of the preview size picked.
+     * @param screenWidth   The width of the screen the preview fills.
+     * @param screenHeight  The height of the screen.
+     * @param framingSize   The side of the square framing rect on the screen.
+     * @return The index of the range to use, or -1 to leave the camera's own.
+     */
+    int selectFpsRange(List<int[]> fpsRanges, int previewWidth, int previewHeight,
+                       int screenWidth, int screenHeight, int framingSize);
+
+}
@@ -0,0 +1,43 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Renders a message as a black on white QR code, as ARGB pixels ready for a bitmap.
+ */
+public final class QRCodeEncoder {
+
+    private static final int BLACK = 0xff000000;
+    private static final int WHITE = 0xffffffff;
+
+    private QRCodeEncoder() {
+    }
+
+    /**
+     * @return width * height ARGB pixels, row by row.
+     * @throws WriterException if the message does not fit in a QR code.
+     */
+    public static int[] encode(String message, int width, int height) throws WriterException {
+        Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+        hints.put(EncodeHintType.CHARACTER_SET, "utf-8");
+        BitMatrix matrix = new QRCodeWriter().encode(
+                message, BarcodeFormat.QR_CODE, width, height, hints);
+
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[offset + x] = matrix.get(x, y) ? BLACK : WHITE;
+            }
+        }
+        return pixels;
+    }
+
+}
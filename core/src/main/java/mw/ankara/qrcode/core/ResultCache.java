@@ -0,0 +1,295 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The barcodes already found while reading several per frame, keyed by format and text, so each
+ * one is reported once. A barcode counts as new again once it has not been seen for
+ * {@link #setTtl(long) a while}, and the ones seen least recently are forgotten first when there
+ * are more than {@link #setCapacity(int) a few hundred}. By default, barcodes are remembered for
+ * the whole session.
+ * <p>
+ * The cache also remembers where each barcode was last found, and what that area looked like, so
+ * later frames can be decoded incrementally: for {@link #setMaskDuration(long) a short while}
+ * after a barcode was found, its area, with a margin, is
+ * {@link #mask(byte[], int, int, long) painted white} before the frame is binarized, so the
+ * readers only spend time on the rest. An area is only masked while it still looks the same, from
+ * the mean luminance of {@value #SIGNATURE_GRID} by {@value #SIGNATURE_GRID} cells, so a barcode
+ * swapped for another, or moved away, is decoded at once. Once the time is up, the barcode is
+ * decoded again anyway, which confirms it and updates where it is. Times come from the frame
+ * timestamps.
+ * <p>
+ * Thread safe, so several decoders can share one cache.
+ */
+public final class ResultCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_TTL_NANOS = Long.MAX_VALUE;
+    public static final long DEFAULT_MASK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    public static final int SIGNATURE_GRID = 8;
+
+    // How far the masked area reaches past the points of a barcode, as a share of its longer
+    // side. 1D barcodes only have points along the row they were read on.
+    private static final float MASK_MARGIN = 0.25f;
+    // The mean absolute difference per signature cell, in grey levels, from which an area no
+    // longer shows the same barcode. Two different codes of the same size differ by several times
+    // as much.
+    private static final float SIGNATURE_THRESHOLD = 12f;
+    private static final int SAMPLES_PER_CELL = 4;
+
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile long ttlNanos = DEFAULT_TTL_NANOS;
+    private volatile long maskNanos = DEFAULT_MASK_NANOS;
+    private final AtomicLong newResults = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong masked = new AtomicLong();
+
+    // Guarded by this, as are the entries, least recently seen first.
+    private final int[] signature = new int[SIGNATURE_GRID * SIGNATURE_GRID];
+    private final LinkedHashMap<String, Sighting> entries =
+            new LinkedHashMap<String, Sighting>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Sighting> eldest) {
+                    return size() > capacity;
+                }
+            };
+
+    /**
+     * @param capacity How many barcodes to remember at most.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Need room for at least one barcode: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param nanos How long a barcode must go unseen before it is reported again.
+     */
+    public void setTtl(long nanos) {
+        ttlNanos = nanos;
+    }
+
+    /**
+     * @param nanos How long the area of a barcode is masked after it was found, or 0 to decode
+     *              every frame whole.
+     */
+    public void setMaskDuration(long nanos) {
+        maskNanos = nanos;
+    }
+
+    /**
+     * Records a barcode found in a frame, without masking its area in later frames.
+     *
+     * @param nowNanos The timestamp of the frame.
+     * @return true if the barcode is new, or has not been seen for longer than the time to live,
+     * and should be reported.
+     */
+    public boolean offer(Result result, long nowNanos) {
+        return offer(result, nowNanos, null, 0, 0);
+    }
+
+    /**
+     * Like {@link #offer(Result, long)}, but also takes down what the barcode's area looks like,
+     * so it can be masked in later frames.
+     *
+     * @param matrix The luminance the barcode was found in, as its points were reported for it.
+     */
+    public boolean offer(Result result, long nowNanos, byte[] matrix, int width, int height) {
+        String key = result.getBarcodeFormat() + ":" + result.getText();
+        boolean fresh;
+        synchronized (this) {
+            Sighting sighting = entries.get(key);
+            fresh = sighting == null || nowNanos - sighting.lastSeenNanos > ttlNanos;
+            if (sighting == null) {
+                sighting = new Sighting();
+                entries.put(key, sighting);
+            }
+            sighting.lastSeenNanos = nowNanos;
+            sighting.setRegion(result.getResultPoints(), width, height);
+            sighting.hasSignature = matrix != null && sighting.hasRegion;
+            if (sighting.hasSignature) {
+                sighting.takeSignature(matrix, width, sighting.signature);
+            }
+        }
+        if (fresh) {
+            newResults.incrementAndGet();
+        } else {
+            duplicates.incrementAndGet();
+        }
+        return fresh;
+    }
+
+    /**
+     * Paints the areas of the barcodes found within the mask duration white, as long as they still
+     * look the same.
+     *
+     * @param matrix   The luminance of the frame, the same size as the ones the barcodes were
+     *                 offered with.
+     * @param nowNanos The timestamp of the frame.
+     * @return How many areas were masked.
+     */
+    public int mask(byte[] matrix, int width, int height, long nowNanos) {
+        long maskNanos = this.maskNanos;
+        if (maskNanos <= 0L) {
+            return 0;
+        }
+        int count = 0;
+        synchronized (this) {
+            for (Sighting sighting : entries.values()) {
+                if (!sighting.hasSignature || nowNanos - sighting.lastSeenNanos >= maskNanos
+                        || sighting.right > width || sighting.bottom > height) {
+                    continue;
+                }
+                sighting.takeSignature(matrix, width, signature);
+                if (difference(signature, sighting.signature) >= SIGNATURE_THRESHOLD) {
+                    continue;
+                }
+                for (int y = sighting.top; y < sighting.bottom; y++) {
+                    int offset = y * width;
+                    for (int x = sighting.left; x < sighting.right; x++) {
+                        matrix[offset + x] = (byte) 0xff;
+                    }
+                }
+                count++;
+            }
+        }
+        masked.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Forgets every barcode, for a new session.
+     */
+    public synchronized void reset() {
+        entries.clear();
+    }
+
+    /**
+     * @return How many barcodes are remembered.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return How many barcodes were reported as new.
+     */
+    public long getNewCount() {
+        return newResults.get();
+    }
+
+    /**
+     * @return How many times a barcode was found again and not reported.
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * @return How many barcode areas were masked, over all frames.
+     */
+    public long getMaskedCount() {
+        return masked.get();
+    }
+
+    public void resetCounts() {
+        newResults.set(0L);
+        duplicates.set(0L);
+        masked.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return "barcodes=" + size() + " new=" + getNewCount() + " duplicates="
+                + getDuplicateCount() + " masked=" + getMaskedCount();
+    }
+
+    private static float difference(int[] a, int[] b) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return (float) sum / a.length;
+    }
+
+    private static final class Sighting {
+        final int[] signature = new int[SIGNATURE_GRID * SIGNATURE_GRID];
+        long lastSeenNanos;
+        boolean hasRegion;
+        boolean hasSignature;
+        int left;
+        int top;
+        int right;
+        int bottom;
+
+        /**
+         * Sets the area to the bounding box of the points, with a margin, within the matrix.
+         */
+        void setRegion(ResultPoint[] points, int width, int height) {
+            hasRegion = points != null && points.length > 0;
+            if (!hasRegion) {
+                return;
+            }
+            float minX = Float.MAX_VALUE;
+            float minY = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE;
+            float maxY = -Float.MAX_VALUE;
+            for (ResultPoint point : points) {
+                if (point == null) {
+                    continue;
+                }
+                minX = Math.min(minX, point.getX());
+                minY = Math.min(minY, point.getY());
+                maxX = Math.max(maxX, point.getX());
+                maxY = Math.max(maxY, point.getY());
+            }
+            if (minX > maxX) {
+                hasRegion = false;
+                return;
+            }
+            float margin = MASK_MARGIN * Math.max(maxX - minX, maxY - minY);
+            left = Math.max(0, (int) (minX - margin));
+            top = Math.max(0, (int) (minY - margin));
+            right = Math.min(width, (int) Math.ceil(maxX + margin));
+            bottom = Math.min(height, (int) Math.ceil(maxY + margin));
+            hasRegion = right - left >= SIGNATURE_GRID && bottom - top >= SIGNATURE_GRID;
+        }
+
+        /**
+         * Fills in the mean luminance of each cell of the area, from a few samples along each side.
+         */
+        void takeSignature(byte[] matrix, int width, int[] signature) {
+            int areaWidth = right - left;
+            int areaHeight = bottom - top;
+            for (int cellY = 0; cellY < SIGNATURE_GRID; cellY++) {
+                int cellTop = top + cellY * areaHeight / SIGNATURE_GRID;
+                int cellBottom = top + (cellY + 1) * areaHeight / SIGNATURE_GRID;
+                int stepY = Math.max(1, (cellBottom - cellTop) / SAMPLES_PER_CELL);
+                for (int cellX = 0; cellX < SIGNATURE_GRID; cellX++) {
+                    int cellLeft = left + cellX * areaWidth / SIGNATURE_GRID;
+                    int cellRight = left + (cellX + 1) * areaWidth / SIGNATURE_GRID;
+                    int stepX = Math.max(1, (cellRight - cellLeft) / SAMPLES_PER_CELL);
+                    int sum = 0;
+                    int count = 0;
+                    for (int y = cellTop; y < cellBottom; y += stepY) {
+                        int offset = y * width;
+                        for (int x = cellLeft; x < cellRight; x += stepX) {
+                            sum += matrix[offset + x] & 0xff;
+                            count++;
+                        }
+                    }
+                    signature[cellY * SIGNATURE_GRID + cellX] = sum / count;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * Produces exactly the same black matrix as zxing's {@link HybridBinarizer}, but keeps the block
+ * statistics, the thresholds and the matrix itself in {@link Buffers} that are reused from one
+ * frame to the next, so binarizing a frame of the same size as the last one allocates nothing.
+ * <p>
+ * The work is also laid out as plain scans over arrays, which the JIT can vectorize: the
+ * statistics of a row of blocks are gathered column by column over its eight image rows, and each
+ * image row is compared against a row of thresholds and packed into words without branching.
+ * <p>
+ * The matrix is only valid until the buffers binarize another frame. Rows, which the 1D readers
+ * use, come from {@link GlobalHistogramBinarizer}, as they do for HybridBinarizer.
+ */
+public final class ReusableHybridBinarizer extends GlobalHistogramBinarizer {
+
+    // The same constants as HybridBinarizer, which keeps its own private.
+    private static final int BLOCK_SIZE_POWER = 3;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SIZE_POWER;
+    private static final int MINIMUM_DIMENSION = BLOCK_SIZE * 5;
+    private static final int MIN_DYNAMIC_RANGE = 24;
+
+    private final Buffers buffers;
+    private BitMatrix matrix;
+
+    public ReusableHybridBinarizer(LuminanceSource source, Buffers buffers) {
+        super(source);
+        this.buffers = buffers;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        if (matrix != null) {
+            return matrix;
+        }
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width < MINIMUM_DIMENSION || height < MINIMUM_DIMENSION) {
+            // Too small for blocks, HybridBinarizer falls back on the global histogram as well.
+            matrix = super.getBlackMatrix();
+            return matrix;
+        }
+        byte[] luminances = source.getMatrix();
+        buffers.prepare(width, height);
+        buffers.calculateBlackPoints(luminances);
+        buffers.calculateThresholds();
+        buffers.threshold(luminances);
+        matrix = buffers.matrix;
+        return matrix;
+    }
+
+    /**
+     * @return A plain {@link HybridBinarizer}, since this matrix may still be needed while a
+     * rotated copy of the source is decoded.
+     */
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new HybridBinarizer(source);
+    }
+
+    /**
+     * Everything a {@link ReusableHybridBinarizer} computes. Arrays only grow, and the matrix is
+     * only replaced when the size of the source changes.
+     * <p>
+     * Not thread safe: each decoder owns exactly one instance.
+     */
+    public static final class Buffers {
+        private int width;
+        private int height;
+        private int subWidth;
+        private int subHeight;
+
+        // Per column of the image, for the row of blocks being measured.
+        private int[] columnSums;
+        private int[] columnMins;
+        private int[] columnMaxs;
+        // Per block, row by row.
+        private int[] blackPoints;
+        private int[] thresholds;
+        // Per column of the image, for the image row being thresholded.
+        private int[] rowThresholds;
+        private BitArray row;
+        private BitMatrix matrix;
+
+        public Buffers() {
+        }
+
+        void prepare(int width, int height) {
+            this.width = width;
+            this.height = height;
+            subWidth = (width + BLOCK_SIZE - 1) >> BLOCK_SIZE_POWER;
+            subHeight = (height + BLOCK_SIZE - 1) >> BLOCK_SIZE_POWER;
+            if (columnSums == null || columnSums.length < width) {
+                columnSums = new int[width];
+                columnMins = new int[width];
+                columnMaxs = new int[width];
+                rowThresholds = new int[width];
+            }
+            int blocks = subWidth * subHeight;
+            if (blackPoints == null || blackPoints.length < blocks) {
+                blackPoints = new int[blocks];
+                thresholds = new int[blocks];
+            }
+            if (row == null || row.getSize() != width) {
+                row = new BitArray(width);
+            }
+            if (matrix == null || matrix.getWidth() != width || matrix.getHeight() != height) {
+                matrix = new BitMatrix(width, height);
+            }
+        }
+
+        /**
+         * The black point of each block: its mean, or for blocks with too little contrast, a guess
+         * taken from the blocks above and to the left.
+         */
+        void calculateBlackPoints(byte[] luminances) {
+            for (int y = 0; y < subHeight; y++) {
+                int offset = blockOffset(y, height) * width;
+                for (int x = 0; x < width; x++) {
+                    int pixel = luminances[offset + x] & 0xff;
+                    columnSums[x] = pixel;
+                    columnMins[x] = pixel;
+                    columnMaxs[x] = pixel;
+                }
+                for (int i = 1; i < BLOCK_SIZE; i++) {
+                    offset += width;
+                    for (int x = 0; x < width; x++) {
+                        int pixel = luminances[offset + x] & 0xff;
+                        columnSums[x] += pixel;
+                        columnMins[x] = Math.min(columnMins[x], pixel);
+                        columnMaxs[x] = Math.max(columnMaxs[x], pixel);
+                    }
+                }
+
+                for (int x = 0; x < subWidth; x++) {
+                    int left = blockOffset(x, width);
+                    int sum = 0;
+                    int min = 0xff;
+                    int max = 0;
+                    for (int i = left; i < left + BLOCK_SIZE; i++) {
+                        sum += columnSums[i];
+                        min = Math.min(min, columnMins[i]);
+                        max = Math.max(max, columnMaxs[i]);
+                    }
+
+                    int average = sum >> (BLOCK_SIZE_POWER * 2);
+                    if (max - min <= MIN_DYNAMIC_RANGE) {
+                        // A flat block is taken to be background, half as dark as its darkest
+                        // pixel, unless its neighbours suggest a lower black point.
+                        average = min >> 1;
+                        if (y > 0 && x > 0) {
+                            int i = y * subWidth + x;
+                            int neighbours = (blackPoints[i - subWidth]
+                                    + 2 * blackPoints[i - 1]
+                                    + blackPoints[i - subWidth - 1]) >> 2;
+                            if (min < neighbours) {
+                                average = neighbours;
+                            }
+                        }
+                    }
+                    blackPoints[y * subWidth + x] = average;
+                }
+            }
+        }
+
+        /**
+         * The threshold of each block: the mean black point of the five by five blocks around it,
+         * moved inwards at the edges.
+         */
+        void calculateThresholds() {
+            for (int y = 0; y < subHeight; y++) {
+                int top = Math.min(Math.max(y, 2), subHeight - 3);
+                for (int x = 0; x < subWidth; x++) {
+                    int left = Math.min(Math.max(x, 2), subWidth - 3);
+                    int sum = 0;
+                    for (int i = (top - 2) * subWidth + left; i <= (top + 2) * subWidth + left;
+                         i += subWidth) {
+                        sum += blackPoints[i - 2] + blackPoints[i - 1] + blackPoints[i]
+                                + blackPoints[i + 1] + blackPoints[i + 2];
+                    }
+                    thresholds[y * subWidth + x] = sum / 25;
+                }
+            }
+        }
+
+        /**
+         * Sets every pixel that is no brighter than the threshold of its block. The last row and
+         * column of blocks are moved back to fit in the image, so they overlap the ones before
+         * them, but both are averaged around the same block, so their thresholds are the same
+         * and the overlap needs no special care.
+         */
+        void threshold(byte[] luminances) {
+            int[] words = row.getBitArray();
+            for (int y = 0; y < height; y++) {
+                if ((y & (BLOCK_SIZE - 1)) == 0) {
+                    int offset = (y >> BLOCK_SIZE_POWER) * subWidth;
+                    for (int x = 0; x < width; x++) {
+                        rowThresholds[x] = thresholds[offset + (x >> BLOCK_SIZE_POWER)];
+                    }
+                }
+
+                int offset = y * width;
+                for (int word = 0, x = 0; x < width; word++) {
+                    int end = Math.min(x + 32, width);
+                    int bits = 0;
+                    for (int bit = 0; x < end; x++, bit++) {
+                        // The sign bit is clear when the pixel is at or below the threshold.
+                        int below = ~(rowThresholds[x] - (luminances[offset + x] & 0xff)) >>> 31;
+                        bits |= below << bit;
+                    }
+                    words[word] = bits;
+                }
+                matrix.setRow(y, row);
+            }
+        }
+
+        /**
+         * @return Where the given block starts, pulled back so it fits within the size.
+         */
+        private static int blockOffset(int block, int size) {
+            return Math.min(block << BLOCK_SIZE_POWER, size - BLOCK_SIZE);
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+/**
+ * Narrows decoding to the part of the crop rectangle where a barcode was last half found. When the
+ * readers report candidate points, such as QR finder patterns, without decoding anything, the
+ * following frames only decode a padded window around those points, which follows the points as
+ * they move. Once {@link #setMaxMisses(int) a few} frames in a row were decoded through the window
+ * without a result, decoding falls back to the whole crop rectangle.
+ * <p>
+ * Thread safe, so several decoders can share one tracker. Each one needs its own
+ * {@link Observation}.
+ */
+public final class RoiTracker {
+
+    public static final int DEFAULT_MAX_MISSES = 5;
+    public static final float DEFAULT_PADDING = 0.5f;
+    public static final float DEFAULT_MIN_SIZE = 0.3f;
+
+    // A single point says too little about where the barcode is.
+    private static final int MIN_POINTS = 2;
+
+    private volatile boolean enabled = true;
+    private volatile int maxMisses = DEFAULT_MAX_MISSES;
+    private volatile float padding = DEFAULT_PADDING;
+    private volatile float minSize = DEFAULT_MIN_SIZE;
+    private long narrowed;
+    private long fallbacks;
+
+    // The window to decode next, relative to a crop rectangle of the given size, guarded by this.
+    private boolean tracking;
+    private int cropWidth;
+    private int cropHeight;
+    private int left;
+    private int top;
+    private int width;
+    private int height;
+    private int misses;
+
+    /**
+     * @param enabled Whether to narrow decoding at all. A disabled tracker always decodes the whole
+     *                crop rectangle.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            reset();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param misses How many frames in a row may be decoded through the window without a result
+     *               before the whole crop rectangle is decoded again.
+     */
+    public void setMaxMisses(int misses) {
+        maxMisses = misses;
+    }
+
+    /**
+     * @param padding How far to extend the window beyond the points on each side, as a share of
+     *                the distance between the points furthest apart.
+     */
+    public void setPadding(float padding) {
+        this.padding = padding;
+    }
+
+    /**
+     * @param size The smallest window, as a share of the width and height of the crop rectangle.
+     */
+    public void setMinSize(float size) {
+        minSize = size;
+    }
+
+    /**
+     * @return An observation for one decoder to pass to {@link #start(Frame, Observation)}.
+     */
+    public Observation newObservation() {
+        return new Observation();
+    }
+
+    /**
+     * Picks the window of the frame to decode.
+     *
+     * @param observation Filled in with the window, and collects the points found in it. Pass it
+     *                    to {@link FrameDecoder#setPointListener} so it sees them.
+     * @return Whether the window is smaller than the crop rectangle.
+     */
+    public synchronized boolean start(Frame frame, Observation observation) {
+        int cropWidth = frame.getCropWidth();
+        int cropHeight = frame.getCropHeight();
+        observation.clear();
+        if (tracking && (cropWidth != this.cropWidth || cropHeight != this.cropHeight)) {
+            // The crop rectangle changed, so the window no longer means anything.
+            tracking = false;
+        }
+        if (!tracking) {
+            observation.setWindow(0, 0, cropWidth, cropHeight);
+            return false;
+        }
+        observation.setWindow(left, top, width, height);
+        narrowed++;
+        return true;
+    }
+
+    /**
+     * Moves the window to the points found in a frame, and counts a miss if the frame was decoded
+     * through the window without a result.
+     *
+     * @param found Whether a barcode was decoded. Add its points to the observation first.
+     */
+    public synchronized void finish(Frame frame, Observation observation, boolean found) {
+        if (!enabled) {
+            return;
+        }
+        if (found) {
+            misses = 0;
+        } else if (tracking && ++misses >= maxMisses) {
+            tracking = false;
+            misses = 0;
+            fallbacks++;
+            return;
+        }
+        if (observation.count < MIN_POINTS) {
+            return;
+        }
+
+        cropWidth = frame.getCropWidth();
+        cropHeight = frame.getCropHeight();
+        float spread = Math.max(observation.maxX - observation.minX,
+                observation.maxY - observation.minY);
+        float pad = spread * padding;
+        float halfWidth = Math.max((observation.maxX - observation.minX) / 2 + pad,
+                cropWidth * minSize / 2);
+        float halfHeight = Math.max((observation.maxY - observation.minY) / 2 + pad,
+                cropHeight * minSize / 2);
+        float centerX = (observation.minX + observation.maxX) / 2;
+        float centerY = (observation.minY + observation.maxY) / 2;
+        left = clamp(Math.round(centerX - halfWidth), cropWidth);
+        top = clamp(Math.round(centerY - halfHeight), cropHeight);
+        width = clamp(Math.round(centerX + halfWidth), cropWidth) - left;
+        height = clamp(Math.round(centerY + halfHeight), cropHeight) - top;
+        boolean wasTracking = tracking;
+        tracking = width > 0 && height > 0 && (width < cropWidth || height < cropHeight);
+        if (!wasTracking) {
+            misses = 0;
+        }
+    }
+
+    /**
+     * Goes back to decoding the whole crop rectangle.
+     */
+    public synchronized void reset() {
+        tracking = false;
+        misses = 0;
+    }
+
+    public synchronized boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * @return How many frames were decoded through a narrowed window.
+     */
+    public synchronized long getNarrowedCount() {
+        return narrowed;
+    }
+
+    /**
+     * @return How many times the window was given up after too many misses.
+     */
+    public synchronized long getFallbackCount() {
+        return fallbacks;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    /**
+     * The window one decoder is working on, and the bounds of the points found in it, relative to
+     * the crop rectangle. Reused from one frame to the next.
+     */
+    public static final class Observation implements ResultPointCallback {
+        private int left;
+        private int top;
+        private int width;
+        private int height;
+        private int count;
+        private float minX;
+        private float minY;
+        private float maxX;
+        private float maxY;
+
+        Observation() {
+        }
+
+        public int getLeft() {
+            return left;
+        }
+
+        public int getTop() {
+            return top;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @param point A candidate point, relative to the crop rectangle.
+         */
+        @Override
+        public void foundPossibleResultPoint(ResultPoint point) {
+            add(point.getX(), point.getY());
+        }
+
+        /**
+         * @param points The points of a decoded barcode, relative to the window.
+         * @param scale  How far the window was scaled down when the barcode was decoded.
+         */
+        public void addResultPoints(ResultPoint[] points, int scale) {
+            if (points == null) {
+                return;
+            }
+            for (ResultPoint point : points) {
+                if (point != null) {
+                    add(point.getX() * scale + left, point.getY() * scale + top);
+                }
+            }
+        }
+
+        void setWindow(int left, int top, int width, int height) {
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+        }
+
+        void clear() {
+            count = 0;
+            minX = Float.MAX_VALUE;
+            minY = Float.MAX_VALUE;
+            maxX = -Float.MAX_VALUE;
+            maxY = -Float.MAX_VALUE;
+        }
+
+        private void add(float x, float y) {
+            count++;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+    }
+
+}
@@ -0,0 +1,248 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Like {@link PlanarYUVLuminanceSource}, but the YUV data is kept exactly as the camera driver
+ * delivered it and the rotation is applied lazily. The crop rectangle is given in rotated
+ * coordinates, and every pixel read is mapped back onto the unrotated Y plane, so only the pixels
+ * inside the crop are ever touched.
+ * <p>
+ * Rotations are clockwise and must be one of 0, 90, 180 or 270 degrees, matching the values
+ * Android passes to {@code Camera.setDisplayOrientation()}.
+ * <p>
+ * The source can also be scaled down by a whole factor, each pixel being the mean of a square of
+ * pixels of the crop. The averaging happens in the same pass as the rotation, so a coarse source
+ * costs no more to read than a full one.
+ */
+public final class RotatedPlanarYUVLuminanceSource extends LuminanceSource {
+    private final byte[] yuvData;
+    private final int dataWidth;
+    private final int dataHeight;
+    private final int rotation;
+    private final int left;
+    private final int top;
+    private final int scale;
+    private final byte[] matrixBuffer;
+
+    // Offset of the top-left cropped pixel in yuvData, and the distance in yuvData between two
+    // horizontally or vertically neighbouring pixels of the rotated image.
+    private final int origin;
+    private final int columnStep;
+    private final int rowStep;
+
+    /**
+     * @param yuvData      The unrotated preview frame.
+     * @param dataWidth    The width of the unrotated preview frame.
+     * @param dataHeight   The height of the unrotated preview frame.
+     * @param rotation     Clockwise rotation to apply, in degrees.
+     * @param left         Left of the crop rectangle, in rotated coordinates.
+     * @param top          Top of the crop rectangle, in rotated coordinates.
+     * @param width        Width of the crop rectangle.
+     * @param height       Height of the crop rectangle.
+     * @param matrixBuffer If not null and at least width * height bytes long, {@link #getMatrix()}
+     *                     copies the cropped luminance into it instead of allocating a new array.
+     */
+    public RotatedPlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight,
+                                           int rotation, int left, int top, int width, int height,
+                                           byte[] matrixBuffer) {
+        this(yuvData, dataWidth, dataHeight, rotation, left, top, width, height, 1, matrixBuffer);
+    }
+
+    /**
+     * Like the other constructor, but scaled down. The source is width / scale by
+     * height / scale pixels, rounded down, and the crop rectangle is still given in pixels of the
+     * rotated frame.
+     *
+     * @param scale How many pixels of the crop, along each side, make one pixel of the source.
+     */
+    public RotatedPlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight,
+                                           int rotation, int left, int top, int width, int height,
+                                           int scale, byte[] matrixBuffer) {
+        super(width / checkScale(scale), height / scale);
+
+        boolean swapped = rotation == 90 || rotation == 270;
+        int rotatedWidth = swapped ? dataHeight : dataWidth;
+        int rotatedHeight = swapped ? dataWidth : dataHeight;
+        if (left < 0 || top < 0 || left + width > rotatedWidth || top + height > rotatedHeight) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+
+        int base;
+        switch (rotation) {
+            case 0:
+                base = 0;
+                columnStep = 1;
+                rowStep = dataWidth;
+                break;
+            case 90:
+                base = (dataHeight - 1) * dataWidth;
+                columnStep = -dataWidth;
+                rowStep = 1;
+                break;
+            case 180:
+                base = dataHeight * dataWidth - 1;
+                columnStep = -1;
+                rowStep = -dataWidth;
+                break;
+            case 270:
+                base = dataWidth - 1;
+                columnStep = dataWidth;
+                rowStep = -1;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+        }
+
+        this.yuvData = yuvData;
+        this.dataWidth = dataWidth;
+        this.dataHeight = dataHeight;
+        this.rotation = rotation;
+        this.left = left;
+        this.top = top;
+        this.scale = scale;
+        this.matrixBuffer = matrixBuffer;
+        origin = base + left * columnStep + top * rowStep;
+    }
+
+    private static int checkScale(int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Unsupported scale: " + scale);
+        }
+        return scale;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        copyRow(origin + y * scale * rowStep, row, 0, width);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        int area = width * height;
+        byte[] matrix = matrixBuffer != null && matrixBuffer.length >= area ?
+                matrixBuffer : new byte[area];
+
+        int inputOffset = origin;
+        int step = scale * rowStep;
+        for (int y = 0; y < height; y++) {
+            copyRow(inputOffset, matrix, y * width, width);
+            inputOffset += step;
+        }
+        return matrix;
+    }
+
+    private void copyRow(int inputOffset, byte[] output, int outputOffset, int width) {
+        if (scale > 1) {
+            averageRow(inputOffset, output, outputOffset, width);
+            return;
+        }
+        if (columnStep == 1) {
+            System.arraycopy(yuvData, inputOffset, output, outputOffset, width);
+            return;
+        }
+        byte[] yuv = yuvData;
+        int step = columnStep;
+        for (int x = 0; x < width; x++) {
+            output[outputOffset + x] = yuv[inputOffset];
+            inputOffset += step;
+        }
+    }
+
+    private void averageRow(int inputOffset, byte[] output, int outputOffset, int width) {
+        byte[] yuv = yuvData;
+        int scale = this.scale;
+        int columnStep = this.columnStep;
+        int rowStep = this.rowStep;
+        int area = scale * scale;
+        for (int x = 0; x < width; x++) {
+            int sum = 0;
+            int rowOffset = inputOffset;
+            for (int dy = 0; dy < scale; dy++) {
+                int offset = rowOffset;
+                for (int dx = 0; dx < scale; dx++) {
+                    sum += yuv[offset] & 0xff;
+                    offset += columnStep;
+                }
+                rowOffset += rowStep;
+            }
+            output[outputOffset + x] = (byte) (sum / area);
+            inputOffset += scale * columnStep;
+        }
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new RotatedPlanarYUVLuminanceSource(yuvData, dataWidth, dataHeight, rotation,
+                this.left + left * scale, this.top + top * scale, width * scale, height * scale,
+                scale, null);
+    }
+
+    public int getDataWidth() {
+        return dataWidth;
+    }
+
+    public int getDataHeight() {
+        return dataHeight;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return How many pixels of the crop, along each side, make one pixel of this source.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * @return The cropped, rotated luminance as opaque ARGB pixels, one row after the other, ready
+     * to be turned into a bitmap.
+     */
+    public int[] renderCroppedGreyscale() {
+        int width = getWidth();
+        int height = getHeight();
+        int[] pixels = new int[width * height];
+        byte[] yuv = yuvData;
+        int inputOffset = origin;
+        byte[] row = scale > 1 ? new byte[width] : null;
+
+        for (int y = 0; y < height; y++) {
+            int outputOffset = y * width;
+            if (row != null) {
+                averageRow(inputOffset, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    int grey = row[x] & 0xff;
+                    pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+                }
+                inputOffset += scale * rowStep;
+                continue;
+            }
+            int offset = inputOffset;
+            for (int x = 0; x < width; x++) {
+                int grey = yuv[offset] & 0xff;
+                pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+                offset += columnStep;
+            }
+            inputOffset += rowStep;
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,277 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the barcodes found while scanning continuously, to any number of subscribers, instead
+ * of ending the scan with the first one.
+ * <p>
+ * Each subscription has its own demand: it only gets as many results as it
+ * {@link Subscription#request(long) asked for}. Results published while a subscription has no
+ * demand, or is {@link Subscription#pause() paused}, are dropped for it rather than queued, since a
+ * scan that waited is stale, and do not count as sightings. While no subscription has demand,
+ * {@link #hasDemand()} is false and the scanner stops decoding, so the camera stays warm without
+ * spending any time on the frames, and the {@link #setListener(Listener) listener} is told as soon
+ * as there is demand again.
+ * <p>
+ * Each subscription also remembers the barcodes it got, so a barcode held in view is delivered
+ * once, and again only after it has been out of view for the subscription's
+ * {@link Subscription#setCooldown(long) cooldown}.
+ * <p>
+ * Thread safe. Subscribers are called on the thread that publishes, one result at a time.
+ */
+public final class ScanStream {
+
+    public static final long DEFAULT_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public interface Subscriber {
+        /**
+         * Called for each barcode delivered to the subscription, while it has demand.
+         *
+         * @param timestampNanos When the barcode was published.
+         */
+        void onScan(Result result, long timestampNanos);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the thread that requested or resumed when a stream without demand gets some.
+         */
+        void onDemandAvailable();
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a subscriber, without any demand yet.
+     *
+     * @return The subscription, to request results, pause or cancel it with.
+     */
+    public Subscription subscribe(Subscriber subscriber) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("No subscriber");
+        }
+        Subscription subscription = new Subscription(this, subscriber);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * @return Whether any subscription is waiting for a result, so there is a point in decoding.
+     */
+    public boolean hasDemand() {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.hasDemand()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delivers a barcode to every subscription that wants it.
+     *
+     * @param nowNanos When the barcode was found, on the clock the cooldowns are measured with.
+     * @return How many subscribers got it.
+     */
+    public int publish(Result result, long nowNanos) {
+        published.incrementAndGet();
+        List<Subscription> ready = new ArrayList<Subscription>(subscriptions.size());
+        for (Subscription subscription : subscriptions) {
+            if (subscription.take(result, nowNanos)) {
+                ready.add(subscription);
+            }
+        }
+        // Outside of the subscriptions' locks, so subscribers can request more from the callback.
+        for (Subscription subscription : ready) {
+            subscription.subscriber.onScan(result, nowNanos);
+        }
+        if (ready.isEmpty()) {
+            dropped.incrementAndGet();
+        } else {
+            delivered.incrementAndGet();
+        }
+        return ready.size();
+    }
+
+    /**
+     * @return How many barcodes were published.
+     */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * @return How many of them went to at least one subscriber.
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return How many of them nobody wanted, for lack of demand or because they were still
+     * cooling down.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public void resetCounts() {
+        published.set(0L);
+        delivered.set(0L);
+        dropped.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return "subscribers=" + subscriptions.size() + " published=" + getPublishedCount()
+                + " delivered=" + getDeliveredCount() + " dropped=" + getDroppedCount();
+    }
+
+    private void demandAvailable() {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onDemandAvailable();
+        }
+    }
+
+    public static final class Subscription {
+        private final ScanStream stream;
+        private final Subscriber subscriber;
+        private final ResultCache seen = new ResultCache();
+
+        // Guarded by this.
+        private long demand;
+        private boolean paused;
+        private boolean cancelled;
+
+        private Subscription(ScanStream stream, Subscriber subscriber) {
+            this.stream = stream;
+            this.subscriber = subscriber;
+            seen.setTtl(DEFAULT_COOLDOWN_NANOS);
+            seen.setMaskDuration(0L);
+        }
+
+        /**
+         * Asks for more results. The demand adds up, up to {@link Long#MAX_VALUE}, which is as
+         * good as unbounded.
+         *
+         * @param n How many more results to deliver.
+         */
+        public void request(long n) {
+            if (n < 1) {
+                throw new IllegalArgumentException("Need to request at least one result: " + n);
+            }
+            boolean wasIdle;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                wasIdle = demand == 0L || paused;
+                demand = demand > Long.MAX_VALUE - n ? Long.MAX_VALUE : demand + n;
+                if (paused) {
+                    return;
+                }
+            }
+            if (wasIdle) {
+                stream.demandAvailable();
+            }
+        }
+
+        /**
+         * @param nanos How long a barcode must be out of view before it is delivered again, or
+         *              {@link Long#MAX_VALUE} to deliver each barcode once. 0 delivers every frame
+         *              the barcode is found in.
+         */
+        public void setCooldown(long nanos) {
+            if (nanos < 0L) {
+                throw new IllegalArgumentException("Negative cooldown: " + nanos);
+            }
+            seen.setTtl(nanos);
+        }
+
+        /**
+         * Stops delivering results, keeping the demand and the barcodes seen so far for
+         * {@link #resume()}.
+         */
+        public synchronized void pause() {
+            paused = true;
+        }
+
+        public void resume() {
+            boolean hadDemand;
+            synchronized (this) {
+                if (!paused || cancelled) {
+                    return;
+                }
+                paused = false;
+                hadDemand = demand > 0L;
+            }
+            if (hadDemand) {
+                stream.demandAvailable();
+            }
+        }
+
+        public synchronized boolean isPaused() {
+            return paused;
+        }
+
+        /**
+         * Stops delivering results for good, and leaves the stream.
+         */
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                demand = 0L;
+            }
+            stream.subscriptions.remove(this);
+        }
+
+        /**
+         * @return How many more results the subscription asked for.
+         */
+        public synchronized long getDemand() {
+            return demand;
+        }
+
+        /**
+         * Forgets the barcodes delivered so far, so the ones still in view are delivered again.
+         */
+        public void clearSeen() {
+            seen.reset();
+        }
+
+        synchronized boolean hasDemand() {
+            return demand > 0L && !paused && !cancelled;
+        }
+
+        /**
+         * @return Whether the barcode should be delivered, in which case one result of demand has
+         * been used up.
+         */
+        synchronized boolean take(Result result, long nowNanos) {
+            if (!hasDemand() || !seen.offer(result, nowNanos)) {
+                return false;
+            }
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+            return true;
+        }
+    }
+
+}
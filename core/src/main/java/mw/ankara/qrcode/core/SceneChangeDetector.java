@@ -0,0 +1,209 @@
+package mw.ankara.qrcode.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Skips frames that show the same scene as a frame that was already decoded without a result, so
+ * a scanner pointed at nothing does not decode the same picture over and over.
+ * <p>
+ * Each frame is reduced to a {@link Fingerprint}: the mean luminance of each cell of a
+ * {@value #GRID} by {@value #GRID} grid over the crop rectangle, from about four samples along
+ * each side of a cell. Two fingerprints differ when the mean absolute difference of their cells
+ * reaches the {@link #setThreshold(float) threshold}.
+ * <p>
+ * When no frame has differed from the one before it for {@link #setIdleAfter(long) a while}, the
+ * detector goes idle. Changed scenes are then decoded at most once per
+ * {@link #setIdleInterval(long) interval}, so slow drifts in lighting cost little, until a frame
+ * differs from the one before it again. Times come from the frame timestamps.
+ * <p>
+ * Thread safe, so several decoders can share one detector. Each one needs its own fingerprint.
+ */
+public final class SceneChangeDetector {
+
+    public static final int GRID = 16;
+    public static final float DEFAULT_THRESHOLD = 3f;
+    public static final long DEFAULT_IDLE_AFTER_NANOS = TimeUnit.SECONDS.toNanos(2);
+    public static final long DEFAULT_IDLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private static final int SAMPLES_PER_CELL = 4;
+    private static final int CELLS = GRID * GRID;
+
+    private volatile boolean enabled = true;
+    private volatile float threshold = DEFAULT_THRESHOLD;
+    private volatile long idleAfterNanos = DEFAULT_IDLE_AFTER_NANOS;
+    private volatile long idleIntervalNanos = DEFAULT_IDLE_INTERVAL_NANOS;
+    private final AtomicLong skipped = new AtomicLong();
+
+    // The last frame seen and the last scene that held nothing, guarded by this.
+    private final int[] previous = new int[CELLS];
+    private final int[] failed = new int[CELLS];
+    private boolean hasPrevious;
+    private boolean hasFailed;
+    private long lastMotionNanos;
+    private long lastIdleDecodeNanos;
+    private boolean idle;
+
+    /**
+     * @param enabled Whether frames are compared at all. A disabled detector lets every frame
+     *                through.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param threshold The mean absolute difference per cell, in grey levels, from which two
+     *                  frames count as different. Sensor noise averages out well below the
+     *                  default.
+     */
+    public void setThreshold(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param nanos How long the scene must stay still before the detector goes idle.
+     */
+    public void setIdleAfter(long nanos) {
+        idleAfterNanos = nanos;
+    }
+
+    /**
+     * @param nanos The least time between two decodes while idle.
+     */
+    public void setIdleInterval(long nanos) {
+        idleIntervalNanos = nanos;
+    }
+
+    /**
+     * @return A fingerprint for one decoder to pass to {@link #shouldDecode(Frame, Fingerprint)}.
+     */
+    public Fingerprint newFingerprint() {
+        return new Fingerprint();
+    }
+
+    /**
+     * Takes the fingerprint of a frame and decides whether it is worth decoding.
+     *
+     * @param fingerprint Filled in with the frame's fingerprint, to pass on to
+     *                    {@link #decodeFailed(Fingerprint)}.
+     * @return false if the frame shows a scene that already held nothing, or if the detector is
+     * idle and decoded recently.
+     */
+    public boolean shouldDecode(Frame frame, Fingerprint fingerprint) {
+        fingerprint.take(frame);
+        long now = frame.getTimestampNanos();
+        float threshold = this.threshold;
+        boolean decode;
+        synchronized (this) {
+            boolean moved = !hasPrevious || difference(fingerprint.cells, previous) >= threshold;
+            System.arraycopy(fingerprint.cells, 0, previous, 0, CELLS);
+            if (!hasPrevious || moved) {
+                lastMotionNanos = now;
+                idle = false;
+            } else if (!idle && now - lastMotionNanos >= idleAfterNanos) {
+                idle = true;
+                lastIdleDecodeNanos = now;
+            }
+            hasPrevious = true;
+
+            decode = !hasFailed || difference(fingerprint.cells, failed) >= threshold;
+            if (decode && idle) {
+                decode = now - lastIdleDecodeNanos >= idleIntervalNanos;
+                if (decode) {
+                    lastIdleDecodeNanos = now;
+                }
+            }
+        }
+        if (!decode) {
+            skipped.incrementAndGet();
+        }
+        return decode;
+    }
+
+    /**
+     * Remembers the scene of a frame that held nothing, so frames showing it again are skipped.
+     */
+    public synchronized void decodeFailed(Fingerprint fingerprint) {
+        System.arraycopy(fingerprint.cells, 0, failed, 0, CELLS);
+        hasFailed = true;
+    }
+
+    /**
+     * Forgets every scene seen so far and leaves idle mode.
+     */
+    public synchronized void reset() {
+        hasPrevious = false;
+        hasFailed = false;
+        idle = false;
+    }
+
+    public synchronized boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * @return How many frames {@link #shouldDecode(Frame, Fingerprint)} turned away.
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    public void resetCounts() {
+        skipped.set(0L);
+    }
+
+    static float difference(int[] a, int[] b) {
+        int sum = 0;
+        for (int i = 0; i < CELLS; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return (float) sum / CELLS;
+    }
+
+    /**
+     * The mean luminance of each cell of a frame. Reused from one frame to the next.
+     */
+    public static final class Fingerprint {
+        final int[] cells = new int[CELLS];
+
+        Fingerprint() {
+        }
+
+        void take(Frame frame) {
+            byte[] data = frame.getData();
+            int dataWidth = frame.getWidth();
+            int left = frame.getDataCropLeft();
+            int top = frame.getDataCropTop();
+            int width = frame.getDataCropWidth();
+            int height = frame.getDataCropHeight();
+            // The cells are laid out on the unrotated data, which is fine as long as every frame
+            // compared has the same rotation.
+            for (int cellY = 0; cellY < GRID; cellY++) {
+                int cellTop = top + cellY * height / GRID;
+                int cellHeight = top + (cellY + 1) * height / GRID - cellTop;
+                int stepY = Math.max(1, cellHeight / SAMPLES_PER_CELL);
+                for (int cellX = 0; cellX < GRID; cellX++) {
+                    int cellLeft = left + cellX * width / GRID;
+                    int cellWidth = left + (cellX + 1) * width / GRID - cellLeft;
+                    int stepX = Math.max(1, cellWidth / SAMPLES_PER_CELL);
+                    int sum = 0;
+                    int count = 0;
+                    for (int y = cellTop; y < cellTop + cellHeight; y += stepY) {
+                        int offset = y * dataWidth;
+                        for (int x = cellLeft; x < cellLeft + cellWidth; x += stepX) {
+                            sum += data[offset + x] & 0xff;
+                            count++;
+                        }
+                    }
+                    cells[cellY * GRID + cellX] = count == 0 ? 0 : sum / count;
+                }
+            }
+        }
+    }
+
+}
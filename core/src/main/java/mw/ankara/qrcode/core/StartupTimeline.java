@@ -0,0 +1,148 @@
+package mw.ankara.qrcode.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where the time goes while a scanner starts: the steps that run, on whichever thread, from
+ * {@link #start()} to the first frame, as spans with a start and an end, and the milestones in
+ * between as marks. Steps that run side by side overlap on the timeline, so the longest chain of
+ * them is what the startup waits for.
+ * <p>
+ * Thread safe. Times are read from {@link System#nanoTime()}.
+ */
+public final class StartupTimeline {
+
+    // Guarded by this.
+    private final List<Span> spans = new ArrayList<Span>();
+    private long startNanos = System.nanoTime();
+
+    /**
+     * Forgets the steps so far and starts timing again, from now.
+     */
+    public synchronized void start() {
+        spans.clear();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts timing a step on the calling thread.
+     *
+     * @return The span to {@link Span#end() end} when the step is done.
+     */
+    public Span begin(String name) {
+        Span span = new Span(name, Thread.currentThread().getName(), System.nanoTime());
+        synchronized (this) {
+            spans.add(span);
+        }
+        return span;
+    }
+
+    /**
+     * Records a milestone, as a span that ends where it starts.
+     */
+    public void mark(String name) {
+        Span span = begin(name);
+        span.endNanos = span.startNanos;
+    }
+
+    /**
+     * Records a milestone unless it was already reached since the timeline started.
+     *
+     * @return Whether the milestone was recorded.
+     */
+    public synchronized boolean markOnce(String name) {
+        if (find(name) != null) {
+            return false;
+        }
+        mark(name);
+        return true;
+    }
+
+    /**
+     * @return How long after the start the step or milestone began, in nanoseconds, or -1 if it
+     * was not recorded.
+     */
+    public synchronized long getOffsetNanos(String name) {
+        Span span = find(name);
+        return span == null ? -1L : span.startNanos - startNanos;
+    }
+
+    /**
+     * @return How long the step took, in nanoseconds, or -1 if it was not recorded or is still
+     * running.
+     */
+    public synchronized long getDurationNanos(String name) {
+        Span span = find(name);
+        return span == null || span.endNanos == 0L ? -1L : span.endNanos - span.startNanos;
+    }
+
+    /**
+     * @return Every step and milestone, one per line, in the order they began, with their start
+     * and duration in milliseconds and the thread they ran on.
+     */
+    @Override
+    public synchronized String toString() {
+        List<Span> sorted = new ArrayList<Span>(spans);
+        Collections.sort(sorted, new Comparator<Span>() {
+            @Override
+            public int compare(Span a, Span b) {
+                return a.startNanos < b.startNanos ? -1 : a.startNanos == b.startNanos ? 0 : 1;
+            }
+        });
+        StringBuilder result = new StringBuilder("startup (ms):");
+        for (Span span : sorted) {
+            result.append(String.format(Locale.US, "\n%8.1f ", millis(span.startNanos
+                    - startNanos)));
+            if (span.endNanos == 0L) {
+                result.append("+      ...");
+            } else if (span.endNanos > span.startNanos) {
+                result.append(String.format(Locale.US, "+%9.1f",
+                        millis(span.endNanos - span.startNanos)));
+            } else {
+                result.append("          ");
+            }
+            result.append("  ").append(span.name).append(" [").append(span.thread).append(']');
+        }
+        return result.toString();
+    }
+
+    private Span find(String name) {
+        for (Span span : spans) {
+            if (span.name.equals(name)) {
+                return span;
+            }
+        }
+        return null;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    public static final class Span {
+        private final String name;
+        private final String thread;
+        private final long startNanos;
+        private volatile long endNanos;
+
+        private Span(String name, String thread, long startNanos) {
+            this.name = name;
+            this.thread = thread;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Ends the step. Only the first call counts.
+         */
+        public void end() {
+            if (endNanos == 0L) {
+                endNanos = Math.max(System.nanoTime(), startNanos);
+            }
+        }
+    }
+
+}
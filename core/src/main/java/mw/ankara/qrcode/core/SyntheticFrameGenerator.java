@@ -0,0 +1,558 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.PerspectiveTransform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Renders barcodes into NV21 preview frames, for driving the decoders without a camera. Each frame
+ * holds one random barcode, or none, scaled, rotated and skewed, then blurred, washed out and
+ * noisy, each by a random amount up to a configurable limit.
+ * <p>
+ * Frames are numbered, and everything about a frame is derived from the seed and its number alone,
+ * so a corpus is reproduced exactly from its seed and any frame of it can be rendered on its own.
+ * {@link #sample(long)} only rolls the dice and is cheap; the pixels are only produced by
+ * {@link #render(Sample, byte[])}, so a long run never holds more than the frames in flight.
+ * <p>
+ * Even undistorted, a few percent of the QR codes this version of zxing writes do not read back, so
+ * accuracy runs should be compared with a run over clean frames of the same seed.
+ * <p>
+ * Configure the generator before rendering; once configured, it can be shared between threads.
+ */
+public final class SyntheticFrameGenerator {
+
+    /**
+     * The spacing of the timestamps of consecutive frames, as from a camera running at 30 fps.
+     */
+    public static final long FRAME_INTERVAL_NANOS = 1000000000L / 30;
+
+    private static final List<BarcodeFormat> SUPPORTED_FORMATS = Arrays.asList(
+            BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128, BarcodeFormat.CODE_39,
+            BarcodeFormat.EAN_13, BarcodeFormat.EAN_8, BarcodeFormat.UPC_A, BarcodeFormat.ITF);
+    private static final String ALPHANUMERIC =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final String CODE_39_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final int[] ITF_LENGTHS = {6, 8, 10, 12, 14};
+    // 1D barcodes are drawn this many times wider than tall.
+    private static final float ONE_D_ASPECT = 2.5f;
+    private static final int NOISE_TABLE_SIZE = 1024;
+
+    private final int width;
+    private final int height;
+    private final long seed;
+    private final float[] noiseTable = new float[NOISE_TABLE_SIZE];
+
+    private int rotation;
+    private int cropLeft;
+    private int cropTop;
+    private int cropWidth;
+    private int cropHeight;
+
+    private List<BarcodeFormat> formats = Collections.singletonList(BarcodeFormat.QR_CODE);
+    private float emptyRatio;
+    private float minScale = 0.5f;
+    private float maxScale = 0.8f;
+    private float maxRotation;
+    private float maxSkew;
+    private int maxBlur;
+    private float maxNoise;
+    private float minContrast = 1f;
+
+    /**
+     * @param width  The width of the preview frames.
+     * @param height The height of the preview frames.
+     * @param seed   Picks the corpus: the same seed and settings always give the same frames.
+     */
+    public SyntheticFrameGenerator(int width, int height, long seed) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        cropWidth = width;
+        cropHeight = height;
+
+        Random random = new Random(seed);
+        for (int i = 0; i < NOISE_TABLE_SIZE; i++) {
+            noiseTable[i] = (float) random.nextGaussian();
+        }
+    }
+
+    /**
+     * Sets the rotation and crop rectangle stamped on every frame, as the camera would. Barcodes
+     * are centred on the crop rectangle and upright in rotated coordinates. By default frames are
+     * not rotated and the crop is the whole frame.
+     *
+     * @param rotation Clockwise rotation to the display: 0, 90, 180 or 270 degrees.
+     */
+    public void setCrop(int rotation, int left, int top, int width, int height) {
+        if (rotation % 90 != 0 || rotation < 0 || rotation >= 360) {
+            throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+        }
+        this.rotation = rotation;
+        cropLeft = left;
+        cropTop = top;
+        cropWidth = width;
+        cropHeight = height;
+    }
+
+    /**
+     * @param formats The formats to draw barcodes in, picked at random for each frame. QR codes
+     *                and the 1D formats zxing can write are supported.
+     */
+    public void setFormats(List<BarcodeFormat> formats) {
+        if (formats.isEmpty()) {
+            throw new IllegalArgumentException("No barcode formats");
+        }
+        for (BarcodeFormat format : formats) {
+            if (!SUPPORTED_FORMATS.contains(format)) {
+                throw new IllegalArgumentException("Cannot draw " + format);
+            }
+        }
+        this.formats = Collections.unmodifiableList(new ArrayList<BarcodeFormat>(formats));
+    }
+
+    /**
+     * @param emptyRatio The share of frames without any barcode, from 0 to 1. Defaults to 0.
+     */
+    public void setEmptyRatio(float emptyRatio) {
+        this.emptyRatio = emptyRatio;
+    }
+
+    /**
+     * @param min The smallest barcode width, as a fraction of the shorter side of the crop.
+     * @param max The largest barcode width. Defaults to between 0.5 and 0.8.
+     */
+    public void setScale(float min, float max) {
+        minScale = min;
+        maxScale = max;
+    }
+
+    /**
+     * @param degrees How far barcodes may be turned either way. Defaults to 0.
+     */
+    public void setMaxRotation(float degrees) {
+        maxRotation = degrees;
+    }
+
+    /**
+     * @param skew How far each corner of a barcode may be moved, as a fraction of its width, to
+     *             simulate a camera that does not face it squarely. Defaults to 0.
+     */
+    public void setMaxSkew(float skew) {
+        maxSkew = skew;
+    }
+
+    /**
+     * @param radius The largest box blur radius, in pixels. Defaults to 0.
+     */
+    public void setMaxBlur(int radius) {
+        maxBlur = radius;
+    }
+
+    /**
+     * @param sigma The largest standard deviation of the Gaussian noise added to every pixel, in
+     *              luminance levels. Defaults to 0. Unlike camera noise it is not smoothed, and
+     *              from a sigma of about 5 it speckles the flat areas {@code HybridBinarizer}
+     *              thresholds locally.
+     */
+    public void setMaxNoise(float sigma) {
+        maxNoise = sigma;
+    }
+
+    /**
+     * @param contrast The lowest contrast between dark and light modules, from 0 (none) to 1 (a
+     *                 difference of 200 luminance levels). Defaults to 1.
+     */
+    public void setMinContrast(float contrast) {
+        minContrast = contrast;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return What frame number index looks like, without rendering it.
+     */
+    public Sample sample(long index) {
+        Random random = new Random(mix(seed + index * 0x9e3779b97f4a7c15L));
+        boolean empty = random.nextFloat() < emptyRatio;
+        BarcodeFormat format = empty ? null : formats.get(random.nextInt(formats.size()));
+        String contents = empty ? null : randomContents(format, random);
+        float scale = between(random, minScale, maxScale);
+        float angle = between(random, -maxRotation, maxRotation);
+        float contrast = between(random, minContrast, 1f);
+        int blur = random.nextInt(maxBlur + 1);
+        float noise = between(random, 0f, maxNoise);
+        float[] corners = empty ? null : corners(format, scale, angle, random);
+        return new Sample(index, format, contents, scale, angle, contrast, blur, noise, corners,
+                random.nextLong());
+    }
+
+    /**
+     * Lazily describes count consecutive frames, starting with frame first.
+     */
+    public Iterable<Sample> samples(final long first, final long count) {
+        return new Iterable<Sample>() {
+            @Override
+            public Iterator<Sample> iterator() {
+                return new Iterator<Sample>() {
+                    private long next = first;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < first + count;
+                    }
+
+                    @Override
+                    public Sample next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return sample(next++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @param buffer Where to render the frame, or null or too small to allocate a new buffer.
+     * @return The frame, timestamped as if frames arrived every {@link #FRAME_INTERVAL_NANOS}.
+     */
+    public Frame render(Sample sample, byte[] buffer) {
+        int area = width * height;
+        int size = area * 3 / 2;
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+        }
+        int dark = Math.round(128 - 100 * sample.contrast);
+        int light = Math.round(128 + 100 * sample.contrast);
+        Arrays.fill(buffer, 0, area, (byte) light);
+        Arrays.fill(buffer, area, size, (byte) 128);
+
+        if (sample.format != null) {
+            int[] bounds = drawBarcode(sample, buffer, dark);
+            if (sample.blurRadius > 0) {
+                int r = sample.blurRadius;
+                blur(buffer, Math.max(0, bounds[0] - r), Math.max(0, bounds[1] - r),
+                        Math.min(width, bounds[2] + r), Math.min(height, bounds[3] + r), r);
+            }
+        }
+        if (sample.noiseSigma > 0f) {
+            addNoise(buffer, sample.noiseSigma, new Random(sample.noiseSeed));
+        }
+        return new Frame(buffer, width, height, rotation, cropLeft, cropTop, cropWidth, cropHeight,
+                sample.index * FRAME_INTERVAL_NANOS);
+    }
+
+    /**
+     * @return The number of a frame rendered by this class, from its timestamp.
+     */
+    static long indexOf(Frame frame) {
+        return frame.getTimestampNanos() / FRAME_INTERVAL_NANOS;
+    }
+
+    /**
+     * Draws the barcode with its corners where the sample put them.
+     *
+     * @return The bounding box of the barcode in the frame: left, top, right and bottom.
+     */
+    private int[] drawBarcode(Sample sample, byte[] buffer, int dark) {
+        BitMatrix matrix;
+        try {
+            matrix = new MultiFormatWriter().encode(sample.contents, sample.format, 0, 0);
+        } catch (WriterException e) {
+            throw new IllegalStateException("Cannot encode " + sample, e);
+        }
+        int matrixWidth = matrix.getWidth();
+        int matrixHeight = matrix.getHeight();
+
+        float[] c = sample.corners;
+        PerspectiveTransform transform = PerspectiveTransform.quadrilateralToSquare(
+                c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7]);
+        float minX = Math.min(Math.min(c[0], c[2]), Math.min(c[4], c[6]));
+        float maxX = Math.max(Math.max(c[0], c[2]), Math.max(c[4], c[6]));
+        float minY = Math.min(Math.min(c[1], c[3]), Math.min(c[5], c[7]));
+        float maxY = Math.max(Math.max(c[1], c[3]), Math.max(c[5], c[7]));
+        int left = Math.max(0, (int) Math.floor(minX));
+        int right = Math.min(width, (int) Math.ceil(maxX));
+        int top = Math.max(0, (int) Math.floor(minY));
+        int bottom = Math.min(height, (int) Math.ceil(maxY));
+
+        float[] points = new float[Math.max(0, right - left) * 2];
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                int i = (x - left) * 2;
+                points[i] = x + 0.5f;
+                points[i + 1] = y + 0.5f;
+            }
+            transform.transformPoints(points);
+            int offset = y * width;
+            for (int x = left; x < right; x++) {
+                int i = (x - left) * 2;
+                float u = points[i];
+                float v = points[i + 1];
+                if (u >= 0f && u < 1f && v >= 0f && v < 1f
+                        && matrix.get((int) (u * matrixWidth), (int) (v * matrixHeight))) {
+                    buffer[offset + x] = (byte) dark;
+                }
+            }
+        }
+        return new int[]{left, top, right, bottom};
+    }
+
+    /**
+     * Applies a box blur of the given radius to the luminance inside a rectangle, first along rows
+     * and then along columns.
+     */
+    private void blur(byte[] buffer, int left, int top, int right, int bottom, int radius) {
+        int columns = right - left;
+        int rows = bottom - top;
+        if (columns <= 0 || rows <= 0) {
+            return;
+        }
+        int[] line = new int[Math.max(columns, rows)];
+        int[] blurred = new int[line.length];
+        for (int y = top; y < bottom; y++) {
+            int offset = y * width + left;
+            for (int i = 0; i < columns; i++) {
+                line[i] = buffer[offset + i] & 0xff;
+            }
+            blurLine(line, columns, radius, blurred);
+            for (int i = 0; i < columns; i++) {
+                buffer[offset + i] = (byte) blurred[i];
+            }
+        }
+        for (int x = left; x < right; x++) {
+            int offset = top * width + x;
+            for (int i = 0; i < rows; i++) {
+                line[i] = buffer[offset + i * width] & 0xff;
+            }
+            blurLine(line, rows, radius, blurred);
+            for (int i = 0; i < rows; i++) {
+                buffer[offset + i * width] = (byte) blurred[i];
+            }
+        }
+    }
+
+    /**
+     * Averages each of the first length values with its radius neighbours on either side, with
+     * the values at the ends repeated as far as needed.
+     */
+    private static void blurLine(int[] line, int length, int radius, int[] blurred) {
+        int window = radius * 2 + 1;
+        int last = length - 1;
+        int sum = line[0] * (radius + 1);
+        for (int i = 1; i <= radius; i++) {
+            sum += line[Math.min(i, last)];
+        }
+        for (int i = 0; i < length; i++) {
+            blurred[i] = sum / window;
+            sum += line[Math.min(i + radius + 1, last)] - line[Math.max(i - radius, 0)];
+        }
+    }
+
+    private void addNoise(byte[] buffer, float sigma, Random random) {
+        int area = width * height;
+        for (int i = 0; i < area; i++) {
+            float noise = noiseTable[random.nextInt() & (NOISE_TABLE_SIZE - 1)] * sigma;
+            int value = Math.round((buffer[i] & 0xff) + noise);
+            buffer[i] = (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+        }
+    }
+
+    /**
+     * @return The corners of the barcode in the unrotated frame, clockwise from its top left: x0,
+     * y0, x1, y1 and so on.
+     */
+    private float[] corners(BarcodeFormat format, float scale, float angle, Random random) {
+        float codeWidth = scale * Math.min(cropWidth, cropHeight);
+        float codeHeight = format == BarcodeFormat.QR_CODE ? codeWidth : codeWidth / ONE_D_ASPECT;
+        float centreX = cropLeft + cropWidth / 2f;
+        float centreY = cropTop + cropHeight / 2f;
+        double radians = Math.toRadians(angle);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        float skew = maxSkew * codeWidth;
+
+        float[] corners = new float[8];
+        for (int i = 0; i < 4; i++) {
+            float x = (i == 0 || i == 3 ? -codeWidth : codeWidth) / 2
+                    + between(random, -skew, skew);
+            float y = (i < 2 ? -codeHeight : codeHeight) / 2 + between(random, -skew, skew);
+            // Upright in rotated coordinates, then mapped back onto the unrotated frame.
+            float u = centreX + x * cos - y * sin;
+            float v = centreY + x * sin + y * cos;
+            switch (rotation) {
+                case 0:
+                    corners[i * 2] = u;
+                    corners[i * 2 + 1] = v;
+                    break;
+                case 90:
+                    corners[i * 2] = v;
+                    corners[i * 2 + 1] = height - u;
+                    break;
+                case 180:
+                    corners[i * 2] = width - u;
+                    corners[i * 2 + 1] = height - v;
+                    break;
+                default:
+                    corners[i * 2] = width - v;
+                    corners[i * 2 + 1] = u;
+                    break;
+            }
+        }
+        return corners;
+    }
+
+    private static String randomContents(BarcodeFormat format, Random random) {
+        switch (format) {
+            case QR_CODE:
+                return randomString(ALPHANUMERIC, 8 + random.nextInt(33), random);
+            case CODE_128:
+                return randomString(ALPHANUMERIC, 6 + random.nextInt(11), random);
+            case CODE_39:
+                return randomString(CODE_39_ALPHABET, 4 + random.nextInt(9), random);
+            case EAN_13:
+                return withCheckDigit(randomString("0123456789", 12, random));
+            case EAN_8:
+                return withCheckDigit(randomString("0123456789", 7, random));
+            case UPC_A:
+                return withCheckDigit(randomString("0123456789", 11, random));
+            default:
+                return randomString("0123456789",
+                        ITF_LENGTHS[random.nextInt(ITF_LENGTHS.length)], random);
+        }
+    }
+
+    private static String randomString(String alphabet, int length, Random random) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Appends the UPC/EAN check digit: the digits are weighted 3 and 1 alternately, starting with
+     * 3 from the right.
+     */
+    private static String withCheckDigit(String digits) {
+        int sum = 0;
+        for (int i = digits.length() - 1, weight = 3; i >= 0; i--, weight = 4 - weight) {
+            sum += (digits.charAt(i) - '0') * weight;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    private static float between(Random random, float min, float max) {
+        return min + random.nextFloat() * (max - min);
+    }
+
+    /**
+     * Scrambles the bits of z, so that neighbouring frame numbers get unrelated random sequences.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Everything that was decided about one frame.
+     */
+    public static final class Sample {
+        private final long index;
+        private final BarcodeFormat format;
+        private final String contents;
+        private final float scale;
+        private final float angle;
+        private final float contrast;
+        private final int blurRadius;
+        private final float noiseSigma;
+        private final float[] corners;
+        private final long noiseSeed;
+
+        Sample(long index, BarcodeFormat format, String contents, float scale, float angle,
+               float contrast, int blurRadius, float noiseSigma, float[] corners, long noiseSeed) {
+            this.index = index;
+            this.format = format;
+            this.contents = contents;
+            this.scale = scale;
+            this.angle = angle;
+            this.contrast = contrast;
+            this.blurRadius = blurRadius;
+            this.noiseSigma = noiseSigma;
+            this.corners = corners;
+            this.noiseSeed = noiseSeed;
+        }
+
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * @return The format of the barcode, or null if the frame has none.
+         */
+        public BarcodeFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return The text encoded in the barcode, or null if the frame has none.
+         */
+        public String getContents() {
+            return contents;
+        }
+
+        public float getScale() {
+            return scale;
+        }
+
+        /**
+         * @return How far the barcode is turned clockwise, in degrees.
+         */
+        public float getAngle() {
+            return angle;
+        }
+
+        public float getContrast() {
+            return contrast;
+        }
+
+        public int getBlurRadius() {
+            return blurRadius;
+        }
+
+        public float getNoiseSigma() {
+            return noiseSigma;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index + " " + format + " \"" + contents + "\" scale " + scale
+                    + ", angle " + angle + ", contrast " + contrast + ", blur " + blurRadius
+                    + ", noise " + noiseSigma;
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package mw.ankara.qrcode.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * Streams a run of frames from a {@link SyntheticFrameGenerator}, rendering each one only when it
+ * is taken. Released frames hand their buffer to the next frame, so a run of any length only needs
+ * as many buffers as there are frames being decoded at once.
+ * <p>
+ * Thread safe, so several decoders can share one source.
+ */
+public final class SyntheticFrameSource implements FrameSource {
+
+    private final SyntheticFrameGenerator generator;
+    private final long end;
+    private final ArrayDeque<byte[]> buffers = new ArrayDeque<byte[]>();
+    private long next;
+
+    /**
+     * @param first The number of the first frame.
+     * @param count How many frames to stream.
+     */
+    public SyntheticFrameSource(SyntheticFrameGenerator generator, long first, long count) {
+        this.generator = generator;
+        next = first;
+        end = first + count;
+    }
+
+    /**
+     * @return The next frame, or null once the run is over.
+     */
+    @Override
+    public Frame nextFrame() {
+        long index;
+        byte[] buffer;
+        synchronized (this) {
+            if (next >= end) {
+                return null;
+            }
+            index = next++;
+            buffer = buffers.poll();
+        }
+        return generator.render(generator.sample(index), buffer);
+    }
+
+    @Override
+    public synchronized void releaseFrame(Frame frame) {
+        buffers.push(frame.getData());
+    }
+
+    /**
+     * @return What the frame was rendered from, including the barcode it should decode to.
+     */
+    public SyntheticFrameGenerator.Sample getSample(Frame frame) {
+        return generator.sample(SyntheticFrameGenerator.indexOf(frame));
+    }
+
+}
@@ -0,0 +1,269 @@
+package mw.ankara.qrcode.core;
+
+import java.util.List;
+
+/**
+ * Picks the smallest preview size that still puts enough pixels on the framing rect, rather than
+ * the one closest to the screen, which on a dense screen means full HD frames that cost several
+ * times as much to decode as the framing rect needs.
+ * <p>
+ * Each size is scored by the pixel density it gives the framing rect, up to a
+ * {@link #setTargetRoiSide(int) target} past which more pixels do not help, less how far its
+ * aspect ratio is from the screen's, which stretches the preview, and less what a frame of it is
+ * expected to cost to decode, against the time the decode threads have per frame. The cost is
+ * estimated per pixel of the framing rect and of the whole frame, from a
+ * {@link #setCostModel(double, double) model} that can be measured with the benchmarks, or
+ * {@link #calibrate(PipelineMetrics.Snapshot) learned} from the pipeline's metrics.
+ * <p>
+ * The frame rate range picked is the one that reaches the rate the decode threads can keep up
+ * with at that size, kept between a smooth preview and a {@link #setFpsLimits(int, int) maximum},
+ * with the least maximum, so the camera is not asked for frames that would only be dropped, and
+ * then the highest minimum, so exposures stay short and frames sharp.
+ * <p>
+ * Thread safe.
+ */
+public final class ThroughputPreviewSizeStrategy implements PreviewSizeStrategy {
+
+    /**
+     * The side, in preview pixels, of the largest framing rect the preview used to be cropped to.
+     */
+    public static final int DEFAULT_TARGET_ROI_SIDE = 360;
+    public static final double DEFAULT_NANOS_PER_ROI_PIXEL = 40.0;
+    public static final double DEFAULT_NANOS_PER_FRAME_PIXEL = 1.0;
+    public static final int DEFAULT_MIN_FPS = 15000;
+    public static final int DEFAULT_MAX_FPS = 30000;
+    public static final double DEFAULT_CALIBRATION_TOLERANCE = 0.2;
+
+    private static final long MIN_CALIBRATION_FRAMES = 30L;
+    // What a stretched preview costs a size, per unit of relative aspect ratio error.
+    private static final double ASPECT_WEIGHT = 2.0;
+    // What decoding costs a size, per frame interval the decode threads have at the maximum rate.
+    private static final double COST_WEIGHT = 0.25;
+
+    private volatile int targetRoiSide = DEFAULT_TARGET_ROI_SIDE;
+    private volatile double nanosPerRoiPixel = DEFAULT_NANOS_PER_ROI_PIXEL;
+    private volatile double nanosPerFramePixel = DEFAULT_NANOS_PER_FRAME_PIXEL;
+    private volatile int decodeWorkers = 1;
+    private volatile int minFps = DEFAULT_MIN_FPS;
+    private volatile int maxFps = DEFAULT_MAX_FPS;
+    private volatile double calibrationTolerance = DEFAULT_CALIBRATION_TOLERANCE;
+
+    /**
+     * @param side The side of the framing rect, in preview pixels, from which a larger preview
+     *             no longer helps to read barcodes.
+     */
+    public void setTargetRoiSide(int side) {
+        if (side < 1) {
+            throw new IllegalArgumentException("Need a target side of at least one pixel: " + side);
+        }
+        targetRoiSide = side;
+    }
+
+    /**
+     * @param nanosPerRoiPixel   What cropping, binarizing and decoding cost per pixel of the
+     *                           framing rect, in nanoseconds.
+     * @param nanosPerFramePixel What the camera and the buffers cost per pixel of the whole frame.
+     */
+    public synchronized void setCostModel(double nanosPerRoiPixel, double nanosPerFramePixel) {
+        if (!(nanosPerRoiPixel > 0.0) || nanosPerFramePixel < 0.0) {
+            throw new IllegalArgumentException("Bad cost model: " + nanosPerRoiPixel + ", "
+                    + nanosPerFramePixel);
+        }
+        this.nanosPerRoiPixel = nanosPerRoiPixel;
+        this.nanosPerFramePixel = nanosPerFramePixel;
+    }
+
+    public double getNanosPerRoiPixel() {
+        return nanosPerRoiPixel;
+    }
+
+    public double getNanosPerFramePixel() {
+        return nanosPerFramePixel;
+    }
+
+    /**
+     * @param tolerance How far a learned cost must be from the cost model, as a share of it, to
+     *                  replace it, so that one scan timing a little differently from the last does
+     *                  not change the preview size picked.
+     */
+    public void setCalibrationTolerance(double tolerance) {
+        if (!(tolerance >= 0.0)) {
+            throw new IllegalArgumentException("Bad calibration tolerance: " + tolerance);
+        }
+        calibrationTolerance = tolerance;
+    }
+
+    /**
+     * Learns what decoding costs per pixel of the framing rect from the frames the pipeline timed,
+     * per pixel the readers actually went over, as frames decoded in a tracked window, scaled
+     * down, or in several passes cover more or fewer pixels than the framing rect.
+     *
+     * @return Whether enough frames were timed to learn from, and what they cost was far enough
+     * from the cost model to replace it.
+     */
+    public synchronized boolean calibrate(PipelineMetrics.Snapshot snapshot) {
+        long pixels = snapshot.getPixels();
+        if (snapshot.getDecode().getCount() < MIN_CALIBRATION_FRAMES || pixels <= 0) {
+            return false;
+        }
+        double nanos = snapshot.getRotateCrop().getSum() + snapshot.getBinarize().getSum()
+                + snapshot.getDecode().getSum();
+        if (!(nanos > 0.0)) {
+            return false;
+        }
+        double learned = nanos / pixels;
+        if (Math.abs(learned - nanosPerRoiPixel) <= calibrationTolerance * nanosPerRoiPixel) {
+            return false;
+        }
+        nanosPerRoiPixel = learned;
+        return true;
+    }
+
+    /**
+     * @param workers How many threads decode frames in parallel.
+     */
+    public void setDecodeWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one decode worker: " + workers);
+        }
+        decodeWorkers = workers;
+    }
+
+    public int getDecodeWorkers() {
+        return decodeWorkers;
+    }
+
+    /**
+     * @param minFps The least frame rate to ask for, for a smooth preview, in frames per 1000
+     *               seconds, even if the decode threads cannot keep up with it.
+     * @param maxFps The greatest frame rate to ask for.
+     */
+    public synchronized void setFpsLimits(int minFps, int maxFps) {
+        if (minFps < 0 || maxFps < minFps) {
+            throw new IllegalArgumentException("Bad frame rate limits: " + minFps + "-" + maxFps);
+        }
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+    }
+
+    @Override
+    public int selectPreviewSize(List<int[]> sizes, int screenWidth, int screenHeight,
+                                 int framingSize) {
+        if (screenWidth <= 0 || screenHeight <= 0) {
+            return -1;
+        }
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < sizes.size(); i++) {
+            int[] size = sizes.get(i);
+            if (size[0] <= 0 || size[1] <= 0) {
+                continue;
+            }
+            double score = score(size[0], size[1], screenWidth, screenHeight, framingSize);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public int selectFpsRange(List<int[]> fpsRanges, int previewWidth, int previewHeight,
+                              int screenWidth, int screenHeight, int framingSize) {
+        int target = getTargetFps(previewWidth, previewHeight, screenWidth, screenHeight,
+                framingSize);
+        int best = -1;
+        for (int i = 0; i < fpsRanges.size(); i++) {
+            int[] range = fpsRanges.get(i);
+            if (best < 0 || isBetterFpsRange(range, fpsRanges.get(best), target)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return The score of a preview size, the higher the better: the density it gives the
+     * framing rect, at most 1, less the penalties for a stretched preview and for decoding cost.
+     */
+    private double score(int width, int height, int screenWidth, int screenHeight,
+                         int framingSize) {
+        double roiSide = getRoiSide(width, height, screenWidth, screenHeight, framingSize);
+        double density = Math.min(roiSide / targetRoiSide, 1.0);
+
+        double screenAspect = (double) Math.max(screenWidth, screenHeight)
+                / Math.min(screenWidth, screenHeight);
+        double aspect = (double) Math.max(width, height) / Math.min(width, height);
+        double aspectError = Math.abs(aspect - screenAspect) / screenAspect;
+
+        // Nanoseconds the decode threads have per frame at the greatest frame rate.
+        double budget = decodeWorkers * 1e12 / Math.max(maxFps, 1);
+        double cost = getDecodeCostNanos(roiSide, width, height);
+        return density - ASPECT_WEIGHT * aspectError - COST_WEIGHT * cost / budget;
+    }
+
+    private int getTargetFps(int previewWidth, int previewHeight, int screenWidth,
+                             int screenHeight, int framingSize) {
+        int minFps;
+        int maxFps;
+        synchronized (this) {
+            minFps = this.minFps;
+            maxFps = this.maxFps;
+        }
+        if (previewWidth <= 0 || previewHeight <= 0 || screenWidth <= 0 || screenHeight <= 0) {
+            return maxFps;
+        }
+        double roiSide = getRoiSide(previewWidth, previewHeight, screenWidth, screenHeight,
+                framingSize);
+        double decodeFps = decodeWorkers * 1e12
+                / getDecodeCostNanos(roiSide, previewWidth, previewHeight);
+        return (int) Math.max(minFps, Math.min(maxFps, decodeFps));
+    }
+
+    private static boolean isBetterFpsRange(int[] range, int[] best, int target) {
+        boolean reaches = range[1] >= target;
+        boolean bestReaches = best[1] >= target;
+        if (reaches != bestReaches) {
+            return reaches;
+        }
+        if (range[1] != best[1]) {
+            // The least maximum that reaches the target, or the greatest one if none does.
+            return reaches ? range[1] < best[1] : range[1] > best[1];
+        }
+        return range[0] > best[0];
+    }
+
+    /**
+     * @return The side of the framing rect in preview pixels, taking the preview as scaled to fill
+     * the screen, the long side along the long side.
+     */
+    private static double getRoiSide(int width, int height, int screenWidth, int screenHeight,
+                                     int framingSize) {
+        int screenLong = Math.max(screenWidth, screenHeight);
+        int screenShort = Math.min(screenWidth, screenHeight);
+        if (framingSize <= 0 || framingSize > screenShort) {
+            framingSize = screenShort;
+        }
+        return Math.min((double) framingSize * Math.max(width, height) / screenLong,
+                (double) framingSize * Math.min(width, height) / screenShort);
+    }
+
+    private double getDecodeCostNanos(double roiSide, int width, int height) {
+        double nanosPerRoiPixel;
+        double nanosPerFramePixel;
+        synchronized (this) {
+            nanosPerRoiPixel = this.nanosPerRoiPixel;
+            nanosPerFramePixel = this.nanosPerFramePixel;
+        }
+        return nanosPerRoiPixel * roiSide * roiSide + nanosPerFramePixel * width * height;
+    }
+
+    @Override
+    public String toString() {
+        return "targetRoiSide=" + targetRoiSide + " nanosPerRoiPixel=" + nanosPerRoiPixel
+                + " nanosPerFramePixel=" + nanosPerFramePixel + " decodeWorkers=" + decodeWorkers
+                + " fps=" + minFps + "-" + maxFps;
+    }
+
+}
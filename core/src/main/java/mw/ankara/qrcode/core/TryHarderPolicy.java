@@ -0,0 +1,215 @@
+package mw.ankara.qrcode.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which frames are decoded with the readers trying harder. Trying harder makes the QR code
+ * reader look at every row instead of every few, and the 1D reader also scan the frame rotated,
+ * which finds more small, far and damaged barcodes but costs several times as much, so frames are
+ * decoded the fast way by default.
+ * <p>
+ * After {@link #setMissesBeforeEscalating(int) a number} of decoded frames in a row found
+ * nothing, the policy escalates: from then on every {@link #setInterval(int) k-th} frame is
+ * decoded trying harder, and, if {@link #setAlsoInverted(boolean) asked}, also inverted, for light
+ * barcodes on a dark background. Frames the quality gate rejects or the scene change detector
+ * skips are never decoded, so they do not count as misses. The policy drops back to the fast way
+ * as soon as any frame finds a barcode, or when the scene moves on from the one it escalated on,
+ * which it can only tell from fingerprints taken by an enabled {@link SceneChangeDetector}.
+ * <p>
+ * Thread safe, so several decoders can share one policy and its counts.
+ */
+public final class TryHarderPolicy {
+
+    public static final int DEFAULT_MISSES_BEFORE_ESCALATING = 10;
+    public static final int DEFAULT_INTERVAL = 3;
+    /**
+     * Well above {@link SceneChangeDetector#DEFAULT_THRESHOLD}, so a hand shaking over the same
+     * barcode does not count as a new scene.
+     */
+    public static final float DEFAULT_SCENE_THRESHOLD = 12f;
+
+    private volatile boolean enabled = true;
+    private volatile int missesBeforeEscalating = DEFAULT_MISSES_BEFORE_ESCALATING;
+    private volatile int interval = DEFAULT_INTERVAL;
+    private volatile boolean alsoInverted;
+    private volatile float sceneThreshold = DEFAULT_SCENE_THRESHOLD;
+    private final AtomicLong escalations = new AtomicLong();
+    private final AtomicLong sceneChanges = new AtomicLong();
+    private final AtomicLong harderFrames = new AtomicLong();
+    private final AtomicLong harderHits = new AtomicLong();
+
+    // Guarded by this. The scene is the last one decoded the fast way, and, once escalated, the
+    // one the policy escalated on.
+    private final int[] scene = new int[SceneChangeDetector.GRID * SceneChangeDetector.GRID];
+    private boolean hasScene;
+    private int misses;
+    private boolean escalated;
+    private int escalatedFrames;
+
+    /**
+     * @param enabled Whether to escalate at all. A disabled policy decodes every frame the fast
+     *                way.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param misses How many decoded frames in a row must find nothing before escalating.
+     */
+    public void setMissesBeforeEscalating(int misses) {
+        if (misses < 1) {
+            throw new IllegalArgumentException("Need at least one miss: " + misses);
+        }
+        missesBeforeEscalating = misses;
+    }
+
+    /**
+     * @param interval Once escalated, one frame in this many tries harder, starting with the first.
+     *                 The frames in between keep the fast way, so results stay quick while the
+     *                 barcode is easy to read again.
+     */
+    public void setInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Need an interval of at least one frame: "
+                    + interval);
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * @param alsoInverted Whether frames that try harder are also decoded inverted when nothing
+     *                     is found the right way round.
+     */
+    public void setAlsoInverted(boolean alsoInverted) {
+        this.alsoInverted = alsoInverted;
+    }
+
+    public boolean isAlsoInverted() {
+        return alsoInverted;
+    }
+
+    /**
+     * @param threshold The mean absolute difference per fingerprint cell, in grey levels, from
+     *                  which the scene counts as a new one.
+     */
+    public void setSceneThreshold(float threshold) {
+        sceneThreshold = threshold;
+    }
+
+    /**
+     * Decides how to decode a frame that is about to be decoded.
+     *
+     * @param fingerprint The frame's fingerprint, as just taken by the scene change detector, or
+     *                    null if there is none.
+     * @return Whether the frame should be decoded trying harder.
+     */
+    public boolean shouldTryHarder(SceneChangeDetector.Fingerprint fingerprint) {
+        if (!enabled) {
+            return false;
+        }
+        synchronized (this) {
+            if (escalated && fingerprint != null && hasScene
+                    && SceneChangeDetector.difference(fingerprint.cells, scene)
+                    >= sceneThreshold) {
+                escalated = false;
+                misses = 0;
+                sceneChanges.incrementAndGet();
+            }
+            if (!escalated) {
+                if (fingerprint != null) {
+                    System.arraycopy(fingerprint.cells, 0, scene, 0, scene.length);
+                }
+                hasScene = fingerprint != null;
+                return false;
+            }
+            boolean harder = escalatedFrames % interval == 0;
+            escalatedFrames++;
+            if (harder) {
+                harderFrames.incrementAndGet();
+            }
+            return harder;
+        }
+    }
+
+    /**
+     * Counts the outcome of a decoded frame.
+     *
+     * @param harder Whether the frame was decoded trying harder.
+     * @param found  Whether a barcode was found.
+     */
+    public void record(boolean harder, boolean found) {
+        if (harder && found) {
+            harderHits.incrementAndGet();
+        }
+        synchronized (this) {
+            if (found) {
+                misses = 0;
+                escalated = false;
+            } else if (!escalated && ++misses >= missesBeforeEscalating) {
+                escalated = true;
+                escalatedFrames = 0;
+                escalations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops back to the fast way and forgets the misses so far, for a new session.
+     */
+    public synchronized void reset() {
+        misses = 0;
+        escalated = false;
+        hasScene = false;
+    }
+
+    public synchronized boolean isEscalated() {
+        return escalated;
+    }
+
+    /**
+     * @return How many times the policy escalated.
+     */
+    public long getEscalationCount() {
+        return escalations.get();
+    }
+
+    /**
+     * @return How many times the policy dropped back because the scene changed.
+     */
+    public long getSceneChangeCount() {
+        return sceneChanges.get();
+    }
+
+    /**
+     * @return How many frames were decoded trying harder.
+     */
+    public long getHarderFrameCount() {
+        return harderFrames.get();
+    }
+
+    /**
+     * @return How many barcodes were found in frames decoded trying harder.
+     */
+    public long getHarderHitCount() {
+        return harderHits.get();
+    }
+
+    public void resetCounts() {
+        escalations.set(0L);
+        sceneChanges.set(0L);
+        harderFrames.set(0L);
+        harderHits.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return "escalations=" + getEscalationCount() + " sceneChanges=" + getSceneChangeCount()
+                + " harderFrames=" + getHarderFrameCount() + " harderHits=" + getHarderHitCount();
+    }
+
+}
@@ -0,0 +1,134 @@
+package mw.ankara.qrcode.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinarizerSelectorTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final BinarizerSelector.Strategy GLOBAL =
+            BinarizerSelector.Strategy.GLOBAL_HISTOGRAM;
+    private static final BinarizerSelector.Strategy HYBRID = BinarizerSelector.Strategy.HYBRID;
+
+    @Test
+    public void plainFramesGoToTheGlobalHistogramFirst() {
+        BinarizerSelector selector = new BinarizerSelector();
+        BinarizerSelector.Choice choice = selector.newChoice();
+        byte[] even = luminance(0f);
+        byte[] shaded = luminance(0.6f);
+
+        assertEquals(GLOBAL, selector.choose(even, WIDTH, HEIGHT, choice));
+        assertTrue(choice.isPlain());
+        assertEquals(HYBRID, selector.choose(shaded, WIDTH, HEIGHT, choice));
+        assertFalse(choice.isPlain());
+        assertTrue(choice.getShading() > BinarizerSelector.DEFAULT_MAX_SHADING);
+        // Too little of the frame is dark for the global histogram to find it.
+        assertEquals(HYBRID, selector.choose(luminance(0f, 20), WIDTH, HEIGHT, choice));
+        assertTrue(choice.getDarkShare() < BinarizerSelector.DEFAULT_MIN_DARK_SHARE);
+
+        selector.setEnabled(false);
+        assertEquals(HYBRID, selector.choose(even, WIDTH, HEIGHT, choice));
+        assertEquals(1, selector.getChosenCount(GLOBAL));
+        assertEquals(3, selector.getChosenCount(HYBRID));
+    }
+
+    @Test
+    public void learnsWhichBinarizerIsWinning() {
+        BinarizerSelector selector = new BinarizerSelector();
+        BinarizerSelector.Choice choice = selector.newChoice();
+        byte[] even = luminance(0f);
+
+        // The global histogram misses and the hybrid binarizer rescues, once.
+        assertEquals(GLOBAL, selector.choose(even, WIDTH, HEIGHT, choice));
+        selector.record(choice, GLOBAL, false, 1000L);
+        selector.record(choice, HYBRID, true, 3000L);
+        assertEquals(HYBRID, selector.getPreferred());
+        assertEquals(1, selector.getRescueCount(HYBRID));
+        assertEquals(0.0, selector.getHitRate(GLOBAL), 1e-9);
+        assertEquals(1.0, selector.getHitRate(HYBRID), 1e-9);
+        assertEquals(3000L, selector.getMeanNanos(HYBRID));
+
+        // Every frame that goes to the hybrid binarizer instead brings the global one closer.
+        int hybridFirst = 0;
+        while (selector.choose(even, WIDTH, HEIGHT, choice) == HYBRID) {
+            selector.record(choice, HYBRID, true, 3000L);
+            hybridFirst++;
+        }
+        assertTrue(hybridFirst > 0);
+        selector.record(choice, GLOBAL, true, 1000L);
+        assertEquals(GLOBAL, selector.getPreferred());
+
+        selector.choose(even, WIDTH, HEIGHT, choice);
+        selector.record(choice, GLOBAL, false, 1000L);
+        selector.record(choice, HYBRID, true, 3000L);
+        selector.reset();
+        assertEquals(GLOBAL, selector.getPreferred());
+    }
+
+    @Test
+    public void decoderFallsBackOnBarcodesTheFirstBinarizerMisses() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 6L);
+        generator.setCrop(90, 0, 0, HEIGHT, WIDTH);
+        generator.setEmptyRatio(0f);
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        BinarizerSelector selector = new BinarizerSelector();
+        // Every frame counts as plain, so the global histogram goes first even on frames it
+        // cannot handle.
+        selector.setMaxShading(256);
+        selector.setMinDarkShare(0f);
+        decoder.setBinarizerSelector(selector);
+
+        int found = 0;
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 20)) {
+            Frame frame = generator.render(sample, null);
+            shade(frame.getData(), 0.7f);
+            if (decoder.decode(decoder.buildLuminanceSource(frame)) != null) {
+                found++;
+            }
+        }
+
+        assertTrue(found > 0);
+        assertTrue(selector.getRescueCount(HYBRID) > 0);
+        assertEquals(found, selector.getHitCount(GLOBAL) + selector.getHitCount(HYBRID));
+        assertNotNull(selector.toString());
+    }
+
+    private static byte[] luminance(float shading) {
+        return luminance(shading, 100);
+    }
+
+    /**
+     * @return A light frame with a dark square of the given half size in the middle, lit by a
+     * gradient that takes the given share of the light away from the left edge.
+     */
+    private static byte[] luminance(float shading, int half) {
+        byte[] data = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inside = Math.abs(x - WIDTH / 2) < half && Math.abs(y - HEIGHT / 2) < half;
+                data[y * WIDTH + x] = (byte) (inside ? 30 : 220);
+            }
+        }
+        shade(data, shading);
+        return data;
+    }
+
+    /**
+     * Darkens the luminance towards the left edge.
+     */
+    private static void shade(byte[] data, float shading) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float light = 1f - shading * (WIDTH - x) / WIDTH;
+                int i = y * WIDTH + x;
+                data[i] = (byte) Math.round((data[i] & 0xff) * light);
+            }
+        }
+    }
+
+}
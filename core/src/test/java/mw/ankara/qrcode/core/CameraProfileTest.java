@@ -0,0 +1,62 @@
+package mw.ankara.qrcode.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class CameraProfileTest {
+
+    @Test
+    public void readsBackWhatItWrote() {
+        CameraProfile profile = new CameraProfile(1280, 720, 17, "yuv420sp", "2.7", "27", 15000,
+                30000, "continuous-picture");
+        CameraProfile read = CameraProfile.decode(profile.encode());
+        assertEquals(profile, read);
+        assertEquals(profile.hashCode(), read.hashCode());
+        assertEquals(1280, read.getPreviewWidth());
+        assertEquals(720, read.getPreviewHeight());
+        assertEquals(17, read.getPreviewFormat());
+        assertEquals("yuv420sp", read.getPreviewFormatString());
+        assertEquals("2.7", read.getZoom());
+        assertEquals("27", read.getTakingPictureZoom());
+        assertEquals(15000, read.getMinFps());
+        assertEquals(30000, read.getMaxFps());
+        assertEquals("continuous-picture", read.getFocusMode());
+    }
+
+    @Test
+    public void keepsMissingValuesMissing() {
+        CameraProfile profile = new CameraProfile(640, 480, 17, null, null, null, 0, 0, null);
+        CameraProfile read = CameraProfile.decode(profile.encode());
+        assertEquals(profile, read);
+        assertNull(read.getPreviewFormatString());
+        assertNull(read.getZoom());
+        assertNull(read.getTakingPictureZoom());
+        assertNull(read.getFocusMode());
+        assertFalse(profile.equals(new CameraProfile(640, 480, 17, null, "1.0", null, 0, 0,
+                null)));
+    }
+
+    @Test
+    public void ignoresWhatItCannotRead() {
+        assertNull(CameraProfile.decode(null));
+        assertNull(CameraProfile.decode(""));
+        assertNull(CameraProfile.decode("0;640;480;17;;;;0;0;"));
+        assertNull(CameraProfile.decode("1;640;480;17;;;;0;0"));
+        assertNull(CameraProfile.decode("1;640x;480;17;;;;0;0;"));
+        assertNull(CameraProfile.decode("1;0;480;17;;;;0;0;"));
+    }
+
+    @Test
+    public void keysApartEachDeviceCameraBuildAndScreen() {
+        String key = CameraProfile.key("Nexus 5", "back", "google/hammerhead/1", 1080, 1920);
+        assertEquals(key, CameraProfile.key("Nexus 5", "back", "google/hammerhead/1", 1080, 1920));
+        assertFalse(key.equals(CameraProfile.key("Nexus 5", "back", "google/hammerhead/2", 1080,
+                1920)));
+        assertFalse(key.equals(CameraProfile.key("Nexus 5", "back", "google/hammerhead/1", 1920,
+                1080)));
+    }
+
+}
@@ -0,0 +1,87 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.NotFoundException;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class DecodeBuffersTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 100;
+    /**
+     * What a frame may allocate: the ReusableHybridBinarizer wrapper, and the histogram buckets
+     * its GlobalHistogramBinarizer superclass allocates in its constructor, about 200 bytes.
+     * Anything sized by the frame is far more.
+     */
+    private static final long PER_FRAME_BUDGET_BYTES = 256L;
+
+    @Test
+    public void buffersAreReusedForSameSize() {
+        DecodeBuffers buffers = new DecodeBuffers();
+
+        assertSame(buffers.matrixBuffer(240 * 240), buffers.matrixBuffer(240 * 240));
+    }
+
+    @Test
+    public void noAllocationPerFrameAfterWarmUp() throws Exception {
+        Method allocatedBytes = getThreadAllocatedBytesMethod();
+        assumeTrue(allocatedBytes != null);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        DecodeBuffers buffers = new DecodeBuffers();
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        // Warm up: the first frame sizes every buffer.
+        RotatedPlanarYUVLuminanceSource source = new RotatedPlanarYUVLuminanceSource(frame,
+                WIDTH, HEIGHT, 90, 120, 200, 240, 240, buffers.matrixBuffer(240 * 240));
+        decode(buffers, source);
+
+        long before = (Long) allocatedBytes.invoke(threads, thread);
+        for (int i = 0; i < FRAMES; i++) {
+            decode(buffers, source);
+        }
+        long perFrame = ((Long) allocatedBytes.invoke(threads, thread) - before) / FRAMES;
+
+        assertTrue(perFrame + " bytes per frame", perFrame <= PER_FRAME_BUDGET_BYTES);
+    }
+
+    private static void decode(DecodeBuffers buffers, RotatedPlanarYUVLuminanceSource source)
+            throws NotFoundException {
+        buffers.matrixBuffer(240 * 240);
+        source.getMatrix();
+        new ReusableHybridBinarizer(source, buffers.binarizerBuffers()).getBlackMatrix();
+    }
+
+    /**
+     * @return com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long), or null if this JVM
+     * cannot count the bytes a thread allocates.
+     */
+    private static Method getThreadAllocatedBytesMethod() {
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!type.isInstance(threads)) {
+                return null;
+            }
+            Method supported = type.getMethod("isThreadAllocatedMemorySupported");
+            Method enabled = type.getMethod("isThreadAllocatedMemoryEnabled");
+            if (!(Boolean) supported.invoke(threads) || !(Boolean) enabled.invoke(threads)) {
+                return null;
+            }
+            return type.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+}
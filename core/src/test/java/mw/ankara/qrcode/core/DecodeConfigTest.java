@@ -0,0 +1,76 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeConfigTest {
+
+    @Test
+    public void tryHarderGoesIntoTheHintsAndProfile() {
+        DecodeConfig plain = new DecodeConfig(DecodeFormats.ALL_FORMATS, "UTF-8", null);
+        DecodeConfig harder = new DecodeConfig(DecodeFormats.ALL_FORMATS, "UTF-8", null, true);
+
+        assertFalse(plain.isTryHarder());
+        assertFalse(plain.getHints().containsKey(DecodeHintType.TRY_HARDER));
+        assertTrue(harder.isTryHarder());
+        assertEquals(Boolean.TRUE, harder.getHints().get(DecodeHintType.TRY_HARDER));
+        assertEquals("UTF-8", harder.getHints().get(DecodeHintType.CHARACTER_SET));
+        assertEquals(DecodeProfile.Family.ONE_D, plain.getProfile().getFamilies().get(0));
+        assertEquals(DecodeProfile.Family.ONE_D, harder.getProfile().getFamilies()
+                .get(harder.getProfile().getFamilies().size() - 1));
+    }
+
+    @Test
+    public void decodersSwitchConfigurationWithoutBeingRebuilt() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(640, 480, 3L);
+        generator.setCrop(90, 0, 80, 480, 480);
+        generator.setEmptyRatio(0f);
+        generator.setFormats(Collections.singletonList(BarcodeFormat.CODE_128));
+        Frame frame = null;
+        Result expected = null;
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 20)) {
+            frame = generator.render(sample, null);
+            expected = decoder.decode(decoder.buildLuminanceSource(frame));
+            if (expected != null) {
+                break;
+            }
+        }
+        assertNotNull(expected);
+
+        DecodeConfig qrCodes = new DecodeConfig(DecodeFormats.QR_CODE_FORMATS, null, null);
+        decoder.setConfig(qrCodes);
+        assertSame(qrCodes, decoder.getConfig());
+        assertEquals(Collections.singletonList(DecodeProfile.Family.QR_CODE),
+                decoder.getReaders().getOrder());
+        assertNull(decoder.decode(decoder.buildLuminanceSource(frame)));
+
+        decoder.setConfig(new DecodeConfig(Arrays.asList(BarcodeFormat.QR_CODE,
+                BarcodeFormat.CODE_128), null, null));
+        DecodeProfile.Chain readers = decoder.getReaders();
+        assertNotSame(qrCodes, decoder.getConfig());
+        Result result = decoder.decode(decoder.buildLuminanceSource(frame));
+        assertNotNull(result);
+        assertEquals(expected.getText(), result.getText());
+        assertEquals(1L, readers.getHitCount(DecodeProfile.Family.ONE_D));
+
+        // Handing over the configuration already in use keeps the readers and what they learnt.
+        decoder.setConfig(decoder.getConfig());
+        assertSame(readers, decoder.getReaders());
+    }
+
+}
@@ -0,0 +1,105 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DecodeProfileTest {
+
+    @Test
+    public void profilesOnlyHoldTheReadersTheFormatsNeed() {
+        assertEquals(Collections.singletonList(DecodeProfile.Family.QR_CODE),
+                new DecodeProfile(DecodeFormats.QR_CODE_FORMATS, false).getFamilies());
+        assertEquals(Collections.singletonList(DecodeProfile.Family.ONE_D),
+                new DecodeProfile(DecodeFormats.PRODUCT_FORMATS, false).getFamilies());
+        assertEquals(Arrays.asList(DecodeProfile.Family.ONE_D, DecodeProfile.Family.QR_CODE,
+                        DecodeProfile.Family.DATA_MATRIX),
+                new DecodeProfile(DecodeFormats.ALL_FORMATS, false).getFamilies());
+        // Trying harder makes the 1D reader scan rotated copies too, so it goes last.
+        assertEquals(Arrays.asList(DecodeProfile.Family.QR_CODE, DecodeProfile.Family.ONE_D),
+                new DecodeProfile(Arrays.asList(BarcodeFormat.EAN_13, BarcodeFormat.QR_CODE),
+                        true).getFamilies());
+        assertEquals(Arrays.asList(DecodeProfile.Family.values()),
+                new DecodeProfile(Collections.singletonList(BarcodeFormat.UPC_EAN_EXTENSION),
+                        false).getFamilies());
+    }
+
+    @Test
+    public void chainsFindWhatMultiFormatReaderFinds() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(640, 480, 8L);
+        generator.setCrop(90, 0, 80, 480, 480);
+        generator.setFormats(Arrays.asList(BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128,
+                BarcodeFormat.EAN_13, BarcodeFormat.ITF));
+        generator.setEmptyRatio(0.2f);
+        generator.setMaxNoise(4f);
+        Map<DecodeHintType, Object> hints =
+                new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, DecodeFormats.ALL_FORMATS);
+        DecodeProfile.Chain chain =
+                new DecodeProfile(DecodeFormats.ALL_FORMATS, false).newChain(hints);
+        MultiFormatReader multiFormatReader = new MultiFormatReader();
+        multiFormatReader.setHints(hints);
+
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 30)) {
+            Frame frame = generator.render(sample, null);
+            LuminanceSource source = new RotatedPlanarYUVLuminanceSource(frame.getData(),
+                    frame.getWidth(), frame.getHeight(), frame.getRotation(), frame.getCropLeft(),
+                    frame.getCropTop(), frame.getCropWidth(), frame.getCropHeight(), null);
+            Result expected;
+            try {
+                expected = multiFormatReader.decodeWithState(
+                        new BinaryBitmap(new HybridBinarizer(source)));
+            } catch (ReaderException re) {
+                expected = null;
+            }
+            Result actual = chain.decode(new BinaryBitmap(new HybridBinarizer(source)));
+
+            if (expected == null) {
+                assertNull(sample.toString(), actual);
+            } else {
+                assertNotNull(sample.toString(), actual);
+                assertEquals(sample.toString(), expected.getBarcodeFormat(),
+                        actual.getBarcodeFormat());
+                assertEquals(sample.toString(), expected.getText(), actual.getText());
+            }
+        }
+    }
+
+    @Test
+    public void readersThatFindMoreMoveToTheFront() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(640, 480, 2L);
+        generator.setCrop(90, 0, 80, 480, 480);
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        DecodeProfile.Chain chain = decoder.getReaders();
+        assertEquals(DecodeProfile.Family.ONE_D, chain.getOrder().get(0));
+
+        int found = 0;
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 3)) {
+            if (decoder.decode(decoder.buildLuminanceSource(generator.render(sample, null)))
+                    != null) {
+                found++;
+            }
+        }
+
+        assertEquals(found, chain.getHitCount(DecodeProfile.Family.QR_CODE));
+        assertEquals(DecodeProfile.Family.QR_CODE, chain.getOrder().get(0));
+        assertEquals(0L, chain.getHitCount(DecodeProfile.Family.ONE_D));
+    }
+
+}
@@ -0,0 +1,125 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameQualityGateTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void rejectsEmptyFramesAndAcceptsSharpBarcodes() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 3L);
+        generator.setEmptyRatio(0.5f);
+        generator.setMaxNoise(2f);
+        FrameQualityGate gate = new FrameQualityGate();
+
+        int empty = 0;
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 20)) {
+            Frame frame = generator.render(sample, null);
+            assertEquals(sample.toString(), sample.getFormat() != null, gate.accept(frame));
+            if (sample.getFormat() == null) {
+                empty++;
+            }
+        }
+        assertEquals(20, gate.getCheckedCount());
+        assertEquals(empty, gate.getRejectedCount());
+        assertEquals(empty / 20.0, gate.getRejectionRate(), 1e-9);
+    }
+
+    @Test
+    public void blurLowersSharpness() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 5L);
+        generator.setEmptyRatio(0f);
+        generator.setScale(0.6f, 0.6f);
+        FrameQualityGate gate = new FrameQualityGate();
+        FrameQualityGate.Quality sharp = gate.measure(generator.render(generator.sample(0), null));
+
+        generator.setMaxBlur(100);
+        long index = 0;
+        while (generator.sample(index).getBlurRadius() < 10) {
+            index++;
+        }
+        FrameQualityGate.Quality blurred =
+                gate.measure(generator.render(generator.sample(index), null));
+
+        assertTrue(sharp + " vs " + blurred, blurred.getSharpness() < sharp.getSharpness() / 4);
+        assertTrue(sharp.toString(), sharp.getSharpness() > FrameQualityGate.DEFAULT_MIN_SHARPNESS);
+        assertEquals(0, gate.getCheckedCount());
+    }
+
+    @Test
+    public void measuresTheCropRectangleAtEveryRotation() {
+        // A checkerboard in one corner of the Y plane, flat grey elsewhere.
+        byte[] data = new byte[WIDTH * HEIGHT];
+        Arrays.fill(data, (byte) 128);
+        for (int y = 0; y < 60; y++) {
+            for (int x = 0; x < 80; x++) {
+                data[y * WIDTH + x] = (byte) (((x / 4 + y / 4) & 1) == 0 ? 40 : 220);
+            }
+        }
+        FrameQualityGate gate = new FrameQualityGate();
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            boolean swapped = rotation == 90 || rotation == 270;
+            int rotatedWidth = swapped ? HEIGHT : WIDTH;
+            int rotatedHeight = swapped ? WIDTH : HEIGHT;
+            // Where the corner of the Y plane ends up once rotated clockwise.
+            int cropWidth = swapped ? 60 : 80;
+            int cropHeight = swapped ? 80 : 60;
+            int left = rotation == 90 || rotation == 180 ? rotatedWidth - cropWidth : 0;
+            int top = rotation == 180 || rotation == 270 ? rotatedHeight - cropHeight : 0;
+
+            Frame corner = new Frame(data, WIDTH, HEIGHT, rotation, left, top, cropWidth,
+                    cropHeight, 0L);
+            assertTrue("rotation " + rotation, gate.accept(corner));
+            Frame flat = new Frame(data, WIDTH, HEIGHT, rotation, rotatedWidth - left - cropWidth,
+                    rotatedHeight - top - cropHeight, cropWidth, cropHeight, 0L);
+            assertFalse("rotation " + rotation, gate.accept(flat));
+            assertEquals(0f, gate.measure(flat).getContrast(), 0f);
+        }
+    }
+
+    @Test
+    public void decodeLoopSkipsRejectedFrames() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 1L);
+        generator.setEmptyRatio(0.5f);
+        SyntheticFrameSource source = new SyntheticFrameSource(generator, 0, 10);
+        final int[] outcomes = new int[2];
+        DecodeLoop loop = new DecodeLoop(source,
+                new FrameDecoder(new DecodeConfig(null, null, null)), new DecodeLoop.Listener() {
+            @Override
+            public void onDecodeSucceeded(Frame frame, Result result,
+                                          RotatedPlanarYUVLuminanceSource luminance) {
+                outcomes[0]++;
+            }
+
+            @Override
+            public void onDecodeFailed(Frame frame) {
+                outcomes[1]++;
+            }
+        });
+        PipelineMetrics metrics = new PipelineMetrics();
+        FrameQualityGate gate = new FrameQualityGate();
+        loop.setMetrics(metrics);
+        loop.setQualityGate(gate);
+
+        assertEquals(10, loop.run());
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(10, outcomes[0] + outcomes[1]);
+        assertEquals(gate.getRejectedCount(), snapshot.getRejected());
+        assertEquals(10 - snapshot.getRejected(), snapshot.getFrames());
+        assertEquals(10, snapshot.getQualityCheck().getCount());
+        assertEquals(gate.getRejectionRate(), snapshot.getRejectionRate(), 1e-9);
+        assertTrue(snapshot.getRejected() > 0);
+    }
+
+}
@@ -0,0 +1,177 @@
+package mw.ankara.qrcode.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRecordingTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int NV21 = 17;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("frames", ".yuv");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void framesReadBackAsRecorded() throws IOException {
+        Frame[] frames = record(3, 0);
+
+        FrameRecording recording = new FrameRecording(file);
+        assertEquals(3, recording.size());
+        for (int i = 0; i < frames.length; i++) {
+            Frame frame = recording.getFrame(i, null, 99L);
+            assertEquals(NV21, recording.getFormat(i));
+            assertEquals(frames[i].getTimestampNanos(), recording.getTimestampNanos(i));
+            assertEquals(99L, frame.getTimestampNanos());
+            assertEquals(WIDTH, frame.getWidth());
+            assertEquals(HEIGHT, frame.getHeight());
+            assertEquals(90, frame.getRotation());
+            assertEquals(8, frame.getCropLeft());
+            assertEquals(16, frame.getCropTop());
+            assertEquals(32, frame.getCropWidth());
+            assertEquals(24, frame.getCropHeight());
+            assertArrayEquals(frames[i].getData(), frame.getData());
+        }
+    }
+
+    @Test
+    public void recordingAppendsAfterLastCompleteFrame() throws IOException {
+        record(2, 0);
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.setLength(output.length() - 10);
+        output.close();
+        assertEquals(1, new FrameRecording(file).size());
+
+        Frame[] appended = record(1, 5);
+
+        FrameRecording recording = new FrameRecording(file);
+        assertEquals(2, recording.size());
+        assertArrayEquals(appended[0].getData(), recording.getFrame(1, null, 0L).getData());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.writeBytes("not frames at all");
+        output.close();
+
+        new FrameRecorder(file);
+    }
+
+    @Test
+    public void backgroundRecorderCopiesFramesAndCountsDrops() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(file);
+        BackgroundFrameRecorder background = new BackgroundFrameRecorder(recorder, 1);
+        Frame[] frames = frames(4, 0);
+        byte[] firstData = frames[0].getData().clone();
+        synchronized (recorder) {
+            // The writer waits for the recorder, so the only buffer stays taken.
+            assertTrue(background.record(frames[0], NV21));
+            Arrays.fill(frames[0].getData(), (byte) 99);
+            assertFalse(background.record(frames[1], NV21));
+            assertFalse(background.record(frames[2], NV21));
+        }
+        long deadline = System.nanoTime() + 5000000000L;
+        while (background.getRecordedCount() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(background.record(frames[3], NV21));
+        background.close();
+        assertFalse(background.record(frames[3], NV21));
+
+        FrameRecording recording = new FrameRecording(file);
+        assertEquals(2, recording.size());
+        assertArrayEquals(firstData, recording.getFrame(0, null, 0L).getData());
+        assertEquals(frames[3].getTimestampNanos(), recording.getTimestampNanos(1));
+        assertEquals(0, recording.getDroppedBefore(0));
+        assertEquals(2, recording.getDroppedBefore(1));
+        assertEquals(2L, recording.getDroppedCount());
+        assertEquals(2L, background.getRecordedCount());
+        assertEquals(3L, background.getDroppedCount());
+    }
+
+    @Test
+    public void replayerHandsOutEveryFrameOnceAndReusesBuffers() throws IOException {
+        record(3, 0);
+        FrameReplayer replayer = new FrameReplayer(new FrameRecording(file));
+
+        Frame first = replayer.nextFrame();
+        replayer.releaseFrame(first);
+        Frame second = replayer.nextFrame();
+        Frame third = replayer.nextFrame();
+
+        assertTrue(first.getData() == second.getData());
+        assertTrue(third.getData() != second.getData());
+        assertNull(replayer.nextFrame());
+    }
+
+    @Test
+    public void playPostsEveryFrameAtTheRecordedPace() throws Exception {
+        record(3, 0);
+        FrameReplayer replayer = new FrameReplayer(new FrameRecording(file));
+        final int[] posted = new int[1];
+        FrameMailbox mailbox = new FrameMailbox(replayer);
+        mailbox.setListener(new FrameMailbox.Listener() {
+            @Override
+            public void onFrameAvailable() {
+                posted[0]++;
+            }
+        });
+        mailbox.open();
+
+        long start = System.nanoTime();
+        replayer.play(mailbox, 2f);
+        long elapsed = System.nanoTime() - start;
+
+        // Frames were recorded 10 ms apart, so replaying at twice the speed takes at least 10 ms.
+        assertTrue("Took " + elapsed + " ns", elapsed >= 10000000L);
+        assertEquals(1, posted[0]);
+        assertEquals(2, mailbox.getReplacedCount());
+    }
+
+    /**
+     * Records count frames, 10 ms apart, with their luminance set to first, first + 1 and so on.
+     */
+    private Frame[] record(int count, int first) throws IOException {
+        FrameRecorder recorder = new FrameRecorder(file);
+        Frame[] frames = frames(count, first);
+        for (Frame frame : frames) {
+            recorder.record(frame, NV21);
+        }
+        recorder.close();
+        return frames;
+    }
+
+    private static Frame[] frames(int count, int first) {
+        Frame[] frames = new Frame[count];
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+            Arrays.fill(data, (byte) (first + i));
+            frames[i] = new Frame(data, WIDTH, HEIGHT, 90, 8, 16, 32, 24, i * 10000000L);
+        }
+        return frames;
+    }
+
+}
@@ -0,0 +1,134 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineMetricsTest {
+
+    @Test
+    public void histogramPercentilesAreBucketBounds() {
+        Histogram histogram = new Histogram(new long[]{10, 20, 50});
+        for (int i = 1; i <= 8; i++) {
+            histogram.record(i);
+        }
+        histogram.record(15);
+        histogram.record(70);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10, snapshot.getCount());
+        assertEquals(121, snapshot.getSum());
+        assertEquals(70, snapshot.getMax());
+        assertEquals(10, snapshot.getPercentile(0.5));
+        assertEquals(20, snapshot.getPercentile(0.9));
+        assertEquals(70, snapshot.getPercentile(1.0));
+        assertEquals(4, snapshot.getCounts().length);
+        assertEquals(1, snapshot.getCounts()[3]);
+    }
+
+    @Test
+    public void decodeLoopReportsEveryFrame() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(320, 240, 1L);
+        generator.setEmptyRatio(0.5f);
+        SyntheticFrameSource source = new SyntheticFrameSource(generator, 0, 10);
+        PipelineMetrics metrics = new PipelineMetrics();
+        final List<BarcodeFormat> reported = new ArrayList<BarcodeFormat>();
+        metrics.addListener(new PipelineMetrics.Listener() {
+            @Override
+            public void onFrameDecoded(FrameTimings timings) {
+                reported.add(timings.getFormat());
+            }
+
+            @Override
+            public void onFrameReplaced() {
+            }
+
+            @Override
+            public void onFirstResult(long nanos) {
+            }
+        });
+        final int[] hits = new int[1];
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        DecodeLoop loop = new DecodeLoop(source, decoder, new DecodeLoop.Listener() {
+            @Override
+            public void onDecodeSucceeded(Frame frame, Result result,
+                                          RotatedPlanarYUVLuminanceSource luminance) {
+                hits[0]++;
+            }
+
+            @Override
+            public void onDecodeFailed(Frame frame) {
+            }
+        });
+        loop.setMetrics(metrics);
+
+        assertEquals(10, loop.run());
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(10, snapshot.getFrames());
+        assertEquals(10, reported.size());
+        assertEquals(hits[0], snapshot.getHits(BarcodeFormat.QR_CODE));
+        assertEquals(10 - hits[0], snapshot.getMisses());
+        assertEquals(10, snapshot.getDecode().getCount());
+        // Synthetic frames are made on demand, and their timestamps are not on the nanoTime clock.
+        assertEquals(0, snapshot.getQueueWait().getCount());
+    }
+
+    @Test
+    public void firstResultIsTimedOncePerSession() {
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        metrics.resultDelivered();
+        metrics.startSession();
+        metrics.resultDelivered();
+        metrics.resultDelivered();
+
+        assertEquals(1, metrics.snapshot().getTimeToFirstResult().getCount());
+    }
+
+    @Test
+    public void mailboxReportsReplacedFrames() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        FrameMailbox mailbox = new FrameMailbox(null);
+        mailbox.setMetrics(metrics);
+        mailbox.open();
+
+        for (int i = 0; i < 3; i++) {
+            mailbox.post(new Frame(new byte[6], 2, 2, 0, 0, 0, 2, 2, 0L));
+        }
+
+        assertEquals(2, metrics.snapshot().getReplaced());
+    }
+
+    @Test
+    public void mailboxTimesTheWaitFromPostingToTaking() throws InterruptedException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        FrameMailbox mailbox = new FrameMailbox(null);
+        mailbox.setMetrics(metrics);
+        mailbox.open();
+
+        // A timestamp far from the nanoTime clock does not matter, only when the frame was posted.
+        Frame frame = new Frame(new byte[6], 2, 2, 0, 0, 0, 2, 2, 0L);
+        long start = System.nanoTime();
+        mailbox.post(frame);
+        Thread.sleep(5);
+        assertSame(frame, mailbox.nextFrame());
+        long elapsed = System.nanoTime() - start;
+        assertNull(mailbox.nextFrame());
+
+        Histogram.Snapshot queueWait = metrics.snapshot().getQueueWait();
+        assertEquals(1, queueWait.getCount());
+        assertTrue(queueWait.getSum() >= 5000000L);
+        assertTrue(queueWait.getSum() <= elapsed);
+    }
+
+}
@@ -0,0 +1,93 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Result;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class PyramidDecodeTest {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    private FrameMailbox mailbox;
+    private FrameDecoder decoder;
+    private DecodeLoop loop;
+    private RotatedPlanarYUVLuminanceSource found;
+
+    @Before
+    public void setUp() {
+        mailbox = new FrameMailbox(null);
+        mailbox.open();
+        decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        loop = new DecodeLoop(mailbox, decoder, new DecodeLoop.Listener() {
+            @Override
+            public void onDecodeSucceeded(Frame frame, Result result,
+                                          RotatedPlanarYUVLuminanceSource source) {
+                found = source;
+            }
+
+            @Override
+            public void onDecodeFailed(Frame frame) {
+                found = null;
+            }
+        });
+        loop.setPyramid(true);
+    }
+
+    @Test
+    public void coarseScaleKeepsEnoughPixels() {
+        assertEquals(4, FrameDecoder.coarseScale(1920, 1080));
+        assertEquals(2, FrameDecoder.coarseScale(1280, 720));
+        assertEquals(2, FrameDecoder.coarseScale(480, 480));
+        assertEquals(1, FrameDecoder.coarseScale(480, 240));
+    }
+
+    @Test
+    public void largeBarcodesAreFoundScaledDown() {
+        Frame frame = findFrame(0.8f, true);
+        mailbox.post(frame);
+        loop.decodeNext();
+
+        assertNotNull(found);
+        assertEquals(2, found.getScale());
+        assertEquals(HEIGHT / 2, found.getWidth());
+    }
+
+    @Test
+    public void smallBarcodesFallBackToFullResolution() {
+        Frame frame = findFrame(0.1f, false);
+        mailbox.post(frame);
+        loop.decodeNext();
+
+        assertNotNull(found);
+        assertEquals(1, found.getScale());
+        assertEquals(HEIGHT, found.getWidth());
+    }
+
+    /**
+     * @return The first frame with a barcode of the given size that decodes at full resolution,
+     * and, as asked, does or does not decode at the coarse scale.
+     */
+    private Frame findFrame(float size, boolean coarse) {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 4L);
+        generator.setCrop(90, 0, 0, HEIGHT, WIDTH);
+        generator.setEmptyRatio(0f);
+        generator.setScale(size, size);
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 50)) {
+            Frame frame = generator.render(sample, null);
+            int scale = FrameDecoder.coarseScale(HEIGHT, WIDTH);
+            boolean full = decoder.decode(decoder.buildLuminanceSource(frame)) != null;
+            boolean scaled = decoder.decode(decoder.buildLuminanceSource(frame, 0, 0, HEIGHT,
+                    WIDTH, scale)) != null;
+            if (full && scaled == coarse) {
+                return frame;
+            }
+        }
+        throw new IllegalStateException("No suitable frame in the corpus");
+    }
+
+}
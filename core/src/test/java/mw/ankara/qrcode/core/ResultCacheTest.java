@@ -0,0 +1,182 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void reportsEachBarcodeOnce() {
+        ResultCache cache = new ResultCache();
+        assertTrue(cache.offer(result("a", BarcodeFormat.QR_CODE), 0L));
+        assertFalse(cache.offer(result("a", BarcodeFormat.QR_CODE), MILLIS));
+        // The same text in another format is another barcode.
+        assertTrue(cache.offer(result("a", BarcodeFormat.CODE_128), MILLIS));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getNewCount());
+        assertEquals(1, cache.getDuplicateCount());
+
+        cache.reset();
+        assertTrue(cache.offer(result("a", BarcodeFormat.QR_CODE), 2 * MILLIS));
+    }
+
+    @Test
+    public void forgetsBarcodesNotSeenForTheTimeToLive() {
+        ResultCache cache = new ResultCache();
+        cache.setTtl(100 * MILLIS);
+        assertTrue(cache.offer(result("a", BarcodeFormat.QR_CODE), 0L));
+        // Seeing it keeps it alive.
+        assertFalse(cache.offer(result("a", BarcodeFormat.QR_CODE), 80 * MILLIS));
+        assertFalse(cache.offer(result("a", BarcodeFormat.QR_CODE), 160 * MILLIS));
+        assertTrue(cache.offer(result("a", BarcodeFormat.QR_CODE), 300 * MILLIS));
+    }
+
+    @Test
+    public void forgetsTheLeastRecentlySeenFirst() {
+        ResultCache cache = new ResultCache();
+        cache.setCapacity(2);
+        cache.offer(result("a", BarcodeFormat.QR_CODE), 0L);
+        cache.offer(result("b", BarcodeFormat.QR_CODE), 1L);
+        cache.offer(result("a", BarcodeFormat.QR_CODE), 2L);
+        cache.offer(result("c", BarcodeFormat.QR_CODE), 3L);
+
+        assertEquals(2, cache.size());
+        assertFalse(cache.offer(result("a", BarcodeFormat.QR_CODE), 4L));
+        assertTrue(cache.offer(result("b", BarcodeFormat.QR_CODE), 5L));
+    }
+
+    @Test
+    public void masksWhereBarcodesWereRecentlyFoundWhileTheyLookTheSame() {
+        ResultCache cache = new ResultCache();
+        cache.setMaskDuration(100 * MILLIS);
+        byte[] matrix = new byte[WIDTH * HEIGHT];
+        Result result = new Result("a", null, new ResultPoint[]{
+                new ResultPoint(10f, 10f), new ResultPoint(50f, 10f), new ResultPoint(10f, 50f)},
+                BarcodeFormat.QR_CODE);
+        cache.offer(result, 0L, matrix, WIDTH, HEIGHT);
+
+        assertEquals(1, cache.mask(matrix, WIDTH, HEIGHT, 50 * MILLIS));
+        // The points, with a margin of a quarter of the side.
+        assertEquals((byte) 0xff, matrix[30 * WIDTH + 30]);
+        assertEquals((byte) 0xff, matrix[59 * WIDTH + 59]);
+        assertEquals(0, matrix[61 * WIDTH + 61]);
+        assertEquals(0, matrix[30 * WIDTH + 100]);
+
+        // Something else is there now.
+        assertEquals(0, cache.mask(matrix, WIDTH, HEIGHT, 60 * MILLIS));
+
+        Arrays.fill(matrix, (byte) 0);
+        assertEquals(0, cache.mask(matrix, WIDTH, HEIGHT, 100 * MILLIS));
+        assertEquals(0, matrix[30 * WIDTH + 30]);
+        assertEquals(1, cache.getMaskedCount());
+
+        // Without the luminance, there is nothing to compare with, so nothing is masked.
+        cache.offer(result, 200 * MILLIS);
+        assertEquals(0, cache.mask(matrix, WIDTH, HEIGHT, 200 * MILLIS));
+    }
+
+    @Test
+    public void barcodesSwappedInPlaceAreReadAtOnce() throws WriterException {
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        ResultCache cache = new ResultCache();
+        Frame first = twoQrCodes("left", "right", 0L);
+        Frame second = twoQrCodes("left", "other", 10 * MILLIS);
+
+        assertEquals(2, decoder.decodeMultiple(decoder.buildLuminanceSource(first), cache, 0L,
+                null).length);
+        Result[] results = decoder.decodeMultiple(decoder.buildLuminanceSource(second), cache,
+                10 * MILLIS, null);
+        assertEquals(1, results.length);
+        assertEquals("other", results[0].getText());
+        assertEquals(1, cache.getMaskedCount());
+    }
+
+    @Test
+    public void decodeLoopReportsEveryNewBarcodeInAFrame() throws WriterException {
+        FrameMailbox mailbox = new FrameMailbox(null);
+        mailbox.open();
+        final List<String> found = new ArrayList<String>();
+        final int[] failed = new int[1];
+        DecodeLoop loop = new DecodeLoop(mailbox,
+                new FrameDecoder(new DecodeConfig(null, null, null)), new DecodeLoop.Listener() {
+            @Override
+            public void onDecodeSucceeded(Frame frame, Result result,
+                                          RotatedPlanarYUVLuminanceSource source) {
+                found.add(result.getText());
+            }
+
+            @Override
+            public void onDecodeFailed(Frame frame) {
+                failed[0]++;
+            }
+        });
+        ResultCache cache = new ResultCache();
+        loop.setResultCache(cache);
+
+        mailbox.post(twoQrCodes("left", "right", 0L));
+        loop.decodeNext();
+        assertEquals(new HashSet<String>(Arrays.asList("left", "right")),
+                new HashSet<String>(found));
+
+        // Both barcodes are masked in the next frame, so there is nothing left to decode.
+        mailbox.post(twoQrCodes("left", "right", 100 * MILLIS));
+        loop.decodeNext();
+        assertEquals(2, found.size());
+        assertEquals(1, failed[0]);
+        assertEquals(2, cache.getMaskedCount());
+        assertEquals(0, cache.getDuplicateCount());
+
+        // Once the mask runs out they are read again, but not reported.
+        mailbox.post(twoQrCodes("left", "right", 1000 * MILLIS));
+        loop.decodeNext();
+        assertEquals(2, found.size());
+        assertEquals(2, failed[0]);
+        assertEquals(2, cache.getDuplicateCount());
+    }
+
+    private static Result result(String text, BarcodeFormat format) {
+        return new Result(text, null, null, format);
+    }
+
+    /**
+     * @return A frame with a QR code in each half, in black on white.
+     */
+    private static Frame twoQrCodes(String left, String right, long timestampNanos)
+            throws WriterException {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(data, (byte) 0xe0);
+        draw(data, new QRCodeWriter().encode(left, BarcodeFormat.QR_CODE, 200, 200), 40, 140);
+        draw(data, new QRCodeWriter().encode(right, BarcodeFormat.QR_CODE, 200, 200), 380, 140);
+        return new Frame(data, WIDTH, HEIGHT, 0, 0, 0, WIDTH, HEIGHT, timestampNanos);
+    }
+
+    private static void draw(byte[] data, BitMatrix code, int left, int top) {
+        for (int y = 0; y < code.getHeight(); y++) {
+            for (int x = 0; x < code.getWidth(); x++) {
+                if (code.get(x, y)) {
+                    data[(top + y) * WIDTH + left + x] = 0x20;
+                }
+            }
+        }
+    }
+
+}
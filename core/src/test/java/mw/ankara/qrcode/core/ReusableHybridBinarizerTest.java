@@ -0,0 +1,77 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ReusableHybridBinarizerTest {
+
+    @Test
+    public void matchesHybridBinarizerOnSyntheticFrames() throws NotFoundException {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(640, 480, 5L);
+        // Sizes that are not a multiple of the block size, so the last blocks overlap.
+        generator.setCrop(90, 37, 61, 403, 301);
+        generator.setEmptyRatio(0.2f);
+        ReusableHybridBinarizer.Buffers buffers = new ReusableHybridBinarizer.Buffers();
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 40)) {
+            Frame frame = generator.render(sample, null);
+            assertSameMatrix(sample.toString(), new RotatedPlanarYUVLuminanceSource(
+                    frame.getData(), frame.getWidth(), frame.getHeight(), frame.getRotation(),
+                    frame.getCropLeft(), frame.getCropTop(), frame.getCropWidth(),
+                    frame.getCropHeight(), null), buffers);
+        }
+    }
+
+    @Test
+    public void matchesHybridBinarizerWhateverTheSize() throws NotFoundException {
+        Random random = new Random(3L);
+        ReusableHybridBinarizer.Buffers buffers = new ReusableHybridBinarizer.Buffers();
+        // Growing and shrinking in turn, so stale contents of larger buffers would show.
+        int[][] sizes = {{240, 240}, {40, 40}, {41, 95}, {333, 47}, {64, 48}, {100, 100},
+                {17, 300}, {239, 241}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            byte[] data = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    // Soft gradients with noise and some hard edges, so both flat and busy
+                    // blocks come up.
+                    int value = (x * 3 + y * 2) % 200 + random.nextInt(12)
+                            + ((x / 9 + y / 13) % 3 == 0 ? 40 : 0);
+                    data[y * width + x] = (byte) Math.min(255, value);
+                }
+            }
+            assertSameMatrix(width + "x" + height,
+                    new PlanarYUVLuminanceSource(data, width, height, 0, 0, width, height),
+                    buffers);
+        }
+    }
+
+    @Test
+    public void buffersAreReusedForSameSize() throws NotFoundException {
+        ReusableHybridBinarizer.Buffers buffers = new ReusableHybridBinarizer.Buffers();
+        byte[] data = new byte[120 * 80];
+        LuminanceSource source = new PlanarYUVLuminanceSource(data, 120, 80, 0, 0, 120, 80);
+
+        assertSame(new ReusableHybridBinarizer(source, buffers).getBlackMatrix(),
+                new ReusableHybridBinarizer(source, buffers).getBlackMatrix());
+    }
+
+    private static void assertSameMatrix(String message, LuminanceSource source,
+                                         ReusableHybridBinarizer.Buffers buffers)
+            throws NotFoundException {
+        BitMatrix expected = new HybridBinarizer(source).getBlackMatrix();
+        BitMatrix actual = new ReusableHybridBinarizer(source, buffers).getBlackMatrix();
+        assertEquals(message, expected, actual);
+    }
+
+}
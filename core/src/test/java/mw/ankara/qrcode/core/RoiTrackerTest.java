@@ -0,0 +1,135 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoiTrackerTest {
+
+    @Test
+    public void windowFollowsPointsAndFallsBackAfterMisses() {
+        Frame frame = new Frame(new byte[640 * 480], 640, 480, 0, 100, 100, 400, 300, 0L);
+        RoiTracker tracker = new RoiTracker();
+        RoiTracker.Observation observation = tracker.newObservation();
+
+        assertFalse(tracker.start(frame, observation));
+        assertEquals(400, observation.getWidth());
+        observation.foundPossibleResultPoint(new ResultPoint(100, 100));
+        observation.foundPossibleResultPoint(new ResultPoint(160, 100));
+        observation.foundPossibleResultPoint(new ResultPoint(100, 160));
+        tracker.finish(frame, observation, false);
+
+        // 60 pixels apart, padded by 30 on each side.
+        assertTrue(tracker.start(frame, observation));
+        assertEquals(70, observation.getLeft());
+        assertEquals(70, observation.getTop());
+        assertEquals(120, observation.getWidth());
+        assertEquals(120, observation.getHeight());
+
+        for (int i = 1; i < RoiTracker.DEFAULT_MAX_MISSES; i++) {
+            tracker.finish(frame, observation, false);
+            assertTrue(tracker.start(frame, observation));
+        }
+        tracker.finish(frame, observation, false);
+        assertFalse(tracker.start(frame, observation));
+        assertEquals(0, observation.getLeft());
+        assertEquals(300, observation.getHeight());
+        assertEquals(1, tracker.getFallbackCount());
+        assertEquals(RoiTracker.DEFAULT_MAX_MISSES, tracker.getNarrowedCount());
+    }
+
+    @Test
+    public void windowKeepsAMinimumSizeWithinTheCrop() {
+        Frame frame = new Frame(new byte[640 * 480], 640, 480, 90, 0, 0, 400, 300, 0L);
+        RoiTracker tracker = new RoiTracker();
+        RoiTracker.Observation observation = tracker.newObservation();
+        tracker.start(frame, observation);
+        observation.foundPossibleResultPoint(new ResultPoint(390, 5));
+        observation.foundPossibleResultPoint(new ResultPoint(395, 10));
+        tracker.finish(frame, observation, false);
+
+        assertTrue(tracker.start(frame, observation));
+        assertEquals(400, observation.getLeft() + observation.getWidth());
+        assertEquals(0, observation.getTop());
+        assertTrue(observation.getWidth() >= 400 * RoiTracker.DEFAULT_MIN_SIZE / 2);
+        assertTrue(observation.getHeight() >= 300 * RoiTracker.DEFAULT_MIN_SIZE / 2);
+    }
+
+    @Test
+    public void decodeLoopDecodesTheWindowAroundABarcode() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(640, 480, 9L);
+        generator.setCrop(90, 40, 80, 400, 480);
+        generator.setEmptyRatio(0f);
+        generator.setScale(0.3f, 0.3f);
+        final List<ResultPoint> reported = new ArrayList<ResultPoint>();
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null,
+                new ResultPointCallback() {
+                    @Override
+                    public void foundPossibleResultPoint(ResultPoint point) {
+                        reported.add(point);
+                    }
+                }));
+
+        // The same scene over and over, as when the phone is held still.
+        Frame frame = null;
+        for (long i = 0; frame == null; i++) {
+            Frame candidate = generator.render(generator.sample(i), null);
+            if (decoder.decode(decoder.buildLuminanceSource(candidate)) != null) {
+                frame = candidate;
+            }
+        }
+        FrameMailbox mailbox = new FrameMailbox(null);
+        mailbox.open();
+        final List<int[]> decoded = new ArrayList<int[]>();
+        DecodeLoop loop = new DecodeLoop(mailbox, decoder, new DecodeLoop.Listener() {
+            @Override
+            public void onDecodeSucceeded(Frame frame, Result result,
+                                          RotatedPlanarYUVLuminanceSource luminance) {
+                decoded.add(new int[]{luminance.getWidth(), luminance.getHeight()});
+            }
+
+            @Override
+            public void onDecodeFailed(Frame frame) {
+                decoded.add(null);
+            }
+        });
+        RoiTracker tracker = new RoiTracker();
+        loop.setRoiTracker(tracker);
+
+        float[] left = new float[3];
+        for (int i = 0; i < 3; i++) {
+            reported.clear();
+            mailbox.post(frame);
+            loop.decodeNext();
+            left[i] = Float.MAX_VALUE;
+            for (ResultPoint point : reported) {
+                left[i] = Math.min(left[i], point.getX());
+            }
+        }
+
+        assertEquals(3, decoded.size());
+        assertNotNull(decoded.get(0));
+        assertEquals(400, decoded.get(0)[0]);
+        for (int i = 1; i < 3; i++) {
+            assertNotNull("frame " + i, decoded.get(i));
+            assertTrue(decoded.get(i)[0] * decoded.get(i)[1] < 400 * 480 / 2);
+        }
+        assertEquals(2, tracker.getNarrowedCount());
+        // Points found in a window are still reported relative to the crop rectangle, so they
+        // are the same for every frame.
+        assertTrue(left[0] < Float.MAX_VALUE);
+        assertEquals(left[0], left[1], 1f);
+        assertEquals(left[0], left[2], 1f);
+    }
+
+}
@@ -0,0 +1,126 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.LuminanceSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RotatedPlanarYUVLuminanceSourceTest {
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 5;
+
+    @Test
+    public void allRotationsMatchCopiedRotation() {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) i;
+        }
+
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            boolean swapped = rotation == 90 || rotation == 270;
+            int rotatedWidth = swapped ? HEIGHT : WIDTH;
+            int rotatedHeight = swapped ? WIDTH : HEIGHT;
+            byte[] rotated = rotate(frame, rotation);
+
+            int left = 1;
+            int top = 2;
+            int width = rotatedWidth - 2;
+            int height = rotatedHeight - 3;
+            RotatedPlanarYUVLuminanceSource source = new RotatedPlanarYUVLuminanceSource(frame,
+                    WIDTH, HEIGHT, rotation, left, top, width, height, null);
+            PlanarYUVLuminanceSource expected = new PlanarYUVLuminanceSource(rotated,
+                    rotatedWidth, rotatedHeight, left, top, width, height);
+
+            byte[] matrix = source.getMatrix();
+            byte[] expectedMatrix = expected.getMatrix();
+            for (int i = 0; i < width * height; i++) {
+                assertEquals("rotation " + rotation, expectedMatrix[i], matrix[i]);
+            }
+            for (int y = 0; y < height; y++) {
+                byte[] row = source.getRow(y, null);
+                byte[] expectedRow = expected.getRow(y, null);
+                for (int x = 0; x < width; x++) {
+                    assertEquals("rotation " + rotation, expectedRow[x], row[x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void scaledSourcesAverageRotatedSquares() {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (i * 37);
+        }
+
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            boolean swapped = rotation == 90 || rotation == 270;
+            int rotatedWidth = swapped ? HEIGHT : WIDTH;
+            int rotatedHeight = swapped ? WIDTH : HEIGHT;
+            byte[] rotated = rotate(frame, rotation);
+
+            int left = 1;
+            int top = 0;
+            int width = rotatedWidth - 1;
+            int height = rotatedHeight;
+            RotatedPlanarYUVLuminanceSource source = new RotatedPlanarYUVLuminanceSource(frame,
+                    WIDTH, HEIGHT, rotation, left, top, width, height, 2, null);
+            assertEquals(width / 2, source.getWidth());
+            assertEquals(height / 2, source.getHeight());
+
+            byte[] matrix = source.getMatrix();
+            int[] pixels = source.renderCroppedGreyscale();
+            for (int y = 0; y < height / 2; y++) {
+                byte[] row = source.getRow(y, null);
+                for (int x = 0; x < width / 2; x++) {
+                    int offset = (top + y * 2) * rotatedWidth + left + x * 2;
+                    int sum = (rotated[offset] & 0xff) + (rotated[offset + 1] & 0xff)
+                            + (rotated[offset + rotatedWidth] & 0xff)
+                            + (rotated[offset + rotatedWidth + 1] & 0xff);
+                    String message = "rotation " + rotation + " at " + x + "," + y;
+                    assertEquals(message, sum / 4, matrix[y * (width / 2) + x] & 0xff);
+                    assertEquals(message, sum / 4, row[x] & 0xff);
+                    assertEquals(message, sum / 4, pixels[y * (width / 2) + x] & 0xff);
+                }
+            }
+
+            // Cropping is in pixels of the scaled source.
+            LuminanceSource cropped = source.crop(1, 1, 1, 1);
+            assertEquals("rotation " + rotation, matrix[width / 2 + 1], cropped.getMatrix()[0]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCropOutsideRotatedFrame() {
+        // A crop in unrotated coordinates does not fit the rotated frame.
+        new RotatedPlanarYUVLuminanceSource(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 90,
+                0, 0, WIDTH, HEIGHT, null);
+    }
+
+    private static byte[] rotate(byte[] data, int rotation) {
+        byte[] rotated = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                byte value = data[y * WIDTH + x];
+                switch (rotation) {
+                    case 0:
+                        rotated[y * WIDTH + x] = value;
+                        break;
+                    case 90:
+                        rotated[x * HEIGHT + HEIGHT - y - 1] = value;
+                        break;
+                    case 180:
+                        rotated[(HEIGHT - y - 1) * WIDTH + WIDTH - x - 1] = value;
+                        break;
+                    default:
+                        rotated[(WIDTH - x - 1) * HEIGHT + y] = value;
+                        break;
+                }
+            }
+        }
+        return rotated;
+    }
+
+}
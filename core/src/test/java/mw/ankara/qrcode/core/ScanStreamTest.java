@@ -0,0 +1,165 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanStreamTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void deliversOnlyWhatWasRequested() {
+        ScanStream stream = new ScanStream();
+        Recorder recorder = new Recorder();
+        ScanStream.Subscription subscription = stream.subscribe(recorder);
+        assertFalse(stream.hasDemand());
+        assertEquals(0, stream.publish(result("a"), 0L));
+
+        subscription.request(2);
+        assertTrue(stream.hasDemand());
+        assertEquals(1, stream.publish(result("a"), MILLIS));
+        assertEquals(1, stream.publish(result("b"), 2 * MILLIS));
+        assertFalse(stream.hasDemand());
+        // Dropped, not queued for the next request.
+        assertEquals(0, stream.publish(result("c"), 3 * MILLIS));
+        subscription.request(Long.MAX_VALUE);
+        subscription.request(1);
+        assertEquals(1, stream.publish(result("d"), 4 * MILLIS));
+        assertEquals(Long.MAX_VALUE, subscription.getDemand());
+
+        assertEquals(Arrays.asList("a", "b", "d"), recorder.texts);
+        assertEquals(5, stream.getPublishedCount());
+        assertEquals(3, stream.getDeliveredCount());
+        assertEquals(2, stream.getDroppedCount());
+    }
+
+    @Test
+    public void deliversABarcodeAgainOnlyAfterItsCooldown() {
+        ScanStream stream = new ScanStream();
+        Recorder recorder = new Recorder();
+        ScanStream.Subscription subscription = stream.subscribe(recorder);
+        subscription.request(Long.MAX_VALUE);
+        subscription.setCooldown(100 * MILLIS);
+
+        stream.publish(result("a"), 0L);
+        // Held in view.
+        stream.publish(result("a"), 80 * MILLIS);
+        stream.publish(result("a"), 160 * MILLIS);
+        stream.publish(result("b"), 170 * MILLIS);
+        // Out of view for longer than the cooldown.
+        stream.publish(result("a"), 300 * MILLIS);
+        assertEquals(Arrays.asList("a", "b", "a"), recorder.texts);
+
+        // Every sighting.
+        subscription.setCooldown(0L);
+        stream.publish(result("a"), 310 * MILLIS);
+        stream.publish(result("a"), 320 * MILLIS);
+        assertEquals(5, recorder.texts.size());
+
+        subscription.setCooldown(Long.MAX_VALUE);
+        stream.publish(result("a"), 10000 * MILLIS);
+        assertEquals(5, recorder.texts.size());
+        subscription.clearSeen();
+        stream.publish(result("a"), 10001 * MILLIS);
+        assertEquals(6, recorder.texts.size());
+    }
+
+    @Test
+    public void eachSubscriptionHasItsOwnDemandAndCooldown() {
+        ScanStream stream = new ScanStream();
+        Recorder once = new Recorder();
+        Recorder every = new Recorder();
+        stream.subscribe(once).request(Long.MAX_VALUE);
+        ScanStream.Subscription subscription = stream.subscribe(every);
+        subscription.request(Long.MAX_VALUE);
+        subscription.setCooldown(0L);
+
+        assertEquals(2, stream.publish(result("a"), 0L));
+        assertEquals(1, stream.publish(result("a"), MILLIS));
+        assertEquals(1, once.texts.size());
+        assertEquals(2, every.texts.size());
+    }
+
+    @Test
+    public void pausingKeepsTheDemandForLater() {
+        ScanStream stream = new ScanStream();
+        final int[] told = new int[1];
+        stream.setListener(new ScanStream.Listener() {
+            @Override
+            public void onDemandAvailable() {
+                told[0]++;
+            }
+        });
+        Recorder recorder = new Recorder();
+        ScanStream.Subscription subscription = stream.subscribe(recorder);
+        subscription.request(1);
+        assertEquals(1, told[0]);
+
+        subscription.pause();
+        assertTrue(subscription.isPaused());
+        assertFalse(stream.hasDemand());
+        assertEquals(0, stream.publish(result("a"), 0L));
+        // Asking for more while paused does not wake the scanner.
+        subscription.request(1);
+        assertEquals(1, told[0]);
+
+        subscription.resume();
+        assertEquals(2, told[0]);
+        assertEquals(1, stream.publish(result("a"), MILLIS));
+        assertEquals(1, subscription.getDemand());
+        // Results seen while paused did not count, so "a" was new.
+        assertEquals(Arrays.asList("a"), recorder.texts);
+
+        subscription.cancel();
+        assertFalse(stream.hasDemand());
+        subscription.request(1);
+        assertEquals(0, stream.publish(result("b"), 2 * MILLIS));
+        assertEquals(2, told[0]);
+    }
+
+    @Test
+    public void subscribersCanAskForMoreAsTheyGo() {
+        final ScanStream stream = new ScanStream();
+        final List<String> texts = new ArrayList<String>();
+        final ScanStream.Subscription[] subscription = new ScanStream.Subscription[1];
+        subscription[0] = stream.subscribe(new ScanStream.Subscriber() {
+            @Override
+            public void onScan(Result result, long timestampNanos) {
+                texts.add(result.getText());
+                if (texts.size() < 2) {
+                    subscription[0].request(1);
+                }
+            }
+        });
+        subscription[0].request(1);
+
+        stream.publish(result("a"), 0L);
+        stream.publish(result("b"), MILLIS);
+        stream.publish(result("c"), 2 * MILLIS);
+        assertEquals(Arrays.asList("a", "b"), texts);
+    }
+
+    private static Result result(String text) {
+        return new Result(text, null, null, BarcodeFormat.QR_CODE);
+    }
+
+    private static final class Recorder implements ScanStream.Subscriber {
+        final List<String> texts = new ArrayList<String>();
+
+        @Override
+        public void onScan(Result result, long timestampNanos) {
+            texts.add(result.getText());
+        }
+    }
+
+}
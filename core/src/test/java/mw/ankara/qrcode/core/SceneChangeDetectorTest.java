@@ -0,0 +1,123 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SceneChangeDetectorTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final long FRAME_NANOS = SyntheticFrameGenerator.FRAME_INTERVAL_NANOS;
+
+    private final Random random = new Random(11L);
+
+    @Test
+    public void skipsScenesThatAlreadyHeldNothing() {
+        SceneChangeDetector detector = new SceneChangeDetector();
+        SceneChangeDetector.Fingerprint fingerprint = detector.newFingerprint();
+
+        assertTrue(detector.shouldDecode(scene(100, 0), fingerprint));
+        // Not decoded yet, so the same scene is still worth a try.
+        assertTrue(detector.shouldDecode(scene(100, 1), fingerprint));
+        detector.decodeFailed(fingerprint);
+        assertFalse(detector.shouldDecode(scene(100, 2), fingerprint));
+        assertFalse(detector.shouldDecode(scene(101, 3), fingerprint));
+        assertTrue(detector.shouldDecode(scene(140, 4), fingerprint));
+        assertEquals(2, detector.getSkippedCount());
+
+        detector.reset();
+        assertTrue(detector.shouldDecode(scene(100, 5), fingerprint));
+    }
+
+    @Test
+    public void slowsDownWhileNothingMoves() {
+        SceneChangeDetector detector = new SceneChangeDetector();
+        SceneChangeDetector.Fingerprint fingerprint = detector.newFingerprint();
+        long idleAfterFrames = SceneChangeDetector.DEFAULT_IDLE_AFTER_NANOS / FRAME_NANOS;
+        long intervalFrames = SceneChangeDetector.DEFAULT_IDLE_INTERVAL_NANOS / FRAME_NANOS;
+
+        // The light drifts by half a grey level per frame, too little to count as motion, but
+        // enough for every few frames to differ from the last scene decoded.
+        int decoded = 0;
+        long frame = 0;
+        for (; frame <= idleAfterFrames + 1; frame++) {
+            if (detector.shouldDecode(scene(50 + (int) frame / 2, frame), fingerprint)) {
+                detector.decodeFailed(fingerprint);
+                decoded++;
+            }
+        }
+        assertTrue(detector.isIdle());
+        assertTrue(String.valueOf(decoded), decoded > idleAfterFrames / 8);
+
+        decoded = 0;
+        long idleFrames = 4 * intervalFrames;
+        for (long end = frame + idleFrames; frame < end; frame++) {
+            if (detector.shouldDecode(scene(50 + (int) frame / 2, frame), fingerprint)) {
+                detector.decodeFailed(fingerprint);
+                decoded++;
+            }
+        }
+        assertTrue(detector.isIdle());
+        assertTrue(String.valueOf(decoded), decoded <= idleFrames / intervalFrames);
+
+        assertTrue(detector.shouldDecode(scene(200, frame), fingerprint));
+        assertFalse(detector.isIdle());
+    }
+
+    @Test
+    public void decodeLoopReportsSkippedFrames() {
+        final FrameMailbox mailbox = new FrameMailbox(null);
+        mailbox.open();
+        final int[] failed = new int[1];
+        DecodeLoop loop = new DecodeLoop(mailbox,
+                new FrameDecoder(new DecodeConfig(null, null, null)), new DecodeLoop.Listener() {
+            @Override
+            public void onDecodeSucceeded(Frame frame, Result result,
+                                          RotatedPlanarYUVLuminanceSource luminance) {
+            }
+
+            @Override
+            public void onDecodeFailed(Frame frame) {
+                failed[0]++;
+            }
+        });
+        PipelineMetrics metrics = new PipelineMetrics();
+        loop.setMetrics(metrics);
+        loop.setSceneChangeDetector(new SceneChangeDetector());
+
+        for (int i = 0; i < 5; i++) {
+            mailbox.post(scene(100, i));
+            assertTrue(loop.decodeNext());
+        }
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(5, failed[0]);
+        assertEquals(1, snapshot.getFrames());
+        assertEquals(4, snapshot.getUnchanged());
+    }
+
+    /**
+     * @return A grey frame with a darker square in the middle, a little noise, and the given
+     * brightness.
+     */
+    private Frame scene(int brightness, long index) {
+        byte[] data = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inside = Math.abs(x - WIDTH / 2) < 40 && Math.abs(y - HEIGHT / 2) < 40;
+                int value = (inside ? brightness / 2 : brightness)
+                        + (int) Math.round(random.nextGaussian() * 2);
+                data[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return new Frame(data, WIDTH, HEIGHT, 90, 20, 40, 200, 240, index * FRAME_NANOS);
+    }
+
+}
@@ -0,0 +1,53 @@
+package mw.ankara.qrcode.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void recordsStepsAndMilestonesFromTheStart() throws InterruptedException {
+        StartupTimeline timeline = new StartupTimeline();
+        timeline.start();
+        StartupTimeline.Span open = timeline.begin("camera open");
+        assertEquals(-1L, timeline.getDurationNanos("camera open"));
+        assertTrue(timeline.toString().contains("...  camera open"));
+        Thread.sleep(2);
+        open.end();
+        long duration = timeline.getDurationNanos("camera open");
+        assertTrue(duration > 0L);
+        // Only the first end counts.
+        open.end();
+        assertEquals(duration, timeline.getDurationNanos("camera open"));
+
+        assertTrue(timeline.markOnce("first frame"));
+        assertFalse(timeline.markOnce("first frame"));
+        assertEquals(0L, timeline.getDurationNanos("first frame"));
+        assertTrue(timeline.getOffsetNanos("first frame")
+                >= timeline.getOffsetNanos("camera open") + duration);
+        assertEquals(-1L, timeline.getOffsetNanos("first result"));
+
+        String text = timeline.toString();
+        assertTrue(text.startsWith("startup (ms):"));
+        assertTrue(text.indexOf("camera open") < text.indexOf("first frame"));
+        assertTrue(text.contains("[" + Thread.currentThread().getName() + "]"));
+    }
+
+    @Test
+    public void startingAgainForgetsTheLastStart() {
+        StartupTimeline timeline = new StartupTimeline();
+        timeline.mark("first frame");
+        timeline.start();
+        assertEquals(-1L, timeline.getOffsetNanos("first frame"));
+        assertTrue(timeline.markOnce("first frame"));
+    }
+
+    @Test
+    public void warmingUpADecoderFindsNothing() {
+        new FrameDecoder(new DecodeConfig(null, null, null)).warmUp();
+    }
+
+}
@@ -0,0 +1,121 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticFrameGeneratorTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void sameSeedGivesSameFrames() {
+        SyntheticFrameGenerator first = distorted(7L);
+        SyntheticFrameGenerator second = distorted(7L);
+
+        for (long index = 0; index < 5; index++) {
+            assertArrayEquals(first.render(first.sample(index), null).getData(),
+                    second.render(second.sample(index), null).getData());
+        }
+        assertFalse(Arrays.equals(first.render(first.sample(0), null).getData(),
+                distorted(8L).render(distorted(8L).sample(0), null).getData()));
+    }
+
+    @Test
+    public void framesDoNotDependOnRenderingOrder() {
+        SyntheticFrameGenerator generator = distorted(7L);
+        byte[] later = generator.render(generator.sample(3), null).getData().clone();
+        generator.render(generator.sample(0), null);
+
+        assertArrayEquals(later, generator.render(generator.sample(3), null).getData());
+    }
+
+    @Test
+    public void cleanFramesDecodeToTheirContents() {
+        for (BarcodeFormat format : Arrays.asList(BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128,
+                BarcodeFormat.CODE_39, BarcodeFormat.EAN_13, BarcodeFormat.EAN_8,
+                BarcodeFormat.UPC_A, BarcodeFormat.ITF)) {
+            SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 1L);
+            generator.setCrop(90, 0, 80, HEIGHT, HEIGHT);
+            generator.setFormats(Collections.singletonList(format));
+            FrameDecoder decoder = new FrameDecoder(
+                    new DecodeConfig(Collections.singletonList(format), null, null));
+
+            for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 3)) {
+                Frame frame = generator.render(sample, null);
+                Result result = decoder.decode(decoder.buildLuminanceSource(frame));
+
+                assertTrue(sample.toString(), result != null);
+                assertEquals(sample.toString(), format, result.getBarcodeFormat());
+                assertEquals(sample.toString(), sample.getContents(), result.getText());
+            }
+        }
+    }
+
+    @Test
+    public void mildDistortionsMostlyDecode() {
+        SyntheticFrameGenerator generator = distorted(3L);
+        SyntheticFrameSource source = new SyntheticFrameSource(generator, 0, 20);
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+
+        int decoded = 0;
+        for (Frame frame = source.nextFrame(); frame != null; frame = source.nextFrame()) {
+            Result result = decoder.decode(decoder.buildLuminanceSource(frame));
+            if (result != null) {
+                assertEquals(source.getSample(frame).getContents(), result.getText());
+                decoded++;
+            }
+            source.releaseFrame(frame);
+        }
+        assertTrue("Only " + decoded + " of 20 decoded", decoded >= 15);
+    }
+
+    @Test
+    public void emptyFramesHoldNoBarcode() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 1L);
+        generator.setEmptyRatio(1f);
+        generator.setMaxNoise(20f);
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+
+        SyntheticFrameGenerator.Sample sample = generator.sample(0);
+        assertNull(sample.getFormat());
+        Frame frame = generator.render(sample, null);
+        assertNull(decoder.decode(decoder.buildLuminanceSource(frame)));
+    }
+
+    @Test
+    public void sourceReusesReleasedBuffers() {
+        SyntheticFrameSource source = new SyntheticFrameSource(distorted(1L), 10, 2);
+
+        Frame first = source.nextFrame();
+        source.releaseFrame(first);
+        Frame second = source.nextFrame();
+
+        assertTrue(first.getData() == second.getData());
+        assertEquals(11, source.getSample(second).getIndex());
+        assertNull(source.nextFrame());
+    }
+
+    private static SyntheticFrameGenerator distorted(long seed) {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, seed);
+        generator.setCrop(90, 0, 80, HEIGHT, HEIGHT);
+        generator.setMaxRotation(10f);
+        generator.setMaxSkew(0.03f);
+        generator.setMaxBlur(1);
+        generator.setMaxNoise(2f);
+        generator.setMinContrast(0.6f);
+        return generator;
+    }
+
+}
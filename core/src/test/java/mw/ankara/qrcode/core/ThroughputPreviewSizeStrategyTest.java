@@ -0,0 +1,112 @@
+package mw.ankara.qrcode.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThroughputPreviewSizeStrategyTest {
+
+    private static final List<int[]> SIZES = Arrays.asList(
+            new int[]{1920, 1080}, new int[]{1440, 1080}, new int[]{1280, 720},
+            new int[]{960, 540}, new int[]{800, 450}, new int[]{640, 480}, new int[]{320, 240});
+
+    @Test
+    public void picksTheSmallestSizeDenseEnoughForTheFramingRect() {
+        ThroughputPreviewSizeStrategy strategy = new ThroughputPreviewSizeStrategy();
+        // A 1080p phone held upright, with a 250dp framing rect at 3x.
+        int[] size = SIZES.get(strategy.selectPreviewSize(SIZES, 1080, 1920, 750));
+        assertEquals(960, size[0]);
+        assertEquals(540, size[1]);
+
+        // Asking for more pixels on the barcode takes a larger preview.
+        strategy.setTargetRoiSide(480);
+        size = SIZES.get(strategy.selectPreviewSize(SIZES, 1080, 1920, 750));
+        assertEquals(1280, size[0]);
+    }
+
+    @Test
+    public void keepsTheScreensAspectRatio() {
+        ThroughputPreviewSizeStrategy strategy = new ThroughputPreviewSizeStrategy();
+        // A 4:3 tablet.
+        int[] size = SIZES.get(strategy.selectPreviewSize(SIZES, 1536, 2048, 750));
+        assertEquals(1440, size[0]);
+        assertEquals(1080, size[1]);
+        assertEquals(-1, strategy.selectPreviewSize(Collections.<int[]>emptyList(), 1080, 1920,
+                750));
+        assertEquals(-1, strategy.selectPreviewSize(SIZES, 0, 0, 750));
+    }
+
+    @Test
+    public void picksTheFrameRateTheDecodersKeepUpWith() {
+        List<int[]> ranges = Arrays.asList(new int[]{7000, 15000}, new int[]{15000, 15000},
+                new int[]{15000, 30000}, new int[]{30000, 30000});
+        ThroughputPreviewSizeStrategy strategy = new ThroughputPreviewSizeStrategy();
+        // Cheap frames: as fast as allowed, with the highest minimum.
+        strategy.setCostModel(1.0, 0.0);
+        assertEquals(3, strategy.selectFpsRange(ranges, 960, 540, 1080, 1920, 750));
+
+        // A frame costs about 84ms, more than one worker can take at 15 fps, so no more than a
+        // smooth preview needs.
+        strategy.setCostModel(600.0, 0.0);
+        assertEquals(1, strategy.selectFpsRange(ranges, 960, 540, 1080, 1920, 750));
+        // Four workers take about 47 frames/s.
+        strategy.setDecodeWorkers(4);
+        assertEquals(3, strategy.selectFpsRange(ranges, 960, 540, 1080, 1920, 750));
+
+        // No range reaches the target: the fastest one.
+        strategy.setFpsLimits(15000, 60000);
+        assertEquals(3, strategy.selectFpsRange(ranges, 960, 540, 1080, 1920, 750));
+        assertEquals(-1, strategy.selectFpsRange(Collections.<int[]>emptyList(), 960, 540, 1080,
+                1920, 750));
+    }
+
+    @Test
+    public void learnsTheDecodingCostFromTheMetrics() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        FrameTimings timings = new FrameTimings();
+        ThroughputPreviewSizeStrategy strategy = new ThroughputPreviewSizeStrategy();
+        assertFalse(strategy.calibrate(metrics.snapshot()));
+        for (int i = 0; i < 40; i++) {
+            timings.clear();
+            // 140ms a frame, or 1000ns per pixel of a 375x375 crop.
+            timings.add(10000000L, 30000000L, 100625000L, 375 * 375, null);
+            metrics.recordFrame(timings);
+        }
+        assertTrue(strategy.calibrate(metrics.snapshot()));
+        assertTrue(strategy.toString().contains("nanosPerRoiPixel=1000.0"));
+        assertEquals(1000.0, strategy.getNanosPerRoiPixel(), 1e-9);
+        assertEquals(ThroughputPreviewSizeStrategy.DEFAULT_NANOS_PER_FRAME_PIXEL,
+                strategy.getNanosPerFramePixel(), 1e-9);
+
+        // Learning about the same again changes nothing.
+        assertFalse(strategy.calibrate(metrics.snapshot()));
+
+        // So expensive that a smaller preview pays off.
+        int[] size = SIZES.get(strategy.selectPreviewSize(SIZES, 1080, 1920, 750));
+        assertEquals(800, size[0]);
+    }
+
+    @Test
+    public void learnsTheCostOfThePixelsActuallyDecoded() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        FrameTimings timings = new FrameTimings();
+        for (int i = 0; i < 40; i++) {
+            timings.clear();
+            // A tracked window of 100x100 pixels in 10ms, then the whole 400x400 crop in 160ms.
+            timings.add(0L, 0L, (i % 2 == 0 ? 10000000L : 160000000L),
+                    i % 2 == 0 ? 100 * 100 : 400 * 400, null);
+            metrics.recordFrame(timings);
+        }
+        ThroughputPreviewSizeStrategy strategy = new ThroughputPreviewSizeStrategy();
+        strategy.setCalibrationTolerance(0.0);
+        assertTrue(strategy.calibrate(metrics.snapshot()));
+        assertEquals(1000.0, strategy.getNanosPerRoiPixel(), 1e-9);
+    }
+
+}
@@ -0,0 +1,183 @@
+package mw.ankara.qrcode.core;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TryHarderPolicyTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void escalatesAfterMissesAndDropsBackOnAHit() {
+        TryHarderPolicy policy = new TryHarderPolicy();
+        policy.setMissesBeforeEscalating(3);
+        policy.setInterval(2);
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(policy.shouldTryHarder(null));
+            policy.record(false, false);
+        }
+        assertTrue(policy.isEscalated());
+        assertEquals(1, policy.getEscalationCount());
+
+        // Every other frame tries harder, starting with the first.
+        assertTrue(policy.shouldTryHarder(null));
+        policy.record(true, false);
+        assertFalse(policy.shouldTryHarder(null));
+        policy.record(false, false);
+        assertTrue(policy.shouldTryHarder(null));
+        policy.record(true, true);
+        assertFalse(policy.isEscalated());
+        assertEquals(2, policy.getHarderFrameCount());
+        assertEquals(1, policy.getHarderHitCount());
+
+        // The misses start over.
+        assertFalse(policy.shouldTryHarder(null));
+        policy.record(false, false);
+        assertFalse(policy.isEscalated());
+
+        policy.setEnabled(false);
+        for (int i = 0; i < 3; i++) {
+            policy.record(false, false);
+        }
+        assertFalse(policy.shouldTryHarder(null));
+    }
+
+    @Test
+    public void dropsBackWhenTheSceneChanges() {
+        TryHarderPolicy policy = new TryHarderPolicy();
+        policy.setMissesBeforeEscalating(1);
+        SceneChangeDetector.Fingerprint dark = fingerprint(40);
+        SceneChangeDetector.Fingerprint shaken = fingerprint(44);
+        SceneChangeDetector.Fingerprint light = fingerprint(200);
+
+        assertFalse(policy.shouldTryHarder(dark));
+        policy.record(false, false);
+        assertTrue(policy.isEscalated());
+        // A small difference is the same scene.
+        assertTrue(policy.shouldTryHarder(shaken));
+        policy.record(true, false);
+        assertTrue(policy.isEscalated());
+
+        assertFalse(policy.shouldTryHarder(light));
+        assertFalse(policy.isEscalated());
+        assertEquals(1, policy.getSceneChangeCount());
+
+        policy.record(false, false);
+        policy.reset();
+        assertFalse(policy.isEscalated());
+        assertNotNull(policy.toString());
+    }
+
+    @Test
+    public void tryingHarderReadsBarcodesTheFastWayMisses() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 5L);
+        generator.setCrop(90, 0, 0, HEIGHT, WIDTH);
+        generator.setFormats(Collections.singletonList(BarcodeFormat.CODE_128));
+        generator.setMaxRotation(0f);
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        Frame frame = null;
+        Result upright = null;
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 20)) {
+            frame = generator.render(sample, null);
+            upright = decoder.decode(decoder.buildLuminanceSource(frame));
+            if (upright != null) {
+                break;
+            }
+        }
+        assertNotNull(upright);
+
+        // Without the rotation, the bars run along the rows, which only a reader trying harder
+        // also scans turned.
+        Frame sideways = new Frame(frame.getData(), WIDTH, HEIGHT, 0, 0, 0, WIDTH, HEIGHT, 0L);
+        assertNull(decoder.decode(decoder.buildLuminanceSource(sideways)));
+        decoder.setTryHarder(true);
+        Result result = decoder.decode(decoder.buildLuminanceSource(sideways));
+        assertNotNull(result);
+        assertEquals(upright.getText(), result.getText());
+
+        decoder.setTryHarder(false);
+        assertNull(decoder.decode(decoder.buildLuminanceSource(sideways)));
+    }
+
+    @Test
+    public void invertedFramesAreReadWhenAsked() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 7L);
+        generator.setCrop(90, 0, 0, HEIGHT, WIDTH);
+        generator.setFormats(Collections.singletonList(BarcodeFormat.QR_CODE));
+        FrameDecoder decoder = new FrameDecoder(new DecodeConfig(null, null, null));
+        Frame frame = null;
+        Result expected = null;
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 20)) {
+            frame = generator.render(sample, null);
+            expected = decoder.decode(decoder.buildLuminanceSource(frame));
+            if (expected != null) {
+                break;
+            }
+        }
+        assertNotNull(expected);
+
+        byte[] data = frame.getData();
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            data[i] = (byte) ~data[i];
+        }
+        assertNull(decoder.decode(decoder.buildLuminanceSource(frame)));
+        decoder.setAlsoInverted(true);
+        Result result = decoder.decode(decoder.buildLuminanceSource(frame));
+        assertNotNull(result);
+        assertEquals(expected.getText(), result.getText());
+    }
+
+    @Test
+    public void decodeLoopEscalatesOnMissedFrames() {
+        SyntheticFrameGenerator generator = new SyntheticFrameGenerator(WIDTH, HEIGHT, 9L);
+        generator.setEmptyRatio(1f);
+        FrameMailbox mailbox = new FrameMailbox(null);
+        mailbox.open();
+        DecodeLoop loop = new DecodeLoop(mailbox,
+                new FrameDecoder(new DecodeConfig(null, null, null)), new DecodeLoop.Listener() {
+            @Override
+            public void onDecodeSucceeded(Frame frame, Result result,
+                                          RotatedPlanarYUVLuminanceSource source) {
+            }
+
+            @Override
+            public void onDecodeFailed(Frame frame) {
+            }
+        });
+        TryHarderPolicy policy = new TryHarderPolicy();
+        policy.setMissesBeforeEscalating(2);
+        policy.setInterval(2);
+        loop.setTryHarderPolicy(policy);
+
+        for (SyntheticFrameGenerator.Sample sample : generator.samples(0, 6)) {
+            mailbox.post(generator.render(sample, null));
+            loop.decodeNext();
+        }
+
+        assertEquals(1, policy.getEscalationCount());
+        assertEquals(2, policy.getHarderFrameCount());
+        assertEquals(0, policy.getHarderHitCount());
+    }
+
+    private static SceneChangeDetector.Fingerprint fingerprint(int luminance) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(data, (byte) luminance);
+        SceneChangeDetector.Fingerprint fingerprint = new SceneChangeDetector().newFingerprint();
+        fingerprint.take(new Frame(data, WIDTH, HEIGHT, 0, 0, 0, WIDTH, HEIGHT, 0L));
+        return fingerprint;
+    }
+
+}